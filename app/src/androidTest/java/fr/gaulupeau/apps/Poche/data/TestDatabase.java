@@ -0,0 +1,58 @@
+package fr.gaulupeau.apps.Poche.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.database.StandardDatabase;
+
+import java.io.Closeable;
+
+import fr.gaulupeau.apps.Poche.data.dao.DaoMaster;
+import fr.gaulupeau.apps.Poche.data.dao.DaoSession;
+
+/**
+ * An in-memory database created the same way the app creates its database.
+ */
+public class TestDatabase implements Closeable {
+
+    private final WallabagDbOpenHelper openHelper;
+    private final SQLiteDatabase sqliteDatabase;
+    private final Database database;
+
+    private DaoSession daoSession;
+
+    public TestDatabase() {
+        openHelper = new WallabagDbOpenHelper(
+                InstrumentationRegistry.getInstrumentation().getTargetContext(), null, null);
+
+        sqliteDatabase = SQLiteDatabase.create(null);
+        database = new StandardDatabase(sqliteDatabase);
+
+        openHelper.onCreate(database);
+        daoSession = new DaoMaster(database).newSession();
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    public DaoSession getDaoSession() {
+        return daoSession;
+    }
+
+    /**
+     * Runs the migrations from the specified version to the current one.
+     */
+    public void upgrade(int oldVersion) {
+        openHelper.onUpgrade(database, oldVersion, DaoMaster.SCHEMA_VERSION);
+        daoSession = new DaoMaster(database).newSession();
+    }
+
+    @Override
+    public void close() {
+        sqliteDatabase.close();
+    }
+
+}
@@ -0,0 +1,344 @@
+package fr.gaulupeau.apps.Poche.ui;
+
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.greenrobot.greendao.Property;
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.query.WhereCondition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import fr.gaulupeau.apps.Poche.data.TestDatabase;
+import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
+import fr.gaulupeau.apps.Poche.data.dao.ArticleTagsJoinDao;
+import fr.gaulupeau.apps.Poche.data.dao.TagDao;
+import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
+
+import static fr.gaulupeau.apps.Poche.data.ListTypes.LIST_TYPE_ARCHIVED;
+import static fr.gaulupeau.apps.Poche.data.ListTypes.LIST_TYPE_FAVORITES;
+import static fr.gaulupeau.apps.Poche.data.ListTypes.LIST_TYPE_UNREAD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks with {@code EXPLAIN QUERY PLAN} that the article list queries
+ * are served by the composite indexes instead of scanning and sorting the table.
+ * <p>
+ * The queries are built by the code of the lists for every list type, sort key,
+ * sort order and filter, including the queries of the following pages
+ * and of the adjacent articles.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ArticleListQueryPlanTest {
+
+    private static final int LIMIT = 30;
+
+    private static final int[] LIST_TYPES = {
+            LIST_TYPE_UNREAD, LIST_TYPE_FAVORITES, LIST_TYPE_ARCHIVED
+    };
+
+    // tag label and search query: no filter, a tag, a search
+    private static final String[][] FILTERS = {
+            {null, null}, {"tag", null}, {null, "query"}
+    };
+
+    // sort key values of the last loaded row: a NULL and a value
+    private static final Long[] LAST_KEYS = {null, 1000L};
+    private static final long LAST_ID = 500;
+
+    // the virtual FTS table is expected to be scanned
+    private static final Pattern ARTICLE_SCAN = Pattern.compile(
+            "^SCAN (TABLE )?(" + ArticleDao.TABLENAME + "|T)( |$)");
+
+    private TestDatabase testDatabase;
+
+    @Before
+    public void setUp() {
+        testDatabase = new TestDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        testDatabase.close();
+    }
+
+    @Test
+    public void listQueriesUseIndexes() {
+        checkListQueries(testDatabase);
+    }
+
+    @Test
+    public void adjacentArticleQueriesUseIndexes() {
+        checkAdjacentArticleQueries(testDatabase);
+    }
+
+    @Test
+    public void unreadCountUsesIndex() {
+        QueryPlan plan = explain(testDatabase.getDatabase(),
+                IconUnreadWidget.getUnreadCountSql(), new ArrayList<>());
+
+        assertNoArticleScan(plan);
+        plan.assertContains(Pattern.compile("INDEX IDX_ARTICLE_ARCHIVE_"));
+    }
+
+    @Test
+    public void upgradeFromVersion112CreatesDeclaredIndexes() {
+        try(TestDatabase upgraded = new TestDatabase()) {
+            downgradeIndexesTo112(upgraded.getDatabase());
+
+            Article article = new Article();
+            article.setArticleId(1);
+            article.setFavorite(false);
+            article.setArchive(false);
+            upgraded.getDaoSession().getArticleDao().insert(article);
+
+            upgraded.upgrade(112);
+
+            // the generic migration recreates the schema from scratch
+            assertEquals("The migration did not keep the data",
+                    1, upgraded.getDaoSession().getArticleDao().count());
+
+            assertEquals(getIndexes(testDatabase.getDatabase()),
+                    getIndexes(upgraded.getDatabase()));
+
+            checkListQueries(upgraded);
+            checkAdjacentArticleQueries(upgraded);
+        }
+    }
+
+    private static void checkListQueries(TestDatabase testDatabase) {
+        Database db = testDatabase.getDatabase();
+        ArticleDao articleDao = testDatabase.getDaoSession().getArticleDao();
+
+        for(int listType: LIST_TYPES) {
+            for(ArticleSortKey sortKey: ArticleSortKey.values()) {
+                for(Sortable.SortOrder sortOrder: Sortable.SortOrder.values()) {
+                    for(String[] filter: FILTERS) {
+                        String tagLabel = filter[0], searchQuery = filter[1];
+
+                        List<QueryPlan> plans = new ArrayList<>();
+                        ArticleListFragment.ItemQuery query = (orderBy, limit, conditions) -> {
+                            List<WhereCondition> where = ArticleListFragment.getConditions(
+                                    listType, tagLabel, searchQuery);
+                            where.addAll(Arrays.asList(conditions));
+
+                            List<Object> values = new ArrayList<>();
+                            plans.add(explain(db, ArticleListFragment.getQuerySql(
+                                    sortKey, where, orderBy, limit, values), values));
+
+                            // no rows: the queries of the NULL keys are run too
+                            return new ArrayList<>();
+                        };
+
+                        query.query(ArticleListFragment.getOrderBy(sortKey, sortOrder), LIMIT);
+                        for(Long lastKey: LAST_KEYS) {
+                            ArticleListFragment.getItemsAfter(articleDao, sortKey, sortOrder,
+                                    lastKey, LAST_ID, LIMIT, query);
+                        }
+
+                        for(QueryPlan plan: plans) {
+                            checkPlan(plan, getFilterIndexName(listType, sortKey),
+                                    tagLabel, searchQuery);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void checkAdjacentArticleQueries(TestDatabase testDatabase) {
+        Database db = testDatabase.getDatabase();
+        ArticleDao articleDao = testDatabase.getDaoSession().getArticleDao();
+
+        for(int listType: LIST_TYPES) {
+            // the same contexts the lists pass to ReadArticleActivity
+            Boolean favorites = listType == LIST_TYPE_FAVORITES ? true : null;
+            Boolean archived = listType == LIST_TYPE_FAVORITES
+                    ? null : listType == LIST_TYPE_ARCHIVED;
+
+            for(ArticleSortKey sortKey: ArticleSortKey.values()) {
+                for(Sortable.SortOrder sortOrder: Sortable.SortOrder.values()) {
+                    for(String[] filter: FILTERS) {
+                        String tagLabel = filter[0], searchQuery = filter[1];
+
+                        ArticleListContext listContext = new ArticleListContext(favorites,
+                                archived, tagLabel, searchQuery, sortKey, sortOrder);
+
+                        List<QueryPlan> plans = new ArrayList<>();
+                        ArticleListContext.ArticleQuery query = (asc, conditions) -> {
+                            List<Object> values = new ArrayList<>();
+                            plans.add(explain(db, listContext.getAdjacentArticleQuerySql(
+                                    asc, conditions, values), values));
+
+                            // no article: the queries of the NULL keys are run too
+                            return null;
+                        };
+
+                        for(Long key: LAST_KEYS) {
+                            listContext.getAdjacentArticle(articleDao, key, LAST_ID, true, query);
+                            listContext.getAdjacentArticle(articleDao, key, LAST_ID, false, query);
+                        }
+
+                        for(QueryPlan plan: plans) {
+                            checkPlan(plan, getFilterIndexName(listType, sortKey),
+                                    tagLabel, searchQuery);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static String getFilterIndexName(int listType, ArticleSortKey sortKey) {
+        Property filterProperty = listType == LIST_TYPE_FAVORITES
+                ? ArticleDao.Properties.Favorite : ArticleDao.Properties.Archive;
+
+        return "IDX_" + ArticleDao.TABLENAME + "_" + filterProperty.columnName
+                + "_" + sortKey.getProperty().columnName;
+    }
+
+    private static void checkPlan(QueryPlan plan, String indexName,
+                                  String tagLabel, String searchQuery) {
+        assertNoArticleScan(plan);
+
+        // the filtered rows may be read by ID and sorted: they are few
+        if(tagLabel == null && searchQuery == null) {
+            plan.assertUsesIndex(indexName);
+            plan.assertNotSorted();
+        }
+
+        if(tagLabel != null) {
+            plan.assertUsesIndex("IDX_ARTICLE_TAGS_JOIN_TAG_ID_ARTICLE_ID");
+            plan.assertUsesIndex("IDX_TAG_LABEL");
+        }
+    }
+
+    private static void assertNoArticleScan(QueryPlan plan) {
+        assertFalse("The plan is empty: " + plan, plan.details.isEmpty());
+
+        for(String line: plan.details) {
+            assertFalse("The articles are scanned: " + plan, ARTICLE_SCAN.matcher(line).find());
+        }
+    }
+
+    // version 112 had single-column indexes on the sort keys and on the tag ID of the join table
+    private static void downgradeIndexesTo112(Database db) {
+        Property[] filterProperties = {
+                ArticleDao.Properties.Archive,
+                ArticleDao.Properties.Favorite
+        };
+
+        for(ArticleSortKey sortKey: ArticleSortKey.values()) {
+            String column = sortKey.getProperty().columnName;
+
+            for(Property filterProperty: filterProperties) {
+                db.execSQL("drop index IDX_" + ArticleDao.TABLENAME + "_"
+                        + filterProperty.columnName + "_" + column);
+            }
+
+            if(sortKey != ArticleSortKey.ID) {
+                db.execSQL("create index IDX_" + ArticleDao.TABLENAME + "_" + column
+                        + " on " + ArticleDao.TABLENAME + " (" + column + ")");
+            }
+        }
+
+        db.execSQL("drop index IDX_ARTICLE_TAGS_JOIN_TAG_ID_ARTICLE_ID");
+        db.execSQL("create index IDX_ARTICLE_TAGS_JOIN_TAG_ID on "
+                + ArticleTagsJoinDao.TABLENAME
+                + " (" + ArticleTagsJoinDao.Properties.TagId.columnName + ")");
+
+        db.execSQL("drop index IDX_" + TagDao.TABLENAME + "_" + TagDao.Properties.Label.columnName);
+    }
+
+    // index name -> table and columns; the automatic indexes of the constraints are skipped
+    private static Map<String, String> getIndexes(Database db) {
+        Map<String, String> indexes = new TreeMap<>();
+
+        try(Cursor c = db.rawQuery("select name, tbl_name from sqlite_master"
+                + " where type = 'index' and sql is not null", null)) {
+            while(c.moveToNext()) {
+                indexes.put(c.getString(0), c.getString(1));
+            }
+        }
+
+        for(Map.Entry<String, String> entry: indexes.entrySet()) {
+            StringBuilder sb = new StringBuilder(entry.getValue());
+
+            try(Cursor c = db.rawQuery("pragma index_info(" + entry.getKey() + ")", null)) {
+                int nameIndex = c.getColumnIndexOrThrow("name");
+                while(c.moveToNext()) {
+                    sb.append(' ').append(c.getString(nameIndex));
+                }
+            }
+
+            entry.setValue(sb.toString());
+        }
+
+        return indexes;
+    }
+
+    private static QueryPlan explain(Database db, String sql, List<Object> values) {
+        String[] args = new String[values.size()];
+        for(int i = 0; i < args.length; i++) {
+            args[i] = String.valueOf(values.get(i));
+        }
+
+        List<String> details = new ArrayList<>();
+        try(Cursor c = db.rawQuery("explain query plan " + sql, args)) {
+            int detailIndex = c.getColumnIndexOrThrow("detail");
+            while(c.moveToNext()) {
+                details.add(c.getString(detailIndex));
+            }
+        }
+
+        return new QueryPlan(sql, details);
+    }
+
+    private static class QueryPlan {
+
+        final String sql;
+        final List<String> details;
+
+        QueryPlan(String sql, List<String> details) {
+            this.sql = sql;
+            this.details = details;
+        }
+
+        void assertUsesIndex(String indexName) {
+            assertContains(Pattern.compile("INDEX " + indexName + "( |$)"));
+        }
+
+        void assertContains(Pattern pattern) {
+            for(String line: details) {
+                if(pattern.matcher(line).find()) return;
+            }
+
+            throw new AssertionError("\"" + pattern + "\" is not in the plan: " + this);
+        }
+
+        void assertNotSorted() {
+            for(String line: details) {
+                assertFalse("The rows are sorted separately: " + this,
+                        line.contains("TEMP B-TREE"));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return details + " of " + sql;
+        }
+
+    }
+
+}
@@ -0,0 +1,257 @@
+package fr.gaulupeau.apps.Poche.ui;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.greenrobot.greendao.query.QueryBuilder;
+import org.greenrobot.greendao.query.WhereCondition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import fr.gaulupeau.apps.Poche.data.TestDatabase;
+import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
+import fr.gaulupeau.apps.Poche.data.dao.ArticleTagsJoinDao;
+import fr.gaulupeau.apps.Poche.data.dao.DaoSession;
+import fr.gaulupeau.apps.Poche.data.dao.TagDao;
+import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
+import fr.gaulupeau.apps.Poche.data.dao.entities.ArticleTagsJoin;
+import fr.gaulupeau.apps.Poche.data.dao.entities.Tag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the tag conditions of the article lists on a synthetic library
+ * and compares them with the join they replaced.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ArticleTagFilterTest {
+
+    private static final String TAG = ArticleTagFilterTest.class.getSimpleName();
+
+    private static final int ARTICLES = 5000;
+    private static final int LABELS = 300;
+    private static final int TAGS_PER_ARTICLE = 5;
+    private static final int BENCHMARK_RUNS = 20;
+
+    private TestDatabase testDatabase;
+    private DaoSession daoSession;
+
+    // label -> local IDs of the articles having a tag with the label
+    private final Map<String, Set<Long>> articlesByLabel = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        testDatabase = new TestDatabase();
+        daoSession = testDatabase.getDaoSession();
+
+        populate(new Random(42));
+    }
+
+    @After
+    public void tearDown() {
+        testDatabase.close();
+    }
+
+    @Test
+    public void singleTag() {
+        assertArticles(expectAny("label1"), query(ArticleListContext.getTagCondition("label1")));
+    }
+
+    @Test
+    public void tagsSharingLabel() {
+        // "label0" is used by two tags: the join returns the articles having both of them twice
+        List<Long> joinResult = queryJoin(getTagIds(Collections.singletonList("label0")));
+        assertTrue("The join returns no duplicates",
+                joinResult.size() > new HashSet<>(joinResult).size());
+
+        assertArticles(expectAny("label0"), query(ArticleListContext.getTagCondition("label0")));
+    }
+
+    @Test
+    public void anyOfTags() {
+        List<String> labels = Arrays.asList("label1", "label2", "label3");
+
+        assertArticles(expectAny(labels.toArray(new String[0])),
+                query(ArticleListContext.getTagCondition(labels, false)));
+    }
+
+    @Test
+    public void allOfTags() {
+        List<String> labels = Arrays.asList("label0", "label1");
+
+        assertArticles(expectAll(labels.toArray(new String[0])),
+                query(ArticleListContext.getTagCondition(labels, true)));
+    }
+
+    @Test
+    public void allOfTagsSharingLabel() {
+        // an article with both "label0" tags has only one of the labels
+        List<String> labels = Arrays.asList("label0", "label0", "label2");
+
+        assertArticles(expectAll("label0", "label2"),
+                query(ArticleListContext.getTagCondition(labels, true)));
+    }
+
+    @Test
+    public void benchmarkSubqueryAgainstJoin() {
+        List<String> labels = Arrays.asList("label0", "label1", "label2");
+
+        List<Long> tagIds = getTagIds(labels);
+
+        long joinTime = 0, subqueryTime = 0;
+        int joinRows = 0;
+        List<Long> subqueryResult = null;
+
+        for(int i = 0; i < BENCHMARK_RUNS; i++) {
+            daoSession.clear();
+
+            long start = System.nanoTime();
+            joinRows = queryJoin(tagIds).size();
+            joinTime += System.nanoTime() - start;
+
+            daoSession.clear();
+
+            start = System.nanoTime();
+            subqueryResult = query(ArticleDao.Properties.Archive.eq(false),
+                    ArticleListContext.getTagCondition(labels, false));
+            subqueryTime += System.nanoTime() - start;
+        }
+
+        Log.i(TAG, String.format("benchmarkSubqueryAgainstJoin() join: %d rows, %d us;"
+                        + " subquery: %d rows, %d us",
+                joinRows, joinTime / BENCHMARK_RUNS / 1000,
+                subqueryResult.size(), subqueryTime / BENCHMARK_RUNS / 1000));
+
+        Set<Long> expected = expectAny(labels.toArray(new String[0]));
+        assertArticles(expected, subqueryResult);
+        // an article is returned once per matching tag
+        assertTrue("The join returns no more rows than articles: " + joinRows,
+                joinRows > expected.size());
+    }
+
+    private void populate(Random random) {
+        List<Tag> tags = new ArrayList<>();
+        for(int i = 0; i < LABELS; i++) {
+            tags.add(new Tag(null, i, "label" + i));
+        }
+        // a duplicate label, as left by a tag renamed on the server
+        tags.add(new Tag(null, LABELS, "label0"));
+        daoSession.getTagDao().insertInTx(tags);
+
+        List<Article> articles = new ArrayList<>(ARTICLES);
+        for(int i = 0; i < ARTICLES; i++) {
+            Article article = new Article();
+            article.setArticleId(i + 1);
+            article.setTitle("Article " + i);
+            article.setFavorite(false);
+            article.setArchive(false);
+            articles.add(article);
+        }
+        daoSession.getArticleDao().insertInTx(articles);
+
+        List<ArticleTagsJoin> joins = new ArrayList<>();
+        for(Article article: articles) {
+            Set<Tag> articleTags = new HashSet<>();
+            while(articleTags.size() < TAGS_PER_ARTICLE) {
+                // skewed towards the first tags, like real libraries
+                int index = (int)(tags.size() * Math.pow(random.nextDouble(), 3));
+                articleTags.add(tags.get(index));
+            }
+            // make sure some articles have both tags sharing a label
+            if(article.getArticleId() % 50 == 0) {
+                articleTags.add(tags.get(0));
+                articleTags.add(tags.get(LABELS));
+            }
+
+            for(Tag tag: articleTags) {
+                joins.add(new ArticleTagsJoin(null, article.getId(), tag.getId()));
+
+                Set<Long> labelArticles = articlesByLabel.get(tag.getLabel());
+                if(labelArticles == null) {
+                    labelArticles = new HashSet<>();
+                    articlesByLabel.put(tag.getLabel(), labelArticles);
+                }
+                labelArticles.add(article.getId());
+            }
+        }
+        daoSession.getArticleTagsJoinDao().insertInTx(joins);
+
+        daoSession.clear();
+    }
+
+    private List<Long> query(WhereCondition condition, WhereCondition... more) {
+        return getIds(daoSession.getArticleDao().queryBuilder()
+                .where(condition, more)
+                .orderDesc(ArticleDao.Properties.ArticleId));
+    }
+
+    // the join the tag conditions replaced
+    private List<Long> queryJoin(Collection<Long> tagIds) {
+        QueryBuilder<Article> qb = daoSession.getArticleDao().queryBuilder()
+                .where(ArticleDao.Properties.Archive.eq(false));
+        qb.join(ArticleTagsJoin.class, ArticleTagsJoinDao.Properties.ArticleId)
+                .where(ArticleTagsJoinDao.Properties.TagId.in(tagIds));
+
+        return getIds(qb.orderDesc(ArticleDao.Properties.ArticleId));
+    }
+
+    private static List<Long> getIds(QueryBuilder<Article> qb) {
+        List<Long> ids = new ArrayList<>();
+        for(Article article: qb.list()) {
+            ids.add(article.getId());
+        }
+        return ids;
+    }
+
+    private List<Long> getTagIds(Collection<String> labels) {
+        List<Long> tagIds = new ArrayList<>();
+        for(Tag tag: daoSession.getTagDao().queryBuilder()
+                .where(TagDao.Properties.Label.in(labels)).list()) {
+            tagIds.add(tag.getId());
+        }
+        return tagIds;
+    }
+
+    private static void assertArticles(Set<Long> expected, List<Long> actual) {
+        Set<Long> actualSet = new HashSet<>(actual);
+        assertEquals("Duplicate articles", actualSet.size(), actual.size());
+        assertEquals(expected, actualSet);
+    }
+
+    private Set<Long> expectAny(String... labels) {
+        Set<Long> result = new HashSet<>();
+        for(String label: labels) {
+            Set<Long> ids = articlesByLabel.get(label);
+            if(ids != null) result.addAll(ids);
+        }
+        return result;
+    }
+
+    private Set<Long> expectAll(String... labels) {
+        Set<Long> result = null;
+        for(String label: labels) {
+            Set<Long> ids = articlesByLabel.get(label);
+            if(ids == null) return new HashSet<>();
+
+            if(result == null) result = new HashSet<>(ids);
+            else result.retainAll(ids);
+        }
+        return result;
+    }
+
+}
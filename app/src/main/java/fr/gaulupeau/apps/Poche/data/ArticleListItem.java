@@ -0,0 +1,132 @@
+package fr.gaulupeau.apps.Poche.data;
+
+import android.database.Cursor;
+
+import org.greenrobot.greendao.Property;
+
+import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
+
+/**
+ * An article list row: only the columns the row shows and the sort key of the list.
+ * <p>
+ * Items are read straight from a cursor, so they are not registered
+ * in the DAO identity scope and are cheap to create and to compare.
+ */
+public class ArticleListItem {
+
+    private static final Property[] COLUMNS = {
+            ArticleDao.Properties.Id,
+            ArticleDao.Properties.ArticleId,
+            ArticleDao.Properties.Title,
+            ArticleDao.Properties.Domain,
+            ArticleDao.Properties.Favorite,
+            ArticleDao.Properties.Archive,
+            ArticleDao.Properties.EstimatedReadingTime
+    };
+
+    private final long id;
+    private final Integer articleId;
+    private final String title;
+    private final String domain;
+    private final boolean favorite;
+    private final boolean archive;
+    private final int estimatedReadingTime;
+    private final Long sortValue;
+
+    private ArticleListItem(long id, Integer articleId, String title, String domain,
+                            boolean favorite, boolean archive, int estimatedReadingTime,
+                            Long sortValue) {
+        this.id = id;
+        this.articleId = articleId;
+        this.title = title;
+        this.domain = domain;
+        this.favorite = favorite;
+        this.archive = archive;
+        this.estimatedReadingTime = estimatedReadingTime;
+        this.sortValue = sortValue;
+    }
+
+    /**
+     * Returns the result columns to select for {@link #fromCursor(Cursor)}.
+     *
+     * @param tableAlias the alias of the article table
+     * @param sortProperty the property the list is ordered by; must be stored as an integer
+     */
+    public static String getResultColumns(String tableAlias, Property sortProperty) {
+        StringBuilder sb = new StringBuilder();
+
+        for(Property property: COLUMNS) {
+            appendColumn(sb, tableAlias, property).append(", ");
+        }
+        appendColumn(sb, tableAlias, sortProperty);
+
+        return sb.toString();
+    }
+
+    public static ArticleListItem fromCursor(Cursor c) {
+        return new ArticleListItem(
+                c.getLong(0),
+                c.isNull(1) ? null : c.getInt(1),
+                c.getString(2),
+                c.getString(3),
+                !c.isNull(4) && c.getShort(4) != 0,
+                !c.isNull(5) && c.getShort(5) != 0,
+                c.getInt(6),
+                c.isNull(7) ? null : c.getLong(7));
+    }
+
+    private static StringBuilder appendColumn(StringBuilder sb, String tableAlias, Property property) {
+        return sb.append(tableAlias).append(".\"").append(property.columnName).append('"');
+    }
+
+    /**
+     * @return the local (DB) ID of the article
+     */
+    public long getId() {
+        return id;
+    }
+
+    public Integer getArticleId() {
+        return articleId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public boolean getFavorite() {
+        return favorite;
+    }
+
+    public boolean getArchive() {
+        return archive;
+    }
+
+    public int getEstimatedReadingTime(int readingSpeed) {
+        return (int)Math.round(this.estimatedReadingTime * 200. / readingSpeed);
+    }
+
+    /**
+     * @return the raw DB value of the sort key column
+     */
+    public Long getSortValue() {
+        return sortValue;
+    }
+
+    public boolean isContentTheSame(ArticleListItem other) {
+        return favorite == other.favorite
+                && archive == other.archive
+                && estimatedReadingTime == other.estimatedReadingTime
+                && equal(title, other.title)
+                && equal(domain, other.domain);
+    }
+
+    private static boolean equal(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+}
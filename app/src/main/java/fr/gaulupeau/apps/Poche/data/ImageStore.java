@@ -0,0 +1,363 @@
+package fr.gaulupeau.apps.Poche.data;
+
+import android.util.Log;
+import android.util.LruCache;
+import android.util.Pair;
+
+import org.greenrobot.greendao.database.Database;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.gaulupeau.apps.Poche.App;
+import fr.gaulupeau.apps.Poche.data.dao.ImageManifestDao;
+
+import static fr.gaulupeau.apps.Poche.data.StorageHelper.getExternalStoragePath;
+
+/**
+ * Content-addressed store of cached article images.
+ * <p>
+ * Each distinct image is stored once as a blob named after the hash of its content.
+ * The mapping of URLs to blobs and of articles to URLs is kept in the
+ * {@linkplain ImageManifestDao manifest}; path lookups are served from a memory cache.
+ * Blobs that are no longer referenced by any article are removed by
+ * {@linkplain #scheduleGarbageCollection() garbage collection}.
+ * <p>
+ * The total size of the store is limited by a quota: once it is exceeded,
+ * blobs are evicted in small batches on a background thread, least recently served first,
+ * images of archived articles before the ones of unread articles.
+ * The evicted images are downloaded again when they are requested.
+ */
+public class ImageStore {
+
+    private static final String TAG = ImageStore.class.getSimpleName();
+
+    private static final String STORE_DIR = "images";
+    private static final String LEGACY_CACHE_DIR = "imagecache";
+
+    private static final int PATH_CACHE_SIZE = 1000;
+    private static final int EVICTION_BATCH_SIZE = 20;
+    private static final String NOT_STORED = "";
+
+    private static final Object lock = new Object();
+
+    // URL -> absolute path or NOT_STORED
+    private static final LruCache<String, String> pathCache = new LruCache<>(PATH_CACHE_SIZE);
+
+    // runs garbage collection, quota enforcement and access time updates
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean gcScheduled = new AtomicBoolean();
+    private static final AtomicBoolean quotaCheckScheduled = new AtomicBoolean();
+
+    // the remaining blobs of the eviction pass in progress; accessed on the executor thread only
+    private static Queue<Pair<String, Long>> evictionCandidates;
+
+    // names of the blobs served since the last flush
+    private static final Set<String> accessedBlobs = new HashSet<>();
+
+    /**
+     * @return the store dir (created if needed) or {@code null} if it is not available
+     */
+    public static File getStoreDir() {
+        String extStoragePath = getExternalStoragePath();
+        if(extStoragePath == null || extStoragePath.isEmpty()) return null;
+
+        File dir = new File(extStoragePath, STORE_DIR);
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "getStoreDir() couldn't create store dir: " + dir);
+            return null;
+        }
+
+        return dir;
+    }
+
+    /**
+     * @return absolute path of the stored image or {@code null} if the image is not stored
+     */
+    public static String getImagePath(String url) {
+        String path = pathCache.get(url);
+        if(path == null) {
+            String blobName = ImageManifestDao.getBlobName(getDatabase(), url);
+
+            path = NOT_STORED;
+            if(blobName != null) {
+                String extStoragePath = getExternalStoragePath();
+                if(extStoragePath != null) {
+                    path = extStoragePath + "/" + STORE_DIR + "/" + blobName;
+                }
+            }
+
+            pathCache.put(url, path);
+        }
+
+        return path.equals(NOT_STORED) ? null : path;
+    }
+
+    /**
+     * Records that the images were served, to keep them from being evicted.
+     * The access times are written to the manifest in the background.
+     *
+     * @param paths paths returned by {@link #getImagePath(String)}
+     */
+    public static void recordAccess(Collection<String> paths) {
+        if(paths.isEmpty()) return;
+
+        boolean flushScheduled;
+        synchronized(accessedBlobs) {
+            flushScheduled = !accessedBlobs.isEmpty();
+            for(String path: paths) {
+                accessedBlobs.add(new File(path).getName());
+            }
+        }
+
+        if(!flushScheduled) executor.execute(ImageStore::flushAccessTimes);
+    }
+
+    /**
+     * Replaces the set of image URLs referenced by the article.
+     *
+     * @param articleId the local (DB) ID of the article
+     */
+    public static void setArticleImages(long articleId, Collection<String> urls) {
+        synchronized(lock) {
+            ImageManifestDao.setArticleImages(getDatabase(), articleId, urls);
+        }
+    }
+
+    /**
+     * Adds an image URL to the ones referenced by the article.
+     *
+     * @param articleId the local (DB) ID of the article
+     */
+    public static void addArticleImage(long articleId, String url) {
+        synchronized(lock) {
+            ImageManifestDao.addArticleImage(getDatabase(), articleId, url);
+        }
+    }
+
+    /**
+     * Moves the downloaded file into the store and registers it for the URL.
+     * If an identical blob is already stored, the file is discarded.
+     *
+     * @param url the image URL
+     * @param file the downloaded file
+     * @param hash hex hash of the file content
+     * @param extension file extension including the dot
+     * @return true if the image is stored
+     */
+    public static boolean addImage(String url, File file, String hash, String extension) {
+        File storeDir = getStoreDir();
+        if(storeDir == null) return false;
+
+        String blobName = hash + extension;
+        File blob = new File(storeDir, blobName);
+        long size = file.length();
+
+        synchronized(lock) {
+            if(blob.exists()) {
+                Log.v(TAG, "addImage() blob already stored: " + blobName);
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            } else if(!file.renameTo(blob)) {
+                Log.w(TAG, "addImage() couldn't move file to " + blob);
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return false;
+            }
+
+            ImageManifestDao.addImage(getDatabase(), url, blobName, size,
+                    System.currentTimeMillis());
+
+            pathCache.put(url, blob.getAbsolutePath());
+        }
+
+        scheduleQuotaCheck();
+
+        return true;
+    }
+
+    /**
+     * Schedules removal of unreferenced blobs on a background thread.
+     * Calls made while a collection is pending are coalesced.
+     */
+    public static void scheduleGarbageCollection() {
+        if(!gcScheduled.compareAndSet(false, true)) return;
+
+        executor.execute(() -> {
+            gcScheduled.set(false);
+            try {
+                collectGarbage();
+            } catch(Exception e) {
+                Log.w(TAG, "collectGarbage() exception", e);
+            }
+        });
+    }
+
+    /**
+     * Schedules eviction of blobs if the store exceeds the quota.
+     * Calls made while a check is pending are coalesced.
+     */
+    public static void scheduleQuotaCheck() {
+        if(!quotaCheckScheduled.compareAndSet(false, true)) return;
+
+        executor.execute(() -> {
+            quotaCheckScheduled.set(false);
+            try {
+                // evict one batch at a time so that other tasks are not held up
+                if(evictBatch()) scheduleQuotaCheck();
+            } catch(Exception e) {
+                Log.w(TAG, "evictBatch() exception", e);
+            }
+        });
+    }
+
+    private static void flushAccessTimes() {
+        List<String> blobs;
+        synchronized(accessedBlobs) {
+            blobs = new ArrayList<>(accessedBlobs);
+            accessedBlobs.clear();
+        }
+
+        try {
+            ImageManifestDao.updateLastAccess(getDatabase(), blobs, System.currentTimeMillis());
+        } catch(Exception e) {
+            Log.w(TAG, "flushAccessTimes() exception", e);
+        }
+    }
+
+    /**
+     * Evicts a batch of blobs if the store exceeds the quota.
+     * <p>
+     * The blobs to evict are selected once per pass, for the whole excess,
+     * and are evicted in batches; the selection is repeated only if the pass
+     * is not enough.
+     *
+     * @return true if the store may still exceed the quota
+     */
+    private static boolean evictBatch() {
+        long quota = App.getInstance().getSettings().getImageCacheQuota() * 1024L * 1024L;
+        if(quota <= 0) {
+            evictionCandidates = null;
+            return false;
+        }
+
+        Database db = getDatabase();
+
+        long totalSize = ImageManifestDao.getTotalSize(db);
+        if(totalSize <= quota) {
+            evictionCandidates = null;
+            return false;
+        }
+
+        Log.d(TAG, String.format("evictBatch() total size: %d, quota: %d", totalSize, quota));
+
+        if(evictionCandidates == null || evictionCandidates.isEmpty()) {
+            evictionCandidates = new ArrayDeque<>(
+                    ImageManifestDao.getEvictionCandidates(db, totalSize - quota));
+
+            Log.d(TAG, "evictBatch() eviction candidates: " + evictionCandidates.size());
+        }
+        if(evictionCandidates.isEmpty()) {
+            evictionCandidates = null;
+            return false;
+        }
+
+        String extStoragePath = getExternalStoragePath();
+
+        int evicted = 0;
+        Pair<String, Long> candidate;
+        while(evicted < EVICTION_BATCH_SIZE && totalSize > quota
+                && (candidate = evictionCandidates.poll()) != null) {
+            synchronized(lock) {
+                ImageManifestDao.deleteBlob(db, candidate.first);
+                deleteBlobFile(extStoragePath, candidate.first);
+            }
+
+            totalSize -= candidate.second;
+            evicted++;
+        }
+
+        pathCache.evictAll();
+
+        Log.d(TAG, "evictBatch() evicted blobs: " + evicted);
+
+        if(totalSize <= quota) {
+            evictionCandidates = null;
+            return false;
+        }
+
+        return true;
+    }
+
+    private static void collectGarbage() {
+        Log.d(TAG, "collectGarbage() started");
+
+        deleteLegacyCache();
+
+        Database db = getDatabase();
+        List<String> blobs = ImageManifestDao.getUnreferencedBlobs(db);
+
+        String extStoragePath = getExternalStoragePath();
+
+        int deleted = 0;
+        for(String blobName: blobs) {
+            synchronized(lock) {
+                if(!ImageManifestDao.deleteBlobIfUnreferenced(db, blobName)) continue;
+
+                deleteBlobFile(extStoragePath, blobName);
+            }
+            deleted++;
+        }
+
+        if(deleted > 0) pathCache.evictAll();
+
+        Log.d(TAG, "collectGarbage() finished; deleted blobs: " + deleted);
+
+        scheduleQuotaCheck();
+    }
+
+    private static void deleteBlobFile(String extStoragePath, String blobName) {
+        if(extStoragePath == null) return;
+
+        File blob = new File(extStoragePath + "/" + STORE_DIR, blobName);
+        if(blob.exists() && !blob.delete()) {
+            Log.w(TAG, "deleteBlobFile() couldn't delete " + blob);
+        }
+    }
+
+    private static void deleteLegacyCache() {
+        String extStoragePath = getExternalStoragePath();
+        if(extStoragePath == null) return;
+
+        File legacyDir = new File(extStoragePath, LEGACY_CACHE_DIR);
+        if(!legacyDir.exists()) return;
+
+        Log.i(TAG, "deleteLegacyCache() deleting per-article image cache");
+        deleteRecursively(legacyDir);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child: children) {
+                deleteRecursively(child);
+            }
+        }
+
+        if(!file.delete()) Log.w(TAG, "deleteRecursively() couldn't delete " + file);
+    }
+
+    private static Database getDatabase() {
+        return DbConnection.getSession().getDatabase();
+    }
+
+}
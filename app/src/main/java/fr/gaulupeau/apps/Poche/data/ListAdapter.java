@@ -11,8 +11,6 @@ import android.widget.TextView;
 import java.util.List;
 
 import fr.gaulupeau.apps.InThePoche.R;
-import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
-
 import static fr.gaulupeau.apps.Poche.data.ListTypes.*;
 
 public class ListAdapter extends RecyclerView.Adapter<ListAdapter.ViewHolder> {
@@ -20,12 +18,12 @@ public class ListAdapter extends RecyclerView.Adapter<ListAdapter.ViewHolder> {
     private Context context;
     private Settings settings;
 
-    private List<Article> articles;
+    private List<ArticleListItem> articles;
     private OnItemClickListener listener;
     private int listType = -1;
 
     public ListAdapter(Context context, Settings settings,
-                       List<Article> articles, OnItemClickListener listener, int listType) {
+                       List<ArticleListItem> articles, OnItemClickListener listener, int listType) {
         this.context = context;
         this.settings = settings;
         this.articles = articles;
@@ -68,7 +66,7 @@ public class ListAdapter extends RecyclerView.Adapter<ListAdapter.ViewHolder> {
             itemView.setOnClickListener(this);
         }
 
-        public void bind(Article article) {
+        public void bind(ArticleListItem article) {
             title.setText(article.getTitle());
             url.setText(article.getDomain());
 
@@ -413,6 +413,8 @@ public class OperationsHelper {
 
         Log.d(TAG, "deleteArticle() article object deleted");
 
+        ImageStore.scheduleGarbageCollection();
+
         ServiceHelper.deleteArticle(context, articleID);
 
         Log.d(TAG, "deleteArticle() finished");
@@ -432,8 +434,11 @@ public class OperationsHelper {
 
         settings.setLatestUpdatedItemTimestamp(0);
         settings.setLatestUpdateRunTimestamp(0);
+        settings.setUpdateCheckpoint(null);
         settings.setFirstSyncDone(false);
 
+        ImageStore.scheduleGarbageCollection();
+
         EventHelper.notifyEverythingRemoved();
     }
 
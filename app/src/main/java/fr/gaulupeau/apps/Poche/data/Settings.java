@@ -19,7 +19,10 @@ import java.util.Map;
 import fr.gaulupeau.apps.InThePoche.R;
 import fr.gaulupeau.apps.Poche.App;
 import fr.gaulupeau.apps.Poche.network.ConnectivityChangeReceiver;
+import fr.gaulupeau.apps.Poche.network.ImageTranscoder;
+import fr.gaulupeau.apps.Poche.network.Updater;
 import fr.gaulupeau.apps.Poche.service.WallabagJobService;
+import fr.gaulupeau.apps.Poche.ui.ArticleSortKey;
 import fr.gaulupeau.apps.Poche.ui.HttpSchemeHandlerActivity;
 import fr.gaulupeau.apps.Poche.ui.Sortable;
 import fr.gaulupeau.apps.Poche.ui.Themes;
@@ -403,6 +406,23 @@ public class Settings {
         setString(R.string.pref_key_ui_lists_sortOrder, sortOrder.toString());
     }
 
+    public ArticleSortKey getListSortKey() {
+        String sortKeyParam = getString(R.string.pref_key_ui_lists_sortKey);
+
+        ArticleSortKey sortKey = null;
+        if(sortKeyParam != null) {
+            try {
+                sortKey = ArticleSortKey.valueOf(sortKeyParam);
+            } catch(IllegalArgumentException ignored) {}
+        }
+
+        return sortKey != null ? sortKey : ArticleSortKey.ID;
+    }
+
+    public void setListSortKey(ArticleSortKey sortKey) {
+        setString(R.string.pref_key_ui_lists_sortKey, sortKey.toString());
+    }
+
     public Sortable.SortOrder getTagListSortOrder() {
         String sortOrderParam = getString(R.string.pref_key_ui_tagList_sortOrder);
 
@@ -589,6 +609,39 @@ public class Settings {
         setBoolean(R.string.pref_key_sync_sweepingAfterFastSync_enabled, value);
     }
 
+    public int getSyncReadAheadPages() {
+        return getInt(R.string.pref_key_sync_readAheadPages, 2);
+    }
+
+    public void setSyncReadAheadPages(int pages) {
+        setInt(R.string.pref_key_sync_readAheadPages, pages);
+    }
+
+    public Updater.SweepStrategy getSweepStrategy() {
+        String strategyParam = getString(R.string.pref_key_sync_sweepStrategy);
+
+        Updater.SweepStrategy strategy = null;
+        if(strategyParam != null) {
+            try {
+                strategy = Updater.SweepStrategy.valueOf(strategyParam);
+            } catch(IllegalArgumentException ignored) {}
+        }
+
+        return strategy != null ? strategy : Updater.SweepStrategy.URL_EXISTS;
+    }
+
+    public void setSweepStrategy(Updater.SweepStrategy strategy) {
+        setString(R.string.pref_key_sync_sweepStrategy, strategy.toString());
+    }
+
+    public boolean isSyncContentDeferred() {
+        return getBoolean(R.string.pref_key_sync_deferContent_enabled, false);
+    }
+
+    public void setSyncContentDeferred(boolean value) {
+        setBoolean(R.string.pref_key_sync_deferContent_enabled, value);
+    }
+
     public boolean isAutoSyncOnStartupEnabled() {
         return getBoolean(R.string.pref_key_autoSync_onStartup_enabled, true);
     }
@@ -645,6 +698,66 @@ public class Settings {
         setBoolean(R.string.pref_key_imageCache_enabled, value);
     }
 
+    public int getImageCacheConcurrency() {
+        return getInt(R.string.pref_key_imageCache_concurrency, 6);
+    }
+
+    public void setImageCacheConcurrency(int value) {
+        setInt(R.string.pref_key_imageCache_concurrency, value);
+    }
+
+    public int getImageCachePerHostConcurrency() {
+        return getInt(R.string.pref_key_imageCache_perHostConcurrency, 2);
+    }
+
+    public void setImageCachePerHostConcurrency(int value) {
+        setInt(R.string.pref_key_imageCache_perHostConcurrency, value);
+    }
+
+    /**
+     * @return image cache size limit in megabytes, 0 for no limit
+     */
+    public int getImageCacheQuota() {
+        return getInt(R.string.pref_key_imageCache_quota, 500);
+    }
+
+    public void setImageCacheQuota(int value) {
+        setInt(R.string.pref_key_imageCache_quota, value);
+    }
+
+    public boolean isImageTranscodingEnabled() {
+        return getBoolean(R.string.pref_key_imageCache_transcoding_enabled, false);
+    }
+
+    public void setImageTranscodingEnabled(boolean value) {
+        setBoolean(R.string.pref_key_imageCache_transcoding_enabled, value);
+    }
+
+    public ImageTranscoder.Format getImageTranscodingFormat() {
+        String formatParam = getString(R.string.pref_key_imageCache_transcoding_format);
+
+        ImageTranscoder.Format format = null;
+        if(formatParam != null) {
+            try {
+                format = ImageTranscoder.Format.valueOf(formatParam);
+            } catch(IllegalArgumentException ignored) {}
+        }
+
+        return format != null ? format : ImageTranscoder.Format.WEBP;
+    }
+
+    public void setImageTranscodingFormat(ImageTranscoder.Format format) {
+        setString(R.string.pref_key_imageCache_transcoding_format, format.toString());
+    }
+
+    public int getImageTranscodingQuality() {
+        return getInt(R.string.pref_key_imageCache_transcoding_quality, 80);
+    }
+
+    public void setImageTranscodingQuality(int value) {
+        setInt(R.string.pref_key_imageCache_transcoding_quality, value);
+    }
+
     public String getDbPath() {
         return getString(R.string.pref_key_storage_dbPath);
     }
@@ -717,6 +830,46 @@ public class Settings {
         setLong(R.string.pref_key_internal_update_latestUpdateRunTimestamp, timestamp);
     }
 
+    public String getLatestSyncPlan() {
+        return getString(R.string.pref_key_internal_sync_latestPlan);
+    }
+
+    public void setLatestSyncPlan(String plan) {
+        setString(R.string.pref_key_internal_sync_latestPlan, plan);
+    }
+
+    public Updater.Checkpoint getUpdateCheckpoint() {
+        String updateType = getString(R.string.pref_key_internal_update_checkpoint_updateType);
+        if(TextUtils.isEmpty(updateType)) return null;
+
+        try {
+            return new Updater.Checkpoint(Updater.UpdateType.valueOf(updateType),
+                    getLong(R.string.pref_key_internal_update_checkpoint_syncGeneration, 0),
+                    getInt(R.string.pref_key_internal_update_checkpoint_page, 0),
+                    getInt(R.string.pref_key_internal_update_checkpoint_total, 0),
+                    getLong(R.string.pref_key_internal_update_checkpoint_latestUpdatedItemTimestamp, 0));
+        } catch(IllegalArgumentException e) {
+            Log.w(TAG, "getUpdateCheckpoint() unknown update type: " + updateType);
+            return null;
+        }
+    }
+
+    public void setUpdateCheckpoint(Updater.Checkpoint checkpoint) {
+        if(checkpoint == null) {
+            setString(R.string.pref_key_internal_update_checkpoint_updateType, null);
+            return;
+        }
+
+        setLong(R.string.pref_key_internal_update_checkpoint_syncGeneration,
+                checkpoint.getSyncGeneration());
+        setInt(R.string.pref_key_internal_update_checkpoint_page, checkpoint.getPage());
+        setInt(R.string.pref_key_internal_update_checkpoint_total, checkpoint.getTotal());
+        setLong(R.string.pref_key_internal_update_checkpoint_latestUpdatedItemTimestamp,
+                checkpoint.getLatestUpdatedItemTimestamp());
+        setString(R.string.pref_key_internal_update_checkpoint_updateType,
+                checkpoint.getUpdateType().name());
+    }
+
     public String getDbPathForDbHelper() {
         String dbPath = getDbPath();
         return (TextUtils.isEmpty(dbPath) ? "" : (dbPath + "/")) + DB_FILENAME;
@@ -0,0 +1,79 @@
+package fr.gaulupeau.apps.Poche.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.gaulupeau.apps.InThePoche.BuildConfig;
+import fr.gaulupeau.apps.Poche.network.SyncStats;
+
+/**
+ * Keeps a rolling history of {@link SyncStats} in a text file in the app's private storage,
+ * one line per sync operation, prefixed with the start time and the app version.
+ */
+public class SyncStatsHistory {
+
+    private static final String TAG = SyncStatsHistory.class.getSimpleName();
+
+    private static final String FILENAME = "sync_stats_history.txt";
+    private static final int MAX_ENTRIES = 100;
+
+    private static final Object lock = new Object();
+
+    public static void append(Context context, SyncStats stats) {
+        String entry = stats.getStartTime() + "\t" + BuildConfig.VERSION_NAME + "\t" + stats;
+
+        synchronized(lock) {
+            List<String> entries = read(context);
+            entries.add(entry);
+            if(entries.size() > MAX_ENTRIES) {
+                entries = entries.subList(entries.size() - MAX_ENTRIES, entries.size());
+            }
+
+            try(BufferedWriter writer = new BufferedWriter(new FileWriter(getFile(context)))) {
+                for(String line: entries) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            } catch(IOException e) {
+                Log.w(TAG, "append() couldn't write history", e);
+            }
+        }
+    }
+
+    /**
+     * @return history entries, oldest first
+     */
+    public static List<String> read(Context context) {
+        synchronized(lock) {
+            File file = getFile(context);
+            if(!file.exists()) return new ArrayList<>();
+
+            List<String> entries = new ArrayList<>();
+            try(BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    if(!line.isEmpty()) entries.add(line);
+                }
+            } catch(IOException e) {
+                Log.w(TAG, "read() couldn't read history", e);
+                return new ArrayList<>();
+            }
+
+            return entries;
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILENAME);
+    }
+
+}
@@ -6,6 +6,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
 import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.greendao.Property;
 import org.greenrobot.greendao.database.Database;
 import org.greenrobot.greendao.database.DatabaseStatement;
 
@@ -19,7 +20,10 @@ import fr.gaulupeau.apps.Poche.data.dao.ArticleContentDao;
 import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
 import fr.gaulupeau.apps.Poche.data.dao.DaoMaster;
 import fr.gaulupeau.apps.Poche.data.dao.FtsDao;
+import fr.gaulupeau.apps.Poche.data.dao.ImageManifestDao;
 import fr.gaulupeau.apps.Poche.data.dao.QueueItemDao;
+import fr.gaulupeau.apps.Poche.data.dao.TagDao;
+import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
 import fr.gaulupeau.apps.Poche.data.dao.entities.QueueItem;
 import fr.gaulupeau.apps.Poche.events.OfflineQueueChangedEvent;
 
@@ -40,6 +44,7 @@ class WallabagDbOpenHelper extends DaoMaster.OpenHelper {
 
         super.onCreate(db);
         FtsDao.createAll(db, false);
+        ImageManifestDao.createAll(db, false);
     }
 
     @Override
@@ -47,7 +52,7 @@ class WallabagDbOpenHelper extends DaoMaster.OpenHelper {
         Log.i(TAG, "Upgrading schema from version " + oldVersion + " to " + newVersion);
 
         boolean migrationDone = false;
-        if (oldVersion >= 101 && newVersion <= 106) {
+        if (oldVersion >= 101 && newVersion <= 114) {
             try {
                 if (oldVersion < 102) {
                     Log.i(TAG, "Migrating to version " + 102);
@@ -112,6 +117,118 @@ class WallabagDbOpenHelper extends DaoMaster.OpenHelper {
                     AnnotationRangeDao.createTable(db, false);
                 }
 
+                if (oldVersion < 107) {
+                    Log.i(TAG, "Migrating to version " + 107);
+
+                    db.execSQL("ALTER TABLE \"ARTICLE\" ADD COLUMN \"CONTENT_HASH\" TEXT;");
+                    db.execSQL("ALTER TABLE \"ARTICLE\" ADD COLUMN \"CONTENT_LENGTH\" INTEGER;");
+
+                    fillContentDigests(db);
+                }
+
+                if (oldVersion < 108) {
+                    Log.i(TAG, "Migrating to version " + 108);
+
+                    db.execSQL("ALTER TABLE \"ARTICLE\" ADD COLUMN \"SYNC_GENERATION\" INTEGER;");
+                }
+
+                if (oldVersion < 109) {
+                    Log.i(TAG, "Migrating to version " + 109);
+
+                    db.execSQL("ALTER TABLE \"ARTICLE\" ADD COLUMN \"CONTENT_DOWNLOADED\" INTEGER;");
+                    db.execSQL("update " + ArticleDao.TABLENAME + " set "
+                            + ArticleDao.Properties.ContentDownloaded.columnName + " = 1;");
+                }
+
+                if (oldVersion < 110) {
+                    Log.i(TAG, "Migrating to version " + 110);
+
+                    ImageManifestDao.createAll(db, false);
+
+                    // re-fetch images into the new store; the old per-article cache is removed by GC
+                    db.execSQL("update " + ArticleDao.TABLENAME + " set "
+                            + ArticleDao.Properties.ImagesDownloaded.columnName + " = 0;");
+                }
+
+                // the manifest created by the previous step already has the column
+                if (oldVersion == 110) {
+                    Log.i(TAG, "Migrating to version " + 111);
+
+                    db.execSQL("ALTER TABLE " + ImageManifestDao.BLOB_TABLE_NAME + " ADD COLUMN "
+                            + ImageManifestDao.BLOB_COLUMN_LAST_ACCESS + " INTEGER NOT NULL DEFAULT 0;");
+                }
+
+                if (oldVersion < 112) {
+                    Log.i(TAG, "Migrating to version " + 112);
+
+                    // sort keys of the article lists; same names as the ones generated by greenDAO
+                    Property[] sortProperties = new Property[]{
+                            ArticleDao.Properties.EstimatedReadingTime,
+                            ArticleDao.Properties.CreationDate,
+                            ArticleDao.Properties.UpdateDate,
+                            ArticleDao.Properties.PublishedAt,
+                            ArticleDao.Properties.StarredAt
+                    };
+                    for (Property property : sortProperties) {
+                        db.execSQL("create index IDX_" + ArticleDao.TABLENAME + "_" + property.columnName +
+                                " on " + ArticleDao.TABLENAME + " (" + property.columnName + " asc);");
+                    }
+                }
+
+                if (oldVersion < 113) {
+                    Log.i(TAG, "Migrating to version " + 113);
+
+                    db.execSQL("create index IDX_ARTICLE_ARCHIVE_ARTICLE_ID on " +
+                            ArticleDao.TABLENAME +
+                            " (" + ArticleDao.Properties.Archive.columnName + " asc, " +
+                            ArticleDao.Properties.ArticleId.columnName + " asc);");
+                    db.execSQL("create index IDX_ARTICLE_FAVORITE_ARTICLE_ID on " +
+                            ArticleDao.TABLENAME +
+                            " (" + ArticleDao.Properties.Favorite.columnName + " asc, " +
+                            ArticleDao.Properties.ArticleId.columnName + " asc);");
+
+                    // replaced by the composite index
+                    db.execSQL("drop index if exists IDX_ARTICLE_TAGS_JOIN_TAG_ID;");
+                    db.execSQL("create index IDX_ARTICLE_TAGS_JOIN_TAG_ID_ARTICLE_ID on " +
+                            ArticleTagsJoinDao.TABLENAME +
+                            " (" + ArticleTagsJoinDao.Properties.TagId.columnName + " asc, " +
+                            ArticleTagsJoinDao.Properties.ArticleId.columnName + " asc);");
+
+                    db.execSQL("create index IDX_TAG_LABEL on " + TagDao.TABLENAME +
+                            " (" + TagDao.Properties.Label.columnName + " asc);");
+                }
+
+                if (oldVersion < 114) {
+                    Log.i(TAG, "Migrating to version " + 114);
+
+                    // sort keys of the article lists prefixed by the list filters;
+                    // same names as the ones generated by greenDAO
+                    Property[] sortProperties = new Property[]{
+                            ArticleDao.Properties.EstimatedReadingTime,
+                            ArticleDao.Properties.CreationDate,
+                            ArticleDao.Properties.UpdateDate,
+                            ArticleDao.Properties.PublishedAt,
+                            ArticleDao.Properties.StarredAt
+                    };
+                    Property[] filterProperties = new Property[]{
+                            ArticleDao.Properties.Archive,
+                            ArticleDao.Properties.Favorite
+                    };
+                    for (Property property : sortProperties) {
+                        // replaced by the composite indexes
+                        db.execSQL("drop index if exists IDX_" + ArticleDao.TABLENAME + "_" +
+                                property.columnName + ";");
+
+                        for (Property filterProperty : filterProperties) {
+                            db.execSQL("create index IDX_" + ArticleDao.TABLENAME + "_" +
+                                    filterProperty.columnName + "_" + property.columnName +
+                                    " on " + ArticleDao.TABLENAME +
+                                    " (" + filterProperty.columnName + " asc, " +
+                                    property.columnName + " asc);");
+                        }
+                    }
+                }
+
                 migrationDone = true;
             } catch (Exception e) {
                 Log.e(TAG, "Migration error", e);
@@ -121,6 +238,37 @@ class WallabagDbOpenHelper extends DaoMaster.OpenHelper {
         if (!migrationDone) genericMigration(db, oldVersion, newVersion);
     }
 
+    private void fillContentDigests(Database db) {
+        DatabaseStatement stmt = db.compileStatement(
+                "update " + ArticleDao.TABLENAME + " set "
+                        + ArticleDao.Properties.ContentHash.columnName + " = ?, "
+                        + ArticleDao.Properties.ContentLength.columnName + " = ?"
+                        + " where " + ArticleDao.Properties.Id.columnName + " = ?");
+
+        int count = 0;
+        try (Cursor c = db.rawQuery("select " + ArticleContentDao.Properties.Id.columnName
+                + ", " + ArticleContentDao.Properties.Content.columnName
+                + " from " + ArticleContentDao.TABLENAME, null)) {
+            while (c.moveToNext()) {
+                String content = c.isNull(1) ? "" : c.getString(1);
+
+                stmt.bindString(1, Article.calculateContentHash(content));
+                stmt.bindLong(2, content.length());
+                stmt.bindLong(3, c.getLong(0));
+                stmt.execute();
+
+                count++;
+            }
+        } catch (Exception e) {
+            // articles without digest are compared by content during update
+            Log.w(TAG, "fillContentDigests() exception; processed: " + count, e);
+        } finally {
+            stmt.close();
+        }
+
+        Log.d(TAG, "fillContentDigests() processed: " + count);
+    }
+
     private void genericMigration(Database db, int oldVersion, int newVersion) {
         Log.i(TAG, "genericMigration() oldVersion=" + oldVersion + ", newVersion=" + newVersion);
 
@@ -140,6 +288,7 @@ class WallabagDbOpenHelper extends DaoMaster.OpenHelper {
         }
 
         FtsDao.dropAll(db, true);
+        ImageManifestDao.dropAll(db, true);
         DaoMaster.dropAllTables(db, true);
         onCreate(db);
 
@@ -147,6 +296,7 @@ class WallabagDbOpenHelper extends DaoMaster.OpenHelper {
         settings.setFirstSyncDone(false);
         settings.setLatestUpdatedItemTimestamp(0);
         settings.setLatestUpdateRunTimestamp(0);
+        settings.setUpdateCheckpoint(null);
 
         if(offlineUrls != null && !offlineUrls.isEmpty()) {
             boolean inserted = false;
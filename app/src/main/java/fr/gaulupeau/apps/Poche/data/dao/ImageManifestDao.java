@@ -0,0 +1,352 @@
+package fr.gaulupeau.apps.Poche.data.dao;
+
+import android.database.Cursor;
+import android.util.Pair;
+
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.database.DatabaseStatement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Manifest of the content-addressed image store.
+ * <p>
+ * {@link #BLOB_TABLE_NAME} holds the stored files, {@link #URL_TABLE_NAME} maps image URLs
+ * to blobs and {@link #REF_TABLE_NAME} maps articles to the image URLs they use.
+ * The reference counts of blobs are maintained by triggers;
+ * the references of an article are removed by a trigger when the article is deleted.
+ */
+public class ImageManifestDao {
+
+    public static final String BLOB_TABLE_NAME = "image_blob";
+    public static final String BLOB_COLUMN_NAME = "name";
+    public static final String BLOB_COLUMN_SIZE = "size";
+    public static final String BLOB_COLUMN_REF_COUNT = "ref_count";
+    public static final String BLOB_COLUMN_LAST_ACCESS = "last_access";
+
+    public static final String URL_TABLE_NAME = "image_url";
+    public static final String URL_COLUMN_URL = "url";
+    public static final String URL_COLUMN_BLOB = "blob";
+
+    public static final String REF_TABLE_NAME = "article_image";
+    public static final String REF_COLUMN_ARTICLE_ID = "article_id";
+    public static final String REF_COLUMN_URL = "url";
+
+    private static final String[] INDEX_NAMES = new String[]{
+            "image_blob_ref_count_idx",
+            "image_url_blob_idx",
+            "article_image_url_idx"
+    };
+
+    private static final String[] TRIGGER_NAMES = new String[]{
+            "image_article_deleted_tr",
+            "image_ref_added_tr",
+            "image_ref_removed_tr",
+            "image_url_added_tr"
+    };
+
+    public static void createAll(Database db, boolean ifNotExists) {
+        createTables(db, ifNotExists);
+        createTriggers(db, ifNotExists);
+    }
+
+    public static void dropAll(Database db, boolean ifExists) {
+        dropTriggers(db, ifExists);
+        dropTables(db, ifExists);
+    }
+
+    /**
+     * @return the blob name of the image or {@code null} if the image is not stored
+     */
+    public static String getBlobName(Database db, String url) {
+        try(Cursor c = db.rawQuery("select " + URL_COLUMN_BLOB + " from " + URL_TABLE_NAME
+                + " where " + URL_COLUMN_URL + " = ?", new String[]{url})) {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+    }
+
+    /**
+     * Replaces the set of image URLs referenced by the article.
+     *
+     * @param articleId the local (DB) ID of the article
+     */
+    public static void setArticleImages(Database db, long articleId, Collection<String> urls) {
+        db.beginTransaction();
+        try {
+            db.execSQL("delete from " + REF_TABLE_NAME
+                    + " where " + REF_COLUMN_ARTICLE_ID + " = ?", new Object[]{articleId});
+
+            DatabaseStatement stmt = db.compileStatement("insert or ignore into " + REF_TABLE_NAME
+                    + "(" + REF_COLUMN_ARTICLE_ID + ", " + REF_COLUMN_URL + ") values(?, ?)");
+            try {
+                for(String url: urls) {
+                    stmt.bindLong(1, articleId);
+                    stmt.bindString(2, url);
+                    stmt.execute();
+                }
+            } finally {
+                stmt.close();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Adds an image URL to the ones referenced by the article.
+     *
+     * @param articleId the local (DB) ID of the article
+     */
+    public static void addArticleImage(Database db, long articleId, String url) {
+        db.execSQL("insert or ignore into " + REF_TABLE_NAME
+                        + "(" + REF_COLUMN_ARTICLE_ID + ", " + REF_COLUMN_URL + ") values(?, ?)",
+                new Object[]{articleId, url});
+    }
+
+    /**
+     * Registers a stored image. The blob is shared if it is already present.
+     */
+    public static void addImage(Database db, String url, String blobName, long size,
+                                long lastAccess) {
+        db.beginTransaction();
+        try {
+            db.execSQL("insert or ignore into " + BLOB_TABLE_NAME
+                            + "(" + BLOB_COLUMN_NAME + ", " + BLOB_COLUMN_SIZE
+                            + ", " + BLOB_COLUMN_REF_COUNT + ", " + BLOB_COLUMN_LAST_ACCESS
+                            + ") values(?, ?, 0, ?)",
+                    new Object[]{blobName, size, lastAccess});
+            db.execSQL("insert or ignore into " + URL_TABLE_NAME
+                            + "(" + URL_COLUMN_URL + ", " + URL_COLUMN_BLOB + ") values(?, ?)",
+                    new Object[]{url, blobName});
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public static void updateLastAccess(Database db, Collection<String> blobNames, long time) {
+        db.beginTransaction();
+        try {
+            DatabaseStatement stmt = db.compileStatement("update " + BLOB_TABLE_NAME
+                    + " set " + BLOB_COLUMN_LAST_ACCESS + " = ?"
+                    + " where " + BLOB_COLUMN_NAME + " = ?");
+            try {
+                for(String blobName: blobNames) {
+                    stmt.bindLong(1, time);
+                    stmt.bindString(2, blobName);
+                    stmt.execute();
+                }
+            } finally {
+                stmt.close();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return total size of the stored blobs in bytes
+     */
+    public static long getTotalSize(Database db) {
+        DatabaseStatement stmt = db.compileStatement("select coalesce(sum("
+                + BLOB_COLUMN_SIZE + "), 0) from " + BLOB_TABLE_NAME);
+        try {
+            return stmt.simpleQueryForLong();
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Returns the blobs to evict to free the specified space: the ones used only by archived
+     * articles (or not used at all) come before the ones used by unread articles,
+     * least recently accessed first within each group.
+     * <p>
+     * The blobs used by unread articles are collected once per call,
+     * not looked up for every blob.
+     *
+     * @param size the number of bytes to free
+     * @return pairs of blob names and sizes
+     */
+    public static List<Pair<String, Long>> getEvictionCandidates(Database db, long size) {
+        final String article = ArticleDao.TABLENAME;
+        final String articleId = ArticleDao.Properties.Id.columnName;
+        final String archive = ArticleDao.Properties.Archive.columnName;
+
+        String usedByUnread = "select u." + URL_COLUMN_BLOB + " from " + article + " a" +
+                " join " + REF_TABLE_NAME + " r on r." + REF_COLUMN_ARTICLE_ID + " = a." + articleId +
+                " join " + URL_TABLE_NAME + " u on u." + URL_COLUMN_URL + " = r." + REF_COLUMN_URL +
+                " where a." + archive + " is null or a." + archive + " = 0";
+
+        List<Pair<String, Long>> result = new ArrayList<>();
+        long total = 0;
+        try(Cursor c = db.rawQuery("select b." + BLOB_COLUMN_NAME + ", b." + BLOB_COLUMN_SIZE +
+                " from " + BLOB_TABLE_NAME + " b" +
+                " order by b." + BLOB_COLUMN_NAME + " in (" + usedByUnread + ")" +
+                ", b." + BLOB_COLUMN_LAST_ACCESS, null)) {
+            while(total < size && c.moveToNext()) {
+                result.add(new Pair<>(c.getString(0), c.getLong(1)));
+                total += c.getLong(1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return names of the blobs that are not referenced by any article
+     */
+    public static List<String> getUnreferencedBlobs(Database db) {
+        List<String> result = new ArrayList<>();
+        try(Cursor c = db.rawQuery("select " + BLOB_COLUMN_NAME + " from " + BLOB_TABLE_NAME
+                + " where " + BLOB_COLUMN_REF_COUNT + " <= 0", null)) {
+            while(c.moveToNext()) {
+                result.add(c.getString(0));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the blob and the URLs pointing to it
+     * if the blob is still not referenced by any article.
+     *
+     * @return true if the blob was deleted
+     */
+    public static boolean deleteBlobIfUnreferenced(Database db, String blobName) {
+        db.beginTransaction();
+        try {
+            DatabaseStatement stmt = db.compileStatement("select count(*) from " + BLOB_TABLE_NAME
+                    + " where " + BLOB_COLUMN_NAME + " = ? and " + BLOB_COLUMN_REF_COUNT + " <= 0");
+            long count;
+            try {
+                stmt.bindString(1, blobName);
+                count = stmt.simpleQueryForLong();
+            } finally {
+                stmt.close();
+            }
+
+            if(count == 0) return false;
+
+            deleteBlob(db, blobName);
+
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the blob and the URLs pointing to it.
+     * The article references are kept, so the images are simply shown from their original URLs.
+     */
+    public static void deleteBlob(Database db, String blobName) {
+        db.beginTransaction();
+        try {
+            db.execSQL("delete from " + URL_TABLE_NAME
+                    + " where " + URL_COLUMN_BLOB + " = ?", new Object[]{blobName});
+            db.execSQL("delete from " + BLOB_TABLE_NAME
+                    + " where " + BLOB_COLUMN_NAME + " = ?", new Object[]{blobName});
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void createTables(Database db, boolean ifNotExists) {
+        String ifNotExistsConstraint = getIfNotExistsConstraint(ifNotExists);
+
+        db.execSQL("create table " + ifNotExistsConstraint + BLOB_TABLE_NAME + "(" +
+                BLOB_COLUMN_NAME + " text primary key not null, " +
+                BLOB_COLUMN_SIZE + " integer not null, " +
+                BLOB_COLUMN_REF_COUNT + " integer not null, " +
+                BLOB_COLUMN_LAST_ACCESS + " integer not null default 0);");
+        db.execSQL("create table " + ifNotExistsConstraint + URL_TABLE_NAME + "(" +
+                URL_COLUMN_URL + " text primary key not null, " +
+                URL_COLUMN_BLOB + " text not null);");
+        db.execSQL("create table " + ifNotExistsConstraint + REF_TABLE_NAME + "(" +
+                REF_COLUMN_ARTICLE_ID + " integer not null, " +
+                REF_COLUMN_URL + " text not null, " +
+                "primary key (" + REF_COLUMN_ARTICLE_ID + ", " + REF_COLUMN_URL + "));");
+
+        String[] indexTargets = {
+                BLOB_TABLE_NAME + "(" + BLOB_COLUMN_REF_COUNT + ")",
+                URL_TABLE_NAME + "(" + URL_COLUMN_BLOB + ")",
+                REF_TABLE_NAME + "(" + REF_COLUMN_URL + ")"
+        };
+
+        for(int i = 0; i < indexTargets.length; i++) {
+            db.execSQL("create index " + ifNotExistsConstraint +
+                    INDEX_NAMES[i] + " on " + indexTargets[i] + ";");
+        }
+    }
+
+    private static void dropTables(Database db, boolean ifExists) {
+        for(String table: new String[]{REF_TABLE_NAME, URL_TABLE_NAME, BLOB_TABLE_NAME}) {
+            db.execSQL("drop table " + getIfExistsConstraint(ifExists) + table + ";");
+        }
+    }
+
+    private static void createTriggers(Database db, boolean ifNotExists) {
+        final String article = ArticleDao.TABLENAME;
+        final String articleId = ArticleDao.Properties.Id.columnName;
+        final String blobOfUrl = "(select " + URL_COLUMN_BLOB + " from " + URL_TABLE_NAME +
+                " where " + URL_COLUMN_URL + " = %s." + REF_COLUMN_URL + ")";
+
+        String[] triggers = {
+                "after delete on " + article +
+                        " begin" +
+                        "   delete from " + REF_TABLE_NAME +
+                        "     where " + REF_COLUMN_ARTICLE_ID + " = old." + articleId + ";" +
+                        " end",
+                "after insert on " + REF_TABLE_NAME +
+                        " begin" +
+                        "   update " + BLOB_TABLE_NAME +
+                        "     set " + BLOB_COLUMN_REF_COUNT + " = " + BLOB_COLUMN_REF_COUNT + " + 1" +
+                        "     where " + BLOB_COLUMN_NAME + " = " + String.format(blobOfUrl, "new") + ";" +
+                        " end",
+                "after delete on " + REF_TABLE_NAME +
+                        " begin" +
+                        "   update " + BLOB_TABLE_NAME +
+                        "     set " + BLOB_COLUMN_REF_COUNT + " = " + BLOB_COLUMN_REF_COUNT + " - 1" +
+                        "     where " + BLOB_COLUMN_NAME + " = " + String.format(blobOfUrl, "old") + ";" +
+                        " end",
+                "after insert on " + URL_TABLE_NAME +
+                        " begin" +
+                        "   update " + BLOB_TABLE_NAME +
+                        "     set " + BLOB_COLUMN_REF_COUNT + " = " + BLOB_COLUMN_REF_COUNT +
+                        "       + (select count(*) from " + REF_TABLE_NAME +
+                        "         where " + REF_COLUMN_URL + " = new." + URL_COLUMN_URL + ")" +
+                        "     where " + BLOB_COLUMN_NAME + " = new." + URL_COLUMN_BLOB + ";" +
+                        " end"
+        };
+
+        for(int i = 0; i < triggers.length; i++) {
+            db.execSQL("create trigger " + getIfNotExistsConstraint(ifNotExists) +
+                    TRIGGER_NAMES[i] + " " + triggers[i]);
+        }
+    }
+
+    private static void dropTriggers(Database db, boolean ifExists) {
+        for(String trigger: TRIGGER_NAMES) {
+            db.execSQL("drop trigger " + getIfExistsConstraint(ifExists) + trigger);
+        }
+    }
+
+    private static String getIfNotExistsConstraint(boolean ifNotExists) {
+        return ifNotExists ? "if not exists " : "";
+    }
+
+    private static String getIfExistsConstraint(boolean ifExists) {
+        return ifExists ? "if exists " : "";
+    }
+
+}
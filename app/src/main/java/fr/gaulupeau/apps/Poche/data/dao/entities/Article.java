@@ -1,5 +1,8 @@
 package fr.gaulupeau.apps.Poche.data.dao.entities;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.List;
 
@@ -15,7 +18,25 @@ import fr.gaulupeau.apps.Poche.data.dao.ArticleContentDao;
 /**
  * Entity mapped to table "ARTICLE".
  */
-@Entity
+@Entity(indexes = {
+        // list filters ordered by the default sort key; also used by the unread count
+        @Index(value = "archive, articleId", name = "IDX_ARTICLE_ARCHIVE_ARTICLE_ID"),
+        @Index(value = "favorite, articleId", name = "IDX_ARTICLE_FAVORITE_ARTICLE_ID"),
+        // the same for the other sort keys; every list is filtered by one of the flags,
+        // so there are no single-column indexes on the keys
+        @Index(value = "archive, creationDate", name = "IDX_ARTICLE_ARCHIVE_CREATION_DATE"),
+        @Index(value = "favorite, creationDate", name = "IDX_ARTICLE_FAVORITE_CREATION_DATE"),
+        @Index(value = "archive, updateDate", name = "IDX_ARTICLE_ARCHIVE_UPDATE_DATE"),
+        @Index(value = "favorite, updateDate", name = "IDX_ARTICLE_FAVORITE_UPDATE_DATE"),
+        @Index(value = "archive, estimatedReadingTime",
+                name = "IDX_ARTICLE_ARCHIVE_ESTIMATED_READING_TIME"),
+        @Index(value = "favorite, estimatedReadingTime",
+                name = "IDX_ARTICLE_FAVORITE_ESTIMATED_READING_TIME"),
+        @Index(value = "archive, publishedAt", name = "IDX_ARTICLE_ARCHIVE_PUBLISHED_AT"),
+        @Index(value = "favorite, publishedAt", name = "IDX_ARTICLE_FAVORITE_PUBLISHED_AT"),
+        @Index(value = "archive, starredAt", name = "IDX_ARTICLE_ARCHIVE_STARRED_AT"),
+        @Index(value = "favorite, starredAt", name = "IDX_ARTICLE_FAVORITE_STARRED_AT")
+})
 public class Article {
 
     @Id
@@ -62,6 +83,14 @@ public class Article {
 
     private Boolean imagesDownloaded;
 
+    private Boolean contentDownloaded;
+
+    private String contentHash;
+
+    private Integer contentLength;
+
+    private Long syncGeneration;
+
     @ToMany
     @JoinEntity(
             entity = ArticleTagsJoin.class,
@@ -88,12 +117,13 @@ public class Article {
         this.id = id;
     }
 
-    @Generated(hash = 1512174298)
+    @Generated
     public Article(Long id, Integer articleId, String title, String domain, String url,
             String originUrl, int estimatedReadingTime, String language, String previewPictureURL,
             String authors, Boolean favorite, Boolean archive, Date creationDate, Date updateDate,
             Date publishedAt, Date starredAt, Boolean isPublic, String publicUid,
-            Double articleProgress, Boolean imagesDownloaded) {
+            Double articleProgress, Boolean imagesDownloaded, Boolean contentDownloaded,
+            String contentHash, Integer contentLength, Long syncGeneration) {
         this.id = id;
         this.articleId = articleId;
         this.title = title;
@@ -114,6 +144,10 @@ public class Article {
         this.publicUid = publicUid;
         this.articleProgress = articleProgress;
         this.imagesDownloaded = imagesDownloaded;
+        this.contentDownloaded = contentDownloaded;
+        this.contentHash = contentHash;
+        this.contentLength = contentLength;
+        this.syncGeneration = syncGeneration;
     }
 
     public Long getId() {
@@ -138,6 +172,7 @@ public class Article {
 
     public void setContent(String content) {
         getArticleContent().setContent(content);
+        updateContentDigest(content);
     }
 
     public ArticleContent getArticleContent() {
@@ -314,6 +349,95 @@ public class Article {
         this.imagesDownloaded = imagesDownloaded;
     }
 
+    public Boolean getContentDownloaded() {
+        return contentDownloaded;
+    }
+
+    public void setContentDownloaded(Boolean contentDownloaded) {
+        this.contentDownloaded = contentDownloaded;
+    }
+
+    /**
+     * Returns true if the article was added using metadata only
+     * and its content is not downloaded yet.
+     */
+    public boolean isContentPending() {
+        return contentDownloaded != null && !contentDownloaded;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Integer getContentLength() {
+        return contentLength;
+    }
+
+    public void setContentLength(Integer contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    public Long getSyncGeneration() {
+        return syncGeneration;
+    }
+
+    public void setSyncGeneration(Long syncGeneration) {
+        this.syncGeneration = syncGeneration;
+    }
+
+    /**
+     * Updates {@link #contentHash} and {@link #contentLength} to match the provided content.
+     * {@code null} content is treated as empty.
+     *
+     * @param content article content
+     */
+    public void updateContentDigest(String content) {
+        if(content == null) content = "";
+
+        this.contentHash = calculateContentHash(content);
+        this.contentLength = content.length();
+    }
+
+    /**
+     * Checks whether the provided content matches the stored content digest
+     * without loading the stored content.
+     * {@code null} content is treated as empty.
+     *
+     * @param content content to check
+     * @return {@code true} if the content matches the digest,
+     *         {@code false} if it doesn't or if there is no digest
+     */
+    public boolean isContentDigestMatching(String content) {
+        if(contentHash == null || contentLength == null) return false;
+
+        if(content == null) content = "";
+
+        return contentLength == content.length()
+                && contentHash.equals(calculateContentHash(content));
+    }
+
+    public static String calculateContentHash(String content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch(NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 is not available", e);
+        }
+
+        byte[] bytes = digest.digest(content.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for(byte b: bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     /**
      * To-many relationship, resolved on first access (and after reset).
      * Changes to to-many relations are not persisted, make changes to the target entity.
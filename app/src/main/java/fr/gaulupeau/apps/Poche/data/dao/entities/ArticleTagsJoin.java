@@ -10,7 +10,10 @@ import java.util.Collection;
 
 import fr.gaulupeau.apps.Poche.data.dao.ArticleTagsJoinDao;
 
-@Entity
+@Entity(indexes = {
+        // covers the tag filter of the article lists
+        @Index(value = "tagId, articleId", name = "IDX_ARTICLE_TAGS_JOIN_TAG_ID_ARTICLE_ID")
+})
 public class ArticleTagsJoin {
 
     @Id
@@ -18,7 +21,6 @@ public class ArticleTagsJoin {
 
     @Index
     private Long articleId;
-    @Index
     private Long tagId;
 
     @Generated(hash = 444901753)
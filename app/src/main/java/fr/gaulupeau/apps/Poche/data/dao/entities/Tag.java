@@ -2,6 +2,7 @@ package fr.gaulupeau.apps.Poche.data.dao.entities;
 
 import org.greenrobot.greendao.annotation.Entity;
 import org.greenrobot.greendao.annotation.Id;
+import org.greenrobot.greendao.annotation.Index;
 import org.greenrobot.greendao.annotation.Unique;
 import org.greenrobot.greendao.annotation.Generated;
 
@@ -27,6 +28,7 @@ public class Tag {
 
     @Unique
     private Integer tagId;
+    @Index
     private String label;
 
     @Generated(hash = 1605720318)
@@ -1,11 +1,13 @@
 package fr.gaulupeau.apps.Poche.events;
 
+import fr.gaulupeau.apps.Poche.network.SyncStats;
 import fr.gaulupeau.apps.Poche.service.ActionRequest;
 import fr.gaulupeau.apps.Poche.service.ActionResult;
 
 public class BackgroundOperationFinishedEvent extends BackgroundOperationEvent {
 
     protected ActionResult result;
+    protected SyncStats syncStats;
 
     public BackgroundOperationFinishedEvent(ActionRequest request, ActionResult result) {
         super(request);
@@ -20,4 +22,15 @@ public class BackgroundOperationFinishedEvent extends BackgroundOperationEvent {
         this.result = result;
     }
 
+    /**
+     * @return telemetry of the operation, if it was recorded
+     */
+    public SyncStats getSyncStats() {
+        return syncStats;
+    }
+
+    public void setSyncStats(SyncStats syncStats) {
+        this.syncStats = syncStats;
+    }
+
 }
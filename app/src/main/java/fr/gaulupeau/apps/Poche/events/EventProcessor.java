@@ -35,6 +35,7 @@ import fr.gaulupeau.apps.Poche.service.ActionResult;
 import fr.gaulupeau.apps.Poche.service.AlarmHelper;
 import fr.gaulupeau.apps.Poche.service.NotificationActionReceiver;
 import fr.gaulupeau.apps.Poche.service.ServiceHelper;
+import fr.gaulupeau.apps.Poche.ui.ArticleRenderCache;
 import fr.gaulupeau.apps.Poche.ui.IconUnreadWidget;
 import fr.gaulupeau.apps.Poche.ui.preferences.SettingsActivity;
 
@@ -53,6 +54,7 @@ public class EventProcessor {
     private static final int NOTIFICATION_ID_SWEEP_DELETED_ARTICLES_ONGOING = 3;
     private static final int NOTIFICATION_ID_DOWNLOAD_FILE_ONGOING = 4;
     private static final int NOTIFICATION_ID_FETCH_IMAGES_ONGOING = 5;
+    private static final int NOTIFICATION_ID_FETCH_CONTENT_ONGOING = 6;
 
     private static final EnumSet<ArticlesChangedEvent.ChangeType> CHANGE_SET_UNREAD_WIDGET = EnumSet.of(
             ArticlesChangedEvent.ChangeType.UNSPECIFIED,
@@ -72,6 +74,7 @@ public class EventProcessor {
     private NotificationCompat.Builder updateArticlesNotificationBuilder;
     private NotificationCompat.Builder sweepDeletedArticlesNotificationBuilder;
     private NotificationCompat.Builder fetchImagesNotificationBuilder;
+    private NotificationCompat.Builder fetchContentNotificationBuilder;
 
     public EventProcessor(Context context) {
         this.context = context;
@@ -166,6 +169,13 @@ public class EventProcessor {
         }
     }
 
+    @Subscribe
+    public void onArticlesChangedEvent(ArticlesChangedEvent event) {
+        Log.d(TAG, "onArticlesChangedEvent() started");
+
+        ArticleRenderCache.onArticlesChanged(event);
+    }
+
     @Subscribe(sticky = true)
     public void onUpdateArticlesStartedEvent(UpdateArticlesStartedEvent event) {
         Log.d(TAG, "onUpdateArticlesStartedEvent() started");
@@ -294,6 +304,47 @@ public class EventProcessor {
         fetchImagesNotificationBuilder = null;
     }
 
+    @Subscribe
+    public void onFetchContentProgressEvent(FetchContentProgressEvent event) {
+        Log.d(TAG, "onFetchContentProgressEvent() started");
+
+        // fetching content of a single article is shown by the article itself
+        if(event.getRequest().getArticleID() != null) return;
+
+        if(fetchContentNotificationBuilder == null) {
+            Context context = getContext();
+
+            NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context, CHANNEL_ID_SYNC)
+                    .setSmallIcon(R.drawable.ic_action_refresh)
+                    .setContentTitle(context.getString(R.string.notification_downloadingContent))
+                    .setOngoing(true);
+
+            if(Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                notificationBuilder.setContentText(context.getString(R.string.app_name));
+            }
+
+            fetchContentNotificationBuilder = notificationBuilder;
+        }
+
+        if(event.getCurrent() == 0) { // show indeterminate progressbar instead of empty one
+            fetchContentNotificationBuilder.setProgress(0, 0, true);
+        } else {
+            fetchContentNotificationBuilder.setProgress(event.getTotal(), event.getCurrent(), false);
+        }
+
+        getNotificationManager().notify(TAG, NOTIFICATION_ID_FETCH_CONTENT_ONGOING,
+                fetchContentNotificationBuilder.build());
+    }
+
+    @Subscribe
+    public void onFetchContentFinishedEvent(FetchContentFinishedEvent event) {
+        Log.d(TAG, "onFetchContentFinishedEvent() started");
+
+        getNotificationManager().cancel(TAG, NOTIFICATION_ID_FETCH_CONTENT_ONGOING);
+
+        fetchContentNotificationBuilder = null;
+    }
+
     @Subscribe
     public void onSyncQueueProgressEvent(SyncQueueProgressEvent event) {
         Log.d(TAG, "onSyncQueueProgressEvent() started");
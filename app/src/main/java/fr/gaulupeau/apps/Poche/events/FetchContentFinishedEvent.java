@@ -0,0 +1,11 @@
+package fr.gaulupeau.apps.Poche.events;
+
+import fr.gaulupeau.apps.Poche.service.ActionRequest;
+
+public class FetchContentFinishedEvent extends BackgroundOperationEvent {
+
+    public FetchContentFinishedEvent(ActionRequest request) {
+        super(request);
+    }
+
+}
@@ -0,0 +1,11 @@
+package fr.gaulupeau.apps.Poche.events;
+
+import fr.gaulupeau.apps.Poche.service.ActionRequest;
+
+public class FetchContentProgressEvent extends ProgressEvent {
+
+    public FetchContentProgressEvent(ActionRequest request, int current, int total) {
+        super(request, current, total);
+    }
+
+}
@@ -0,0 +1,291 @@
+package fr.gaulupeau.apps.Poche.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds and rewrites {@code <img src>} references in HTML in a single pass.
+ * <p>
+ * The tokenizer only understands what is needed for image tags:
+ * tag names and attributes with quoted, unquoted or no values.
+ * The output is built in one buffer, which is only allocated if something is changed.
+ */
+class HtmlImageRewriter {
+
+    static class Replacement {
+        final String src;
+        final boolean dropResponsiveAttributes;
+
+        /**
+         * @param src the new value of the {@code src} attribute
+         * @param dropResponsiveAttributes whether to remove the attributes that may make
+         *                                 the browser load another image instead of {@code src}
+         */
+        Replacement(String src, boolean dropResponsiveAttributes) {
+            this.src = src;
+            this.dropResponsiveAttributes = dropResponsiveAttributes;
+        }
+    }
+
+    interface SrcMapper {
+        /**
+         * @return the replacement or {@code null} to keep the tag as is
+         */
+        Replacement map(String src);
+    }
+
+    private static final String[] RESPONSIVE_ATTRIBUTES = {"srcset", "sizes", "data-zoom-src"};
+
+    // indices in the attribute array
+    private static final int NAME_START = 0;
+    private static final int NAME_END = 1;
+    private static final int VALUE_START = 2;
+    private static final int VALUE_END = 3;
+    private static final int END = 4;
+
+    static List<String> findImageUrls(String html) {
+        List<String> urls = new ArrayList<>();
+        rewrite(html, src -> {
+            urls.add(src);
+            return null;
+        });
+        return urls;
+    }
+
+    static String rewrite(String html, SrcMapper mapper) {
+        final int length = html.length();
+        final int[] attr = new int[5];
+
+        StringBuilder out = null;
+        int copied = 0;
+
+        int pos = 0;
+        while((pos = html.indexOf('<', pos)) != -1) {
+            if(!isImgTagStart(html, pos)) {
+                pos++;
+                continue;
+            }
+
+            int tagStart = pos;
+            int attrStart = pos + 4;
+
+            // find the first src attribute and the end of the tag
+            int srcStart = -1, srcEnd = -1;
+            int p = attrStart;
+            while(parseAttribute(html, p, attr)) {
+                if(srcStart == -1 && attr[VALUE_START] != -1 && isAttribute(html, attr, "src")) {
+                    srcStart = attr[VALUE_START];
+                    srcEnd = attr[VALUE_END];
+                }
+                p = attr[END];
+            }
+            int tagEnd = attr[END] < length ? html.indexOf('>', attr[END]) : -1;
+            tagEnd = tagEnd != -1 ? tagEnd + 1 : length;
+
+            pos = tagEnd;
+
+            if(srcStart == -1) continue;
+
+            Replacement replacement = mapper.map(html.substring(srcStart, srcEnd));
+            if(replacement == null) continue;
+
+            if(out == null) out = new StringBuilder(length + 256);
+            out.append(html, copied, tagStart);
+
+            // copy the tag, replacing src and skipping the responsive attributes
+            int cursor = tagStart;
+            p = attrStart;
+            while(parseAttribute(html, p, attr)) {
+                if(attr[VALUE_START] == srcStart) {
+                    boolean quoted = srcStart > 0 && isQuote(html.charAt(srcStart - 1));
+                    out.append(html, cursor, srcStart);
+                    if(!quoted) out.append('"');
+                    appendEscaped(out, replacement.src);
+                    if(!quoted) out.append('"');
+                    cursor = srcEnd;
+                } else if(replacement.dropResponsiveAttributes && isResponsiveAttribute(html, attr)) {
+                    out.append(html, cursor, p); // up to the preceding whitespace
+                    cursor = attr[END];
+                }
+                p = attr[END];
+            }
+            out.append(html, cursor, tagEnd);
+
+            copied = tagEnd;
+        }
+
+        if(out == null) return html;
+
+        out.append(html, copied, length);
+        return out.toString();
+    }
+
+    /**
+     * Decodes the character references of an attribute value,
+     * the way a browser does before using it as a URL.
+     * Unknown named references are kept as is.
+     */
+    static String decodeAttributeValue(String value) {
+        int amp = value.indexOf('&');
+        if(amp == -1) return value;
+
+        StringBuilder sb = new StringBuilder(value.length());
+        int copied = 0;
+
+        for(; amp != -1; amp = value.indexOf('&', amp + 1)) {
+            int end = value.indexOf(';', amp + 1);
+            if(end == -1) break;
+
+            int codePoint = decodeReference(value, amp + 1, end);
+            if(codePoint == -1) continue;
+
+            sb.append(value, copied, amp).appendCodePoint(codePoint);
+            copied = end + 1;
+            amp = end;
+        }
+
+        if(copied == 0) return value;
+
+        sb.append(value, copied, value.length());
+        return sb.toString();
+    }
+
+    /**
+     * @return the code point of the reference between {@code &} and {@code ;}
+     *         or -1 if it's not recognized
+     */
+    private static int decodeReference(String value, int start, int end) {
+        String name = value.substring(start, end);
+        switch(name) {
+            case "amp": return '&';
+            case "lt": return '<';
+            case "gt": return '>';
+            case "quot": return '"';
+            case "apos": return '\'';
+        }
+
+        if(name.length() < 2 || name.charAt(0) != '#') return -1;
+
+        boolean hex = name.charAt(1) == 'x' || name.charAt(1) == 'X';
+        String digits = name.substring(hex ? 2 : 1);
+        if(digits.isEmpty() || digits.length() > 8) return -1;
+
+        int codePoint;
+        try {
+            codePoint = Integer.parseInt(digits, hex ? 16 : 10);
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+
+        return Character.isValidCodePoint(codePoint) && codePoint != 0 ? codePoint : -1;
+    }
+
+    private static boolean isImgTagStart(String html, int pos) {
+        if(!html.regionMatches(true, pos + 1, "img", 0, 3)) return false;
+        if(pos + 4 >= html.length()) return false;
+
+        char c = html.charAt(pos + 4);
+        return isWhitespace(c) || c == '>' || c == '/';
+    }
+
+    /**
+     * Parses the attribute starting at {@code pos} (possibly preceded by whitespace).
+     *
+     * @return false if the end of the tag is reached; {@code attr[END]} points
+     *         to the closing {@code >} (or {@code />}) then
+     */
+    private static boolean parseAttribute(String html, int pos, int[] attr) {
+        final int length = html.length();
+
+        while(pos < length && isWhitespace(html.charAt(pos))) pos++;
+
+        attr[VALUE_START] = attr[VALUE_END] = -1;
+
+        if(pos >= length) {
+            attr[END] = length;
+            return false;
+        }
+
+        char c = html.charAt(pos);
+        if(c == '>' || (c == '/' && pos + 1 < length && html.charAt(pos + 1) == '>')) {
+            attr[END] = pos;
+            return false;
+        }
+
+        attr[NAME_START] = pos;
+        // the first character is always consumed to make progress on stray '/' or '='
+        pos++;
+        while(pos < length) {
+            c = html.charAt(pos);
+            if(isWhitespace(c) || c == '=' || c == '>' || c == '/') break;
+            pos++;
+        }
+        attr[NAME_END] = pos;
+
+        int valuePos = pos;
+        while(valuePos < length && isWhitespace(html.charAt(valuePos))) valuePos++;
+
+        if(valuePos < length && html.charAt(valuePos) == '=') {
+            valuePos++;
+            while(valuePos < length && isWhitespace(html.charAt(valuePos))) valuePos++;
+
+            if(valuePos < length && isQuote(html.charAt(valuePos))) {
+                char quote = html.charAt(valuePos);
+                int valueEnd = html.indexOf(quote, valuePos + 1);
+                if(valueEnd == -1) valueEnd = length;
+
+                attr[VALUE_START] = valuePos + 1;
+                attr[VALUE_END] = valueEnd;
+                pos = Math.min(valueEnd + 1, length);
+            } else {
+                int valueEnd = valuePos;
+                while(valueEnd < length) {
+                    c = html.charAt(valueEnd);
+                    if(isWhitespace(c) || c == '>') break;
+                    valueEnd++;
+                }
+
+                attr[VALUE_START] = valuePos;
+                attr[VALUE_END] = valueEnd;
+                pos = valueEnd;
+            }
+        }
+
+        attr[END] = pos;
+        return true;
+    }
+
+    private static boolean isAttribute(String html, int[] attr, String name) {
+        return attr[NAME_END] - attr[NAME_START] == name.length()
+                && html.regionMatches(true, attr[NAME_START], name, 0, name.length());
+    }
+
+    private static boolean isResponsiveAttribute(String html, int[] attr) {
+        for(String name: RESPONSIVE_ATTRIBUTES) {
+            if(isAttribute(html, attr, name)) return true;
+        }
+        return false;
+    }
+
+    private static void appendEscaped(StringBuilder out, String value) {
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"') {
+                out.append("&quot;");
+            } else if(c == '\'') {
+                out.append("&#39;");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static boolean isQuote(char c) {
+        return c == '"' || c == '\'';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+}
@@ -0,0 +1,355 @@
+package fr.gaulupeau.apps.Poche.network;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import fr.gaulupeau.apps.Poche.data.ImageStore;
+import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.HashingSink;
+import okio.Okio;
+
+/**
+ * Downloads article images concurrently.
+ * <p>
+ * The number of simultaneous downloads is limited globally and per host.
+ * Images are saved to the {@link ImageStore}: each URL is downloaded once
+ * and shared by all the articles referencing it.
+ * Transient failures (I/O errors, HTTP 408, 429 and 5xx) are retried with a backoff.
+ * Downloaded images may be downscaled by an {@link ImageTranscoder}.
+ * <p>
+ * Progress is reported in finished articles, at most once per {@link #PROGRESS_INTERVAL_MS}.
+ */
+public class ImageDownloader {
+
+    public interface ProgressListener {
+        void onProgress(int finishedArticles);
+    }
+
+    private static final String TAG = ImageDownloader.class.getSimpleName();
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+
+    private static OkHttpClient okHttpClient;
+
+    private static class ArticleState {
+        final long articleId;
+        int remaining;
+        boolean changed;
+
+        ArticleState(long articleId) {
+            this.articleId = articleId;
+        }
+    }
+
+    private static class Task {
+        final HttpUrl url;
+        final String host;
+        final List<ArticleState> articles = new ArrayList<>(1);
+        boolean done;
+        boolean success;
+
+        Task(HttpUrl url) {
+            this.url = url;
+            this.host = url.host();
+        }
+    }
+
+    private final int perHostConcurrency;
+    private final ImageTranscoder transcoder;
+    private final ProgressListener progressListener;
+
+    private final ExecutorService executor;
+
+    private final Object lock = new Object();
+
+    // all fields below are guarded by the lock
+    private final Map<String, Task> tasks = new HashMap<>();
+    private final Map<String, Integer> activePerHost = new HashMap<>();
+    private final Map<String, Deque<Task>> pendingPerHost = new HashMap<>();
+    private final Set<Long> changedArticles = new HashSet<>();
+    private int unfinishedTasks;
+    private int finishedArticles;
+    private long lastProgressTime;
+
+    /**
+     * @param transcoder the transcoder to apply to downloaded images or {@code null}
+     */
+    public ImageDownloader(int concurrency, int perHostConcurrency, ImageTranscoder transcoder,
+                           ProgressListener progressListener) {
+        this.perHostConcurrency = Math.max(1, perHostConcurrency);
+        this.transcoder = transcoder;
+        this.progressListener = progressListener;
+
+        executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+    }
+
+    /**
+     * Registers the images of the article in the image store
+     * and queues the ones that are not stored yet for download.
+     *
+     * @param article the article
+     * @param content the article content
+     */
+    public void addArticle(Article article, String content) {
+        List<HttpUrl> urls = ImageCacheUtils.getImageUrlsToCache(content);
+
+        List<String> urlKeys = new ArrayList<>(urls.size());
+        for(HttpUrl url: urls) urlKeys.add(url.toString());
+
+        ImageStore.setArticleImages(article.getId(), urlKeys);
+
+        boolean[] stored = new boolean[urls.size()];
+        for(int i = 0; i < urls.size(); i++) {
+            stored[i] = ImageStore.getImagePath(urlKeys.get(i)) != null;
+        }
+
+        ArticleState articleState = new ArticleState(article.getArticleId());
+
+        synchronized(lock) {
+            for(int i = 0; i < urls.size(); i++) {
+                String urlKey = urlKeys.get(i);
+
+                Task task = tasks.get(urlKey);
+                if(task == null) {
+                    if(stored[i]) {
+                        Log.v(TAG, "addArticle() already stored: " + urlKey);
+                        articleState.changed = true;
+                        continue;
+                    }
+
+                    task = new Task(urls.get(i));
+                    tasks.put(urlKey, task);
+
+                    unfinishedTasks++;
+                    schedule(task);
+                } else if(task.done) {
+                    Log.v(TAG, "addArticle() already downloaded: " + urlKey);
+                    if(task.success) articleState.changed = true;
+                    continue;
+                } else {
+                    Log.v(TAG, "addArticle() deduplicated: " + urlKey);
+                }
+
+                task.articles.add(articleState);
+                articleState.remaining++;
+            }
+
+            if(articleState.remaining == 0) onArticleFinished(articleState);
+        }
+    }
+
+    /**
+     * Blocks until all the queued images are processed.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        synchronized(lock) {
+            while(unfinishedTasks > 0) {
+                lock.wait();
+            }
+
+            if(progressListener != null) progressListener.onProgress(finishedArticles);
+        }
+    }
+
+    /**
+     * Stops the worker threads, cancelling the downloads in progress.
+     * Must be called once the downloader is no longer needed.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return IDs of the articles that got at least one new image
+     */
+    public Set<Long> getChangedArticles() {
+        synchronized(lock) {
+            return Collections.unmodifiableSet(new HashSet<>(changedArticles));
+        }
+    }
+
+    /**
+     * Downloads a single image to the {@link ImageStore} without retrying.
+     *
+     * @param url the image URL
+     * @param transcoder the transcoder to apply to the image or {@code null}
+     * @return true if the image is stored
+     */
+    public static boolean downloadImage(HttpUrl url, ImageTranscoder transcoder) throws IOException {
+        return Boolean.TRUE.equals(downloadOnce(url, transcoder));
+    }
+
+    private void schedule(Task task) {
+        Integer active = activePerHost.get(task.host);
+        if(active == null) active = 0;
+
+        if(active >= perHostConcurrency) {
+            Deque<Task> pending = pendingPerHost.get(task.host);
+            if(pending == null) {
+                pending = new ArrayDeque<>();
+                pendingPerHost.put(task.host, pending);
+            }
+            pending.add(task);
+            return;
+        }
+
+        activePerHost.put(task.host, active + 1);
+        executor.execute(() -> run(task));
+    }
+
+    private void run(Task task) {
+        boolean success = false;
+        try {
+            success = download(task);
+        } catch(InterruptedException e) {
+            Log.d(TAG, "run() interrupted while downloading " + task.url);
+        } catch(RuntimeException e) {
+            // e.g. a DB or a bitmap failure; must not leave the task unfinished
+            Log.w(TAG, "run() exception while downloading " + task.url, e);
+        } finally {
+            onTaskFinished(task, success);
+        }
+    }
+
+    private void onTaskFinished(Task task, boolean success) {
+        synchronized(lock) {
+            // articles added after this point are handled by addArticle()
+            task.done = true;
+            task.success = success;
+
+            activePerHost.put(task.host, activePerHost.get(task.host) - 1);
+
+            Deque<Task> pending = pendingPerHost.get(task.host);
+            Task next = pending != null ? pending.poll() : null;
+            if(next != null && !executor.isShutdown()) schedule(next);
+
+            for(ArticleState article: task.articles) {
+                if(success) article.changed = true;
+                if(--article.remaining == 0) onArticleFinished(article);
+            }
+
+            if(--unfinishedTasks == 0) lock.notifyAll();
+        }
+    }
+
+    private void onArticleFinished(ArticleState article) {
+        if(article.changed) changedArticles.add(article.articleId);
+
+        finishedArticles++;
+
+        long now = System.currentTimeMillis();
+        if(progressListener != null && now - lastProgressTime >= PROGRESS_INTERVAL_MS) {
+            lastProgressTime = now;
+            progressListener.onProgress(finishedArticles);
+        }
+    }
+
+    private boolean download(Task task) throws InterruptedException {
+        for(int attempt = 1; ; attempt++) {
+            try {
+                Boolean result = downloadOnce(task.url, transcoder);
+                if(result != null) return result;
+            } catch(IOException e) {
+                if(Thread.currentThread().isInterrupted()) throw new InterruptedException();
+
+                Log.d(TAG, "download() IOException while downloading " + task.url
+                        + "; attempt: " + attempt, e);
+            }
+
+            if(attempt >= MAX_ATTEMPTS) {
+                Log.d(TAG, "download() giving up on " + task.url);
+                return false;
+            }
+
+            Thread.sleep(RETRY_DELAY_MS * attempt);
+        }
+    }
+
+    /**
+     * @return {@code true} on success, {@code false} on permanent failure,
+     *         {@code null} if the attempt should be retried
+     */
+    private static Boolean downloadOnce(HttpUrl url, ImageTranscoder transcoder)
+            throws IOException {
+        Log.v(TAG, "downloadOnce() downloading " + url);
+
+        String urlKey = url.toString();
+        String extension = ImageCacheUtils.getImageFileExtension(urlKey);
+        File storeDir = ImageStore.getStoreDir();
+        if(extension == null || storeDir == null) return false;
+
+        Request request = new Request.Builder().url(url).build();
+
+        try(Response response = getClient().newCall(request).execute()) {
+            if(!response.isSuccessful()) {
+                int code = response.code();
+                Log.d(TAG, "downloadOnce() unsuccessful response " + code + " for " + url);
+                return code == 408 || code == 429 || code >= 500 ? null : false;
+            }
+
+            ResponseBody body = response.body();
+            if(body == null) return false;
+
+            // the blob name is only known once the content is hashed
+            File tempFile = File.createTempFile("download", ".part", storeDir);
+            String hash;
+            try(HashingSink hashingSink = HashingSink.sha1(Okio.sink(tempFile));
+                BufferedSink sink = Okio.buffer(hashingSink)) {
+                sink.writeAll(body.source());
+                sink.flush();
+                hash = hashingSink.hash().hex();
+            } catch(IOException e) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+                throw e;
+            }
+
+            try {
+                if(transcoder != null) {
+                    extension = transcoder.transcode(tempFile, extension);
+                    if(extension == null) return false;
+                }
+
+                return ImageStore.addImage(urlKey, tempFile, hash, extension);
+            } catch(RuntimeException e) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+                throw e;
+            }
+        }
+    }
+
+    private static synchronized OkHttpClient getClient() {
+        if(okHttpClient == null) {
+            okHttpClient = WallabagConnection.getCachingClientBuilder()
+                    .connectTimeout(15, TimeUnit.SECONDS)
+                    .readTimeout(30, TimeUnit.SECONDS)
+                    .build();
+        }
+
+        return okHttpClient;
+    }
+
+}
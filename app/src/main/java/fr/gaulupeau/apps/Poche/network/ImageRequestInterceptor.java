@@ -0,0 +1,140 @@
+package fr.gaulupeau.apps.Poche.network;
+
+import android.content.Context;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+import fr.gaulupeau.apps.Poche.data.ImageStore;
+import fr.gaulupeau.apps.Poche.data.Settings;
+import okhttp3.HttpUrl;
+
+import static fr.gaulupeau.apps.Poche.data.StorageHelper.isExternalStorageReadable;
+import static fr.gaulupeau.apps.Poche.data.StorageHelper.isExternalStorageWritable;
+
+/**
+ * Answers the image requests of an article WebView from the {@link ImageStore}.
+ * <p>
+ * Stored images are streamed from disk. Images that are not stored yet are downloaded once
+ * through the shared HTTP client, stored and referenced by the article,
+ * so the store is filled as the user reads.
+ * Requests that can't be answered are left to the WebView.
+ * <p>
+ * {@link #intercept(WebResourceRequest)} blocks, it must be called
+ * from {@link android.webkit.WebViewClient#shouldInterceptRequest(android.webkit.WebView,
+ * WebResourceRequest)}, which is not run on the main thread.
+ */
+public class ImageRequestInterceptor {
+
+    private static final String TAG = ImageRequestInterceptor.class.getSimpleName();
+
+    private final long articleId;
+    private final ImageTranscoder transcoder;
+
+    /**
+     * @param articleId the local (DB) ID of the article
+     */
+    public ImageRequestInterceptor(Context context, Settings settings, long articleId) {
+        this.articleId = articleId;
+        this.transcoder = ImageTranscoder.fromSettings(context, settings);
+    }
+
+    /**
+     * @return the response or {@code null} to let the WebView load the resource
+     */
+    public WebResourceResponse intercept(WebResourceRequest request) {
+        if(request.isForMainFrame() || !"GET".equalsIgnoreCase(request.getMethod())) return null;
+        if(!isImageRequest(request)) return null;
+
+        HttpUrl url = HttpUrl.parse(request.getUrl().toString());
+        if(url == null) return null;
+
+        String urlKey = url.toString();
+        if(ImageCacheUtils.getImageFileExtension(urlKey) == null) return null;
+
+        if(!isExternalStorageReadable()) return null;
+
+        String path = ImageStore.getImagePath(urlKey);
+        if(path == null) {
+            if(!isExternalStorageWritable()) return null;
+
+            path = fetch(url);
+            if(path == null) return null;
+        }
+
+        WebResourceResponse response = openImage(path);
+        if(response != null) ImageStore.recordAccess(Collections.singletonList(path));
+
+        return response;
+    }
+
+    private String fetch(HttpUrl url) {
+        String urlKey = url.toString();
+
+        Log.d(TAG, "fetch() fetching on demand: " + urlKey);
+
+        // referenced first so that the new blob is not collected as unreferenced
+        ImageStore.addArticleImage(articleId, urlKey);
+
+        try {
+            if(!ImageDownloader.downloadImage(url, transcoder)) return null;
+        } catch(IOException e) {
+            Log.d(TAG, "fetch() couldn't fetch " + urlKey, e);
+            return null;
+        } catch(RuntimeException e) {
+            // e.g. a DB or a bitmap failure; the WebView should load the image itself then
+            Log.w(TAG, "fetch() exception while fetching " + urlKey, e);
+            return null;
+        }
+
+        return ImageStore.getImagePath(urlKey);
+    }
+
+    private static WebResourceResponse openImage(String path) {
+        File file = new File(path);
+
+        try {
+            return new WebResourceResponse(getMimeType(file.getName()), null,
+                    new FileInputStream(file));
+        } catch(FileNotFoundException e) {
+            // may have been evicted meanwhile
+            Log.d(TAG, "openImage() stored image is missing: " + path);
+            return null;
+        }
+    }
+
+    private static String getMimeType(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot != -1 ? fileName.substring(dot + 1).toLowerCase(Locale.US) : "";
+
+        String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        return mimeType != null ? mimeType : "image/*";
+    }
+
+    private static boolean isImageRequest(WebResourceRequest request) {
+        String scheme = request.getUrl().getScheme();
+        if(!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) return false;
+
+        Map<String, String> headers = request.getRequestHeaders();
+        if(headers == null) return true;
+
+        for(Map.Entry<String, String> header: headers.entrySet()) {
+            if("Accept".equalsIgnoreCase(header.getKey())) {
+                String accept = header.getValue();
+                return accept == null || accept.startsWith("image/");
+            }
+        }
+
+        return true;
+    }
+
+}
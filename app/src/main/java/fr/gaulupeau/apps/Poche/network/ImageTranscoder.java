@@ -0,0 +1,213 @@
+package fr.gaulupeau.apps.Poche.network;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import fr.gaulupeau.apps.Poche.data.Settings;
+
+/**
+ * Downscales downloaded images to the given width and re-encodes them.
+ * <p>
+ * Images that are not wider than the limit, animated images (GIF, animated WebP),
+ * SVGs and images that can't be decoded are left unchanged.
+ * The aspect ratio is kept and the EXIF orientation is applied to the pixels,
+ * since it is lost on re-encoding.
+ */
+public class ImageTranscoder {
+
+    public enum Format { WEBP, JPEG }
+
+    private static final String TAG = ImageTranscoder.class.getSimpleName();
+
+    private static final int HEADER_SIZE = 32;
+
+    private final Format format;
+    private final int quality;
+    private final int maxWidth;
+
+    public ImageTranscoder(Format format, int quality, int maxWidth) {
+        this.format = format;
+        this.quality = Math.max(0, Math.min(100, quality));
+        this.maxWidth = maxWidth;
+    }
+
+    /**
+     * @return the transcoder configured in the settings
+     *         or {@code null} if transcoding is disabled
+     */
+    public static ImageTranscoder fromSettings(Context context, Settings settings) {
+        if(!settings.isImageTranscodingEnabled()) return null;
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+
+        // the larger side, so that images are not blurry in landscape
+        return new ImageTranscoder(settings.getImageTranscodingFormat(),
+                settings.getImageTranscodingQuality(),
+                Math.max(metrics.widthPixels, metrics.heightPixels));
+    }
+
+    /**
+     * Transcodes the file in place if needed.
+     *
+     * @param file the downloaded image
+     * @param extension the original file extension (including the dot)
+     * @return the extension of the resulting file
+     */
+    String transcode(File file, String extension) {
+        if(maxWidth <= 0 || isPassThrough(file, extension)) return extension;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if(width <= 0 || height <= 0) {
+            Log.d(TAG, "transcode() couldn't decode bounds of " + file);
+            return extension;
+        }
+
+        int orientation = getExifOrientation(file);
+        boolean swapSides = orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270;
+        int displayedWidth = swapSides ? height : width;
+
+        if(displayedWidth <= maxWidth) return extension;
+
+        int sampleSize = 1;
+        while(displayedWidth / (sampleSize * 2) >= maxWidth) {
+            sampleSize *= 2;
+        }
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        } catch(OutOfMemoryError e) {
+            Log.w(TAG, "transcode() not enough memory to decode " + file);
+            return extension;
+        }
+        if(bitmap == null) return extension;
+
+        if(format == Format.JPEG && bitmap.hasAlpha()) {
+            Log.d(TAG, "transcode() keeping image with transparency: " + file);
+            bitmap.recycle();
+            return extension;
+        }
+
+        File output = new File(file.getPath() + ".transcoded");
+        try {
+            bitmap = scale(bitmap, orientation);
+
+            try(OutputStream out = new FileOutputStream(output)) {
+                if(!bitmap.compress(format == Format.WEBP
+                        ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG, quality, out)) {
+                    throw new IOException("Couldn't encode bitmap");
+                }
+            }
+
+            if(output.length() >= file.length()) {
+                Log.d(TAG, "transcode() result is not smaller, keeping the original: " + file);
+                return extension;
+            }
+
+            if(!file.delete() || !output.renameTo(file)) {
+                throw new IOException("Couldn't replace " + file);
+            }
+
+            Log.v(TAG, String.format("transcode() %dx%d -> %dx%d, %s",
+                    width, height, bitmap.getWidth(), bitmap.getHeight(), file));
+
+            return format == Format.WEBP ? ".webp" : ".jpg";
+        } catch(IOException | OutOfMemoryError e) {
+            Log.w(TAG, "transcode() couldn't transcode " + file, e);
+            return file.exists() ? extension : null;
+        } finally {
+            bitmap.recycle();
+            //noinspection ResultOfMethodCallIgnored
+            output.delete();
+        }
+    }
+
+    private Bitmap scale(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        switch(orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(270);
+                break;
+        }
+
+        boolean swapSides = orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270;
+        int displayedWidth = swapSides ? bitmap.getHeight() : bitmap.getWidth();
+
+        if(displayedWidth > maxWidth) {
+            float scale = (float)maxWidth / displayedWidth;
+            matrix.postScale(scale, scale);
+        }
+
+        if(matrix.isIdentity()) return bitmap;
+
+        Bitmap result = Bitmap.createBitmap(bitmap, 0, 0,
+                bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if(result != bitmap) bitmap.recycle();
+        return result;
+    }
+
+    private static int getExifOrientation(File file) {
+        try {
+            return new ExifInterface(file.getPath()).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch(IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private static boolean isPassThrough(File file, String extension) {
+        String ext = extension.toLowerCase(Locale.US);
+        if(ext.equals(".gif") || ext.equals(".svg") || ext.equals(".svgz")) return true;
+
+        byte[] header = new byte[HEADER_SIZE];
+        int length;
+        try(InputStream in = new FileInputStream(file)) {
+            length = in.read(header);
+        } catch(IOException e) {
+            Log.w(TAG, "isPassThrough() couldn't read " + file, e);
+            return true;
+        }
+        if(length <= 0) return true;
+
+        String start = new String(header, 0, length, StandardCharsets.ISO_8859_1);
+
+        // the extension is not always right
+        if(start.startsWith("GIF8")) return true;
+        if(start.trim().startsWith("<")) return true; // SVG or XML
+
+        // animated WebP: extended format with the animation flag
+        return length >= 21 && start.startsWith("RIFF") && start.startsWith("WEBPVP8X", 8)
+                && (header[20] & 0x02) != 0;
+    }
+
+}
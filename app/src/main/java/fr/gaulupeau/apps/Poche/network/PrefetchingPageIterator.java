@@ -0,0 +1,158 @@
+package fr.gaulupeau.apps.Poche.network;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import wallabag.apiwrapper.ArticlesPageIterator;
+import wallabag.apiwrapper.exceptions.UnsuccessfulResponseException;
+import wallabag.apiwrapper.models.Articles;
+
+/**
+ * Wraps an {@link ArticlesPageIterator} and fetches up to {@code readAheadPages} pages
+ * on a background thread while the consumer is busy processing the current page.
+ * <p>
+ * The pages are returned strictly in the order of the underlying iterator.
+ * The producer blocks once the buffer is full (backpressure).
+ * Errors of the producer (including {@link Error}s) are rethrown to the consumer
+ * in place of the failed page.
+ * <p>
+ * With {@code readAheadPages <= 0} the pages are fetched synchronously on the caller's thread.
+ */
+class PrefetchingPageIterator {
+
+    private static final String TAG = PrefetchingPageIterator.class.getSimpleName();
+
+    private static final Object END_MARKER = new Object();
+
+    private static class Failure {
+        final Throwable throwable;
+
+        Failure(Throwable throwable) {
+            this.throwable = throwable;
+        }
+    }
+
+    private final ArticlesPageIterator pageIterator;
+    private final BlockingQueue<Object> queue;
+    private final SyncStats syncStats;
+
+    private Thread producerThread;
+    private volatile boolean closed;
+
+    private Object nextItem;
+
+    PrefetchingPageIterator(ArticlesPageIterator pageIterator, int readAheadPages,
+                            SyncStats syncStats) {
+        this.pageIterator = pageIterator;
+        this.queue = readAheadPages > 0 ? new ArrayBlockingQueue<>(readAheadPages) : null;
+        this.syncStats = syncStats;
+    }
+
+    /**
+     * @return false once the iterator is {@linkplain #close() closed}
+     */
+    boolean hasNext() throws UnsuccessfulResponseException, IOException {
+        if(closed) return false;
+
+        if(queue == null) return syncStats.measureApiCall(pageIterator::hasNext);
+
+        if(nextItem == null) {
+            startProducer();
+
+            try {
+                nextItem = queue.take();
+            } catch(InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a page");
+            }
+        }
+
+        if(nextItem instanceof Failure) {
+            Throwable t = ((Failure)nextItem).throwable;
+            nextItem = END_MARKER;
+
+            if(t instanceof UnsuccessfulResponseException) throw (UnsuccessfulResponseException)t;
+            if(t instanceof IOException) throw (IOException)t;
+            if(t instanceof Error) throw (Error)t;
+            throw (RuntimeException)t;
+        }
+
+        return nextItem != END_MARKER;
+    }
+
+    Articles next() throws UnsuccessfulResponseException, IOException {
+        if(queue == null) return syncStats.measureApiCall(pageIterator::next);
+
+        if(!hasNext()) throw new IllegalStateException("No more pages");
+
+        Articles articles = (Articles)nextItem;
+        nextItem = null;
+        return articles;
+    }
+
+    /**
+     * Stops the producer thread (if any) and discards prefetched pages.
+     * Must be called once the consumer is done with the iterator, even if it failed.
+     */
+    void close() {
+        if(closed) return;
+        closed = true;
+
+        if(producerThread != null) {
+            producerThread.interrupt();
+            queue.clear();
+        }
+    }
+
+    private void startProducer() {
+        if(producerThread != null || closed) return;
+
+        producerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                produce();
+            }
+        }, TAG);
+        producerThread.setDaemon(true);
+        producerThread.start();
+    }
+
+    private void produce() {
+        Log.d(TAG, "produce() started");
+
+        Object terminalItem = END_MARKER;
+        try {
+            while(!closed && syncStats.measureApiCall(pageIterator::hasNext)) {
+                Articles articles = syncStats.measureApiCall(pageIterator::next);
+
+                Log.v(TAG, String.format("produce() fetched page %d/%d; buffered: %d",
+                        articles.page, articles.pages, queue.size()));
+
+                queue.put(articles);
+            }
+        } catch(InterruptedException e) {
+            Log.d(TAG, "produce() interrupted");
+            return;
+        } catch(Throwable t) {
+            // anything else, even an OutOfMemoryError, must end the consumer's wait
+            Log.w(TAG, "produce() exception", t);
+            terminalItem = new Failure(t);
+        }
+
+        if(closed) return;
+
+        try {
+            queue.put(terminalItem);
+        } catch(InterruptedException e) {
+            Log.d(TAG, "produce() interrupted while finishing");
+        }
+
+        Log.d(TAG, "produce() finished");
+    }
+
+}
@@ -0,0 +1,188 @@
+package fr.gaulupeau.apps.Poche.network;
+
+import wallabag.apiwrapper.exceptions.UnsuccessfulResponseException;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Telemetry of a single sync operation: time spent per phase and row/page/byte counters.
+ * <p>
+ * Network time and received bytes are recorded by the API client
+ * for the stats that are {@linkplain #setActive(SyncStats) active} at the time.
+ * Parsing time is the part of an {@linkplain #measureApiCall(ApiCall) API call}
+ * that is not spent on the network.
+ * FTS time is the time of article content writes, which fire the full-text search triggers.
+ * <p>
+ * The stats may be updated from several threads.
+ */
+public class SyncStats {
+
+    public enum Phase { NETWORK, PARSING, DIFFING, DB_WRITES, FTS }
+
+    public interface ApiCall<T> {
+        T call() throws UnsuccessfulResponseException, IOException;
+    }
+
+    private static volatile SyncStats active;
+
+    // network time of the current thread, used to tell parsing time from network time
+    private static final ThreadLocal<long[]> threadNetworkNanos = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final String operation;
+    private final long startTime = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private long duration = -1;
+
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger pages = new AtomicInteger();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicInteger inserted = new AtomicInteger();
+    private final AtomicInteger updated = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+
+    public SyncStats(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Sets the stats that receive network time and bytes of API requests.
+     *
+     * @param stats the stats or {@code null}
+     */
+    public static void setActive(SyncStats stats) {
+        active = stats;
+    }
+
+    public static SyncStats getActive() {
+        return active;
+    }
+
+    void addNetworkTime(long nanos) {
+        addTime(Phase.NETWORK, nanos);
+        threadNetworkNanos.get()[0] += nanos;
+    }
+
+    void addRequest() {
+        requests.incrementAndGet();
+    }
+
+    void addBytesReceived(long bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    /**
+     * Performs the call and records its time as {@link Phase#PARSING},
+     * excluding the network time recorded on this thread in the meantime.
+     */
+    public <T> T measureApiCall(ApiCall<T> call) throws UnsuccessfulResponseException, IOException {
+        long[] networkNanos = threadNetworkNanos.get();
+        long networkStart = networkNanos[0];
+        long start = System.nanoTime();
+        try {
+            return call.call();
+        } finally {
+            addTime(Phase.PARSING, System.nanoTime() - start - (networkNanos[0] - networkStart));
+        }
+    }
+
+    public void addTime(Phase phase, long nanos) {
+        if(nanos > 0) phaseNanos.addAndGet(phase.ordinal(), nanos);
+    }
+
+    public void addPage() {
+        pages.incrementAndGet();
+    }
+
+    public void addInserted(int number) {
+        inserted.addAndGet(number);
+    }
+
+    public void addUpdated(int number) {
+        updated.addAndGet(number);
+    }
+
+    public void addDeleted(int number) {
+        deleted.addAndGet(number);
+    }
+
+    public void finish() {
+        if(duration < 0) duration = (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return duration in milliseconds, or -1 if not {@linkplain #finish() finished}
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return time spent in the phase in milliseconds
+     */
+    public long getTime(Phase phase) {
+        return phaseNanos.get(phase.ordinal()) / 1000000;
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public int getPages() {
+        return pages.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public int getInserted() {
+        return inserted.get();
+    }
+
+    public int getUpdated() {
+        return updated.get();
+    }
+
+    public int getDeleted() {
+        return deleted.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(operation).append(':')
+                .append(" duration=").append(duration).append("ms");
+
+        for(Phase phase: Phase.values()) {
+            sb.append(' ').append(phase.name().toLowerCase(Locale.US))
+                    .append('=').append(getTime(phase)).append("ms");
+        }
+
+        return sb.append(" requests=").append(getRequests())
+                .append(" pages=").append(getPages())
+                .append(" bytes=").append(getBytesReceived())
+                .append(" inserted=").append(getInserted())
+                .append(" updated=").append(getUpdated())
+                .append(" deleted=").append(getDeleted())
+                .toString();
+    }
+
+}
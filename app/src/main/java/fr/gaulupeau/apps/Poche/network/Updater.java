@@ -1,5 +1,6 @@
 package fr.gaulupeau.apps.Poche.network;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.Build;
 import android.text.Html;
@@ -7,34 +8,47 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
 
-import wallabag.apiwrapper.ArticlesPageIterator;
 import wallabag.apiwrapper.ArticlesQueryBuilder;
 import wallabag.apiwrapper.BatchExistQueryBuilder;
 import wallabag.apiwrapper.WallabagService;
 import wallabag.apiwrapper.exceptions.UnsuccessfulResponseException;
 import wallabag.apiwrapper.models.Articles;
 
+import org.greenrobot.greendao.AbstractDao;
+import org.greenrobot.greendao.Property;
 import org.greenrobot.greendao.query.QueryBuilder;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import fr.gaulupeau.apps.Poche.data.ImageStore;
 import fr.gaulupeau.apps.Poche.data.dao.AnnotationDao;
 import fr.gaulupeau.apps.Poche.data.dao.AnnotationRangeDao;
 import fr.gaulupeau.apps.Poche.data.dao.ArticleContentDao;
 import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
 import fr.gaulupeau.apps.Poche.data.dao.ArticleTagsJoinDao;
 import fr.gaulupeau.apps.Poche.data.dao.DaoSession;
-import fr.gaulupeau.apps.Poche.data.dao.FtsDao;
 import fr.gaulupeau.apps.Poche.data.dao.TagDao;
 import fr.gaulupeau.apps.Poche.data.dao.entities.Annotation;
 import fr.gaulupeau.apps.Poche.data.dao.entities.AnnotationRange;
@@ -54,56 +68,246 @@ public class Updater {
         void onProgress(int current, int total);
     }
 
+    public interface ContentListener extends ProgressListener {
+        /**
+         * Called right after the content of a prioritized article was fetched.
+         *
+         * @see #prioritizeContent(int)
+         */
+        void onPriorityContentFetched(ArticlesChangedEvent event);
+
+        /**
+         * Called if the fetching failed after the content of some articles was committed.
+         */
+        void onPartialContentFetched(ArticlesChangedEvent event);
+    }
+
     public interface UpdateListener extends ProgressListener {
+        /**
+         * Called after every committed chunk of changes.
+         * A {@link UpdateType#FULL} update may be resumed from the last provided checkpoint;
+         * for a {@link UpdateType#FAST} update it's enough to persist
+         * {@link Checkpoint#getLatestUpdatedItemTimestamp()}.
+         */
+        void onCheckpoint(Checkpoint checkpoint);
+
+        /**
+         * Called if the update failed after some changes were committed.
+         */
+        void onPartialUpdate(ArticlesChangedEvent event);
+
         void onSuccess(long latestUpdatedItemTimestamp);
     }
 
+    /**
+     * State of an update after a committed page.
+     */
+    public static class Checkpoint {
+
+        private final UpdateType updateType;
+        private final long syncGeneration;
+        private final int page;
+        private final int total;
+        private final long latestUpdatedItemTimestamp;
+
+        public Checkpoint(UpdateType updateType, long syncGeneration, int page, int total,
+                          long latestUpdatedItemTimestamp) {
+            this.updateType = updateType;
+            this.syncGeneration = syncGeneration;
+            this.page = page;
+            this.total = total;
+            this.latestUpdatedItemTimestamp = latestUpdatedItemTimestamp;
+        }
+
+        public UpdateType getUpdateType() {
+            return updateType;
+        }
+
+        public long getSyncGeneration() {
+            return syncGeneration;
+        }
+
+        /**
+         * @return the last committed page
+         */
+        public int getPage() {
+            return page;
+        }
+
+        /**
+         * @return the remote total number of articles at the moment of the checkpoint
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        public long getLatestUpdatedItemTimestamp() {
+            return latestUpdatedItemTimestamp;
+        }
+
+        @Override
+        public String toString() {
+            return "Checkpoint{" +
+                    "updateType=" + updateType +
+                    ", syncGeneration=" + syncGeneration +
+                    ", page=" + page +
+                    ", total=" + total +
+                    ", latestUpdatedItemTimestamp=" + latestUpdatedItemTimestamp +
+                    '}';
+        }
+
+    }
+
     private static final String TAG = Updater.class.getSimpleName();
 
     private final DaoSession daoSession;
     private final WallabagService wallabagService;
 
+    public enum SweepStrategy {
+        /** Check article URLs with the "exists" API. */
+        URL_EXISTS,
+        /** List IDs of all remote articles and compare them to the local ones. */
+        ID_LISTING
+    }
+
+    private static final int SWEEP_CONCURRENCY = 3;
+
+    private static final Set<Integer> contentPriorityQueue = new LinkedHashSet<>();
+
+    private int readAheadPages;
+    private boolean contentDeferred;
+    private SweepStrategy sweepStrategy = SweepStrategy.URL_EXISTS;
+    private SyncStats syncStats = new SyncStats("untracked");
+
     public Updater(DaoSession daoSession, WallabagService wallabagService) {
         this.daoSession = daoSession;
         this.wallabagService = wallabagService;
     }
 
+    /**
+     * Sets the number of article pages that are fetched in background
+     * while the current page is being processed.
+     * {@code 0} disables prefetching.
+     *
+     * @param readAheadPages number of pages to prefetch
+     */
+    public void setReadAheadPages(int readAheadPages) {
+        this.readAheadPages = readAheadPages;
+    }
+
+    /**
+     * If set, updates download article metadata only;
+     * the content is downloaded later by {@link #fetchContent(boolean, ContentListener)}.
+     *
+     * @param contentDeferred whether content download should be deferred
+     */
+    public void setContentDeferred(boolean contentDeferred) {
+        this.contentDeferred = contentDeferred;
+    }
+
+    public void setSweepStrategy(SweepStrategy sweepStrategy) {
+        this.sweepStrategy = sweepStrategy;
+    }
+
+    /**
+     * Sets the stats to record the following operations to.
+     *
+     * @param syncStats the stats or {@code null} to stop recording
+     */
+    public void setSyncStats(SyncStats syncStats) {
+        this.syncStats = syncStats != null ? syncStats : new SyncStats("untracked");
+    }
+
+    /**
+     * Makes the content of the article to be fetched before other pending articles.
+     *
+     * @param articleId remote ID of the article
+     */
+    public static void prioritizeContent(int articleId) {
+        synchronized(contentPriorityQueue) {
+            contentPriorityQueue.add(articleId);
+        }
+    }
+
+    private static Integer pollPrioritizedContent() {
+        synchronized(contentPriorityQueue) {
+            Iterator<Integer> iterator = contentPriorityQueue.iterator();
+            if(!iterator.hasNext()) return null;
+
+            Integer articleId = iterator.next();
+            iterator.remove();
+            return articleId;
+        }
+    }
+
+    /**
+     * Updates local articles.
+     * Changes are committed page by page, so an interrupted update keeps its progress.
+     *
+     * @param updateType type of the update
+     * @param latestUpdatedItemTimestamp timestamp of the latest updated article
+     *                                   (used for {@link UpdateType#FAST} updates)
+     * @param checkpoint checkpoint of a previously interrupted update to resume from;
+     *                   ignored if it doesn't match the update type
+     * @param updateListener listener
+     * @return event describing the changes
+     */
     public ArticlesChangedEvent update(UpdateType updateType, long latestUpdatedItemTimestamp,
-                                       UpdateListener updateListener)
+                                       Checkpoint checkpoint, UpdateListener updateListener)
             throws UnsuccessfulResponseException, IOException {
-        boolean clean = updateType != UpdateType.FAST;
+        boolean full = updateType != UpdateType.FAST;
+
+        if(checkpoint != null && (!full || checkpoint.getUpdateType() != updateType)) {
+            checkpoint = null;
+        }
 
-        Log.i(TAG, "update() started; clean: " + clean);
+        Log.i(TAG, "update() started; full: " + full + ", checkpoint: " + checkpoint);
 
         ArticlesChangedEvent event = new ArticlesChangedEvent();
 
-        SQLiteDatabase sqliteDatabase = (SQLiteDatabase)daoSession.getDatabase().getRawDatabase();
-        sqliteDatabase.beginTransactionNonExclusive();
         try {
-            if(clean) {
-                Log.d(TAG, "update() deleting old DB entries");
-                FtsDao.deleteAllArticles(daoSession.getDatabase());
-                daoSession.getAnnotationRangeDao().deleteAll();
-                daoSession.getAnnotationDao().deleteAll();
-                daoSession.getArticleTagsJoinDao().deleteAll();
-                daoSession.getArticleContentDao().deleteAll();
-                daoSession.getArticleDao().deleteAll();
-                daoSession.getTagDao().deleteAll();
-
-                event.invalidateAll(ChangeType.DELETED);
+            // full update reconciles local entries in place:
+            // every article seen during this run is marked with the generation,
+            // the rest is removed afterwards
+            long syncGeneration = 0;
+            if(full) {
+                syncGeneration = checkpoint != null
+                        ? checkpoint.getSyncGeneration() : System.currentTimeMillis();
             }
 
             Log.v(TAG, "update() latestUpdatedItemTimestamp: " + latestUpdatedItemTimestamp);
 
             Log.d(TAG, "update() updating articles");
-            latestUpdatedItemTimestamp = performUpdate(
-                    event, clean, latestUpdatedItemTimestamp, updateListener);
+            latestUpdatedItemTimestamp = performUpdate(event, full, syncGeneration,
+                    latestUpdatedItemTimestamp, checkpoint, updateListener);
             Log.d(TAG, "update() articles updated");
             Log.v(TAG, "update() latestUpdatedItemTimestamp: " + latestUpdatedItemTimestamp);
 
-            sqliteDatabase.setTransactionSuccessful();
-        } finally {
-            sqliteDatabase.endTransaction();
+            if(full) {
+                Log.d(TAG, "update() removing articles not present remotely");
+
+                int remoteTotal = getRemoteTotal();
+
+                SQLiteDatabase sqliteDatabase
+                        = (SQLiteDatabase)daoSession.getDatabase().getRawDatabase();
+                sqliteDatabase.beginTransactionNonExclusive();
+                try {
+                    sweepUnmarkedArticles(event, syncGeneration, remoteTotal);
+
+                    sqliteDatabase.setTransactionSuccessful();
+                } finally {
+                    sqliteDatabase.endTransaction();
+                }
+            }
+        } catch(UnsuccessfulResponseException | IOException | RuntimeException e) {
+            // entities of the rolled back page may hold uncommitted values
+            daoSession.clear();
+
+            if(updateListener != null && event.isAnythingChanged()) {
+                updateListener.onPartialUpdate(event);
+            }
+
+            throw e;
         }
 
         if(updateListener != null) updateListener.onSuccess(latestUpdatedItemTimestamp);
@@ -113,6 +317,133 @@ public class Updater {
         return event;
     }
 
+    /**
+     * Downloads content of the articles that were added (or changed) using metadata only.
+     * Prioritized articles are processed first, then unread articles, newest first.
+     *
+     * @param priorityOnly process only the prioritized articles
+     * @param contentListener listener
+     * @return event describing the changes (excluding prioritized articles,
+     *         which are reported to the listener right away)
+     */
+    public ArticlesChangedEvent fetchContent(boolean priorityOnly, ContentListener contentListener)
+            throws UnsuccessfulResponseException, IOException {
+        Log.i(TAG, "fetchContent() started; priorityOnly: " + priorityOnly);
+
+        ArticlesChangedEvent event = new ArticlesChangedEvent();
+
+        ArticleDao articleDao = daoSession.getArticleDao();
+
+        QueryBuilder<Article> queryBuilder = articleDao.queryBuilder()
+                .where(ArticleDao.Properties.ContentDownloaded.eq(false))
+                .orderAsc(ArticleDao.Properties.Archive)
+                .orderDesc(ArticleDao.Properties.ArticleId)
+                .limit(1);
+
+        int totalNumber = (int)articleDao.queryBuilder()
+                .where(ArticleDao.Properties.ContentDownloaded.eq(false)).count();
+        int processed = 0;
+
+        Log.d(TAG, "fetchContent() pending articles: " + totalNumber);
+
+        try {
+            while(true) {
+                Article article = null;
+                boolean prioritized = false;
+
+                Integer priorityArticleId;
+                while(article == null && (priorityArticleId = pollPrioritizedContent()) != null) {
+                    article = articleDao.queryBuilder()
+                            .where(ArticleDao.Properties.ArticleId.eq(priorityArticleId),
+                                    ArticleDao.Properties.ContentDownloaded.eq(false))
+                            .unique();
+                    prioritized = article != null;
+                }
+
+                if(article == null && !priorityOnly) article = queryBuilder.unique();
+
+                if(article == null) break;
+
+                if(contentListener != null) {
+                    contentListener.onProgress(processed, Math.max(totalNumber, processed + 1));
+                }
+
+                Log.d(TAG, String.format("fetchContent() articleID: %d, prioritized: %s",
+                        article.getArticleId(), prioritized));
+
+                wallabag.apiwrapper.models.Article apiArticle
+                        = wallabagService.getArticle(article.getArticleId());
+
+                EnumSet<ChangeType> changes;
+
+                SQLiteDatabase sqliteDatabase
+                        = (SQLiteDatabase)daoSession.getDatabase().getRawDatabase();
+                sqliteDatabase.beginTransactionNonExclusive();
+                try {
+                    changes = applyFetchedContent(article, apiArticle);
+
+                    sqliteDatabase.setTransactionSuccessful();
+                } finally {
+                    sqliteDatabase.endTransaction();
+                }
+
+                if(!changes.isEmpty()) {
+                    if(prioritized && contentListener != null) {
+                        ArticlesChangedEvent priorityEvent = new ArticlesChangedEvent();
+                        priorityEvent.addArticleChangeWithoutObject(article, changes);
+                        contentListener.onPriorityContentFetched(priorityEvent);
+                    } else {
+                        event.addArticleChangeWithoutObject(article, changes);
+                    }
+                }
+
+                processed++;
+            }
+        } catch(UnsuccessfulResponseException | IOException | RuntimeException e) {
+            // the entity of the rolled back article may hold uncommitted values
+            daoSession.clear();
+
+            if(contentListener != null && event.isAnythingChanged()) {
+                contentListener.onPartialContentFetched(event);
+            }
+
+            throw e;
+        }
+
+        Log.i(TAG, "fetchContent() finished; processed: " + processed);
+
+        return event;
+    }
+
+    private EnumSet<ChangeType> applyFetchedContent(
+            Article article, wallabag.apiwrapper.models.Article apiArticle) {
+        EnumSet<ChangeType> changes = EnumSet.noneOf(ChangeType.class);
+
+        if(apiArticle == null) {
+            // the article is probably deleted remotely; leave it to the sweep
+            Log.w(TAG, "applyFetchedContent() article not found remotely: "
+                    + article.getArticleId());
+        } else if(!article.isContentDigestMatching(apiArticle.content)) {
+            ArticleContent content = new ArticleContent(article.getId(),
+                    apiArticle.content != null ? apiArticle.content : "");
+            article.setArticleContent(content);
+            article.updateContentDigest(apiArticle.content);
+            daoSession.getArticleContentDao().update(content);
+
+            changes.add(ChangeType.CONTENT_CHANGED);
+
+            if(article.getImagesDownloaded() != null && article.getImagesDownloaded()) {
+                changes.add(ChangeType.FETCHED_IMAGES_CHANGED);
+            }
+            article.setImagesDownloaded(false);
+        }
+
+        article.setContentDownloaded(true);
+        daoSession.getArticleDao().update(article);
+
+        return changes;
+    }
+
     public ArticlesChangedEvent sweepDeletedArticles(ProgressListener progressListener)
             throws UnsuccessfulResponseException, IOException {
         Log.i(TAG, "sweepDeletedArticles() started");
@@ -126,11 +457,13 @@ public class Updater {
         return event;
     }
 
-    private long performUpdate(ArticlesChangedEvent event, boolean full,
-                               long latestUpdatedItemTimestamp, UpdateListener updateListener)
+    private long performUpdate(ArticlesChangedEvent event, boolean full, long syncGeneration,
+                               long latestUpdatedItemTimestamp, Checkpoint checkpoint,
+                               UpdateListener updateListener)
             throws UnsuccessfulResponseException, IOException {
-        Log.d(TAG, String.format("performUpdate(full: %s, latestUpdatedItemTimestamp: %d) started",
-                full, latestUpdatedItemTimestamp));
+        Log.d(TAG, String.format("performUpdate(full: %s, latestUpdatedItemTimestamp: %d" +
+                        ", readAheadPages: %d, contentDeferred: %s) started",
+                full, latestUpdatedItemTimestamp, readAheadPages, contentDeferred));
 
         ArticleDao articleDao = daoSession.getArticleDao();
         ArticleContentDao articleContentDao = daoSession.getArticleContentDao();
@@ -143,20 +476,25 @@ public class Updater {
         if(full) {
             List<wallabag.apiwrapper.models.Tag> apiTags = wallabagService.getTags();
 
-            tags = new ArrayList<>(apiTags.size());
+            SQLiteDatabase sqliteDatabase
+                    = (SQLiteDatabase)daoSession.getDatabase().getRawDatabase();
+            sqliteDatabase.beginTransactionNonExclusive();
+            try {
+                tags = syncTags(apiTags, event);
 
-            for(wallabag.apiwrapper.models.Tag apiTag: apiTags) {
-                tags.add(new Tag(null, apiTag.id, apiTag.label));
+                sqliteDatabase.setTransactionSuccessful();
+            } finally {
+                sqliteDatabase.endTransaction();
             }
-
-            tagDao.insertInTx(tags);
         } else {
             tags = tagDao.queryBuilder().list();
         }
 
+        Map<Long, Tag> tagMap = new HashMap<>(tags.size());
         Map<Integer, Tag> tagIdMap = new HashMap<>(tags.size());
         Map<String, Tag> tagLabelMap = new HashMap<>(tags.size());
         for(Tag tag: tags) {
+            tagMap.put(tag.getId(), tag);
             if(tag.getTagId() != null) {
                 tagIdMap.put(tag.getTagId(), tag);
             } else {
@@ -170,12 +508,34 @@ public class Updater {
                 .getArticlesBuilder()
                 .perPage(perPage);
 
+        if(contentDeferred) {
+            queryBuilder.detailLevel(ArticlesQueryBuilder.DetailLevel.METADATA);
+        }
+
         if(full) {
             queryBuilder
                     .sortCriterion(ArticlesQueryBuilder.SortCriterion.CREATED)
                     .sortOrder(ArticlesQueryBuilder.SortOrder.ASCENDING);
 
             latestUpdatedItemTimestamp = 0;
+
+            if(checkpoint != null) {
+                // new articles are appended to the end in this order,
+                // but deleted articles shift the pages, so it's safe to resume
+                // only if nothing was removed in the meantime
+                int remoteTotal = getRemoteTotal();
+
+                if(remoteTotal >= checkpoint.getTotal()) {
+                    Log.d(TAG, "performUpdate() resuming after page " + checkpoint.getPage());
+
+                    queryBuilder.page(checkpoint.getPage() + 1);
+                    latestUpdatedItemTimestamp = checkpoint.getLatestUpdatedItemTimestamp();
+                } else {
+                    Log.d(TAG, String.format("performUpdate() remote total decreased" +
+                            " (%d -> %d), starting from the first page",
+                            checkpoint.getTotal(), remoteTotal));
+                }
+            }
         } else {
             queryBuilder
                     .sortCriterion(ArticlesQueryBuilder.SortCriterion.UPDATED)
@@ -189,539 +549,835 @@ public class Updater {
         List<ArticleContent> articleContentToInsert = new ArrayList<>();
         Set<Tag> tagsToUpdate = new HashSet<>();
         List<Tag> tagsToInsert = new ArrayList<>();
-        Map<Article, List<Tag>> articleTagJoinsToRemove = new HashMap<>();
+        List<Long> articleTagJoinsToRemove = new ArrayList<>();
         Map<Article, List<Tag>> articleTagJoinsToInsert = new HashMap<>();
         List<Annotation> annotationsToUpdate = new ArrayList<>();
         List<Pair<Article, Annotation>> annotationsToInsert = new ArrayList<>();
-        List<Annotation> annotationsToRemove = new ArrayList<>();
+        List<Long> annotationsToRemove = new ArrayList<>();
         List<Pair<Annotation, AnnotationRange>> annotationRangesToInsert = new ArrayList<>();
-        List<AnnotationRange> annotationRangesToRemove = new ArrayList<>();
+        List<Long> annotationRangesToRemove = new ArrayList<>();
 
-        Set<wallabag.apiwrapper.models.Annotation> processedApiAnnotations = new HashSet<>();
-        Set<wallabag.apiwrapper.models.Annotation.Range> presentApiAnnotationRanges = new HashSet<>();
+        Set<Integer> apiTagIds = new HashSet<>();
+        Set<String> apiTagLabels = new HashSet<>();
+        Set<Tag> presentTags = new HashSet<>();
+        Map<Integer, wallabag.apiwrapper.models.Annotation> apiAnnotationMap = new HashMap<>();
+        Map<String, wallabag.apiwrapper.models.Annotation.Range> apiRangeMap = new LinkedHashMap<>();
+
+        Map<Integer, Article> localArticles;
+        Map<Pair<Long, Long>, Long> localTagJoins = new HashMap<>();
+        List<Long> articlesToMark = new ArrayList<>();
 
         Log.d(TAG, "performUpdate() starting to iterate though pages");
-        for(ArticlesPageIterator pageIterator = queryBuilder.pageIterator(); pageIterator.hasNext();) {
-            Articles articles = pageIterator.next();
+        PrefetchingPageIterator pageIterator = new PrefetchingPageIterator(
+                queryBuilder.pageIterator(), readAheadPages, syncStats);
+        try {
+            while(pageIterator.hasNext()) {
+                Articles articles = pageIterator.next();
+                syncStats.addPage();
 
-            Log.d(TAG, String.format("performUpdate() page: %d/%d, total articles: %d",
-                    articles.page, articles.pages, articles.total));
+                Log.d(TAG, String.format("performUpdate() page: %d/%d, total articles: %d",
+                        articles.page, articles.pages, articles.total));
 
-            if(updateListener != null) {
-                updateListener.onProgress((articles.page - 1) * perPage, articles.total);
-            }
+                if(updateListener != null) {
+                    updateListener.onProgress((articles.page - 1) * perPage, articles.total);
+                }
 
-            if(articles.embedded.items.isEmpty()) {
-                Log.d(TAG, "performUpdate() no items; skipping");
-                continue;
-            }
+                if(articles.embedded.items.isEmpty()) {
+                    Log.d(TAG, "performUpdate() no items; skipping");
+                    continue;
+                }
 
-            articlesToUpdate.clear();
-            articlesToInsert.clear();
-            articleContentToUpdate.clear();
-            articleContentToInsert.clear();
-            tagsToUpdate.clear();
-            tagsToInsert.clear();
-            articleTagJoinsToRemove.clear();
-            articleTagJoinsToInsert.clear();
-            annotationsToUpdate.clear();
-            annotationsToInsert.clear();
-            annotationsToRemove.clear();
-            annotationRangesToInsert.clear();
-            annotationRangesToRemove.clear();
-
-            for(wallabag.apiwrapper.models.Article apiArticle: articles.embedded.items) {
-                int id = apiArticle.id;
+                long diffStart = System.nanoTime();
+                long writeStart = 0;
+                long ftsNanos = 0;
+
+                SQLiteDatabase sqliteDatabase
+                        = (SQLiteDatabase)daoSession.getDatabase().getRawDatabase();
+                sqliteDatabase.beginTransactionNonExclusive();
+                try {
+                    articlesToUpdate.clear();
+                    articlesToInsert.clear();
+                    articleContentToUpdate.clear();
+                    articleContentToInsert.clear();
+                    tagsToUpdate.clear();
+                    tagsToInsert.clear();
+                    articleTagJoinsToRemove.clear();
+                    articleTagJoinsToInsert.clear();
+                    annotationsToUpdate.clear();
+                    annotationsToInsert.clear();
+                    annotationsToRemove.clear();
+                    annotationRangesToInsert.clear();
+                    annotationRangesToRemove.clear();
+                    articlesToMark.clear();
+
+                    localArticles = loadLocalArticles(articles.embedded.items, tagMap, localTagJoins);
+
+                    for(wallabag.apiwrapper.models.Article apiArticle: articles.embedded.items) {
+                        int id = apiArticle.id;
+
+                        Article article = localArticles.get(id);
+
+                        EnumSet<ChangeType> articleChanges = EnumSet.noneOf(ChangeType.class);
+                        boolean annotationsChanged = false;
+
+                        boolean existing = true;
+                        if(article == null) {
+                            existing = false;
+
+                            article = new Article(null);
+                            article.setArticleId(id);
+                            article.setTitle(unescapeHtml(apiArticle.title));
+                            if(contentDeferred) {
+                                article.setArticleContent(new ArticleContent(null, ""));
+                                article.setContentDownloaded(false);
+                            } else {
+                                article.setArticleContent(new ArticleContent(null, apiArticle.content));
+                                article.updateContentDigest(apiArticle.content);
+                                article.setContentDownloaded(true);
+                            }
+                            article.setDomain(apiArticle.domainName);
+                            article.setUrl(apiArticle.url);
+                            article.setOriginUrl(apiArticle.originUrl);
+                            article.setEstimatedReadingTime(apiArticle.readingTime);
+                            article.setLanguage(apiArticle.language);
+                            article.setPreviewPictureURL(apiArticle.previewPicture);
+                            article.setAuthors(formatAuthors(apiArticle.authors));
+                            article.setCreationDate(apiArticle.createdAt);
+                            article.setUpdateDate(apiArticle.updatedAt);
+                            article.setPublishedAt(apiArticle.publishedAt);
+                            article.setStarredAt(apiArticle.starredAt);
+                            article.setIsPublic(apiArticle.isPublic);
+                            article.setPublicUid(apiArticle.publicUid);
+                            article.setArchive(apiArticle.archived);
+                            article.setFavorite(apiArticle.starred);
+                            article.setImagesDownloaded(false);
+
+                            articleChanges.add(ChangeType.ADDED);
+                        }
 
-                Article article = null;
+                        boolean contentDigestUpdated = false;
 
-                EnumSet<ChangeType> articleChanges = EnumSet.noneOf(ChangeType.class);
-                boolean annotationsChanged = false;
+                        if(existing && !contentDeferred) {
+                            boolean contentChanged;
+                            if(article.isContentPending()) {
+                                contentChanged = true;
+                                article.setContentDownloaded(true);
+                            } else if(article.getContentHash() != null) {
+                                contentChanged = !article.isContentDigestMatching(apiArticle.content);
+                            } else {
+                                // no digest yet: compare the stored content directly
+                                contentChanged = !equalOrEmpty(article.getContent(), apiArticle.content);
+                                article.updateContentDigest(apiArticle.content);
+                                contentDigestUpdated = true;
+                            }
 
-                if(!full) {
-                    article = articleDao.queryBuilder()
-                            .where(ArticleDao.Properties.ArticleId.eq(id)).build().unique();
-                }
+                            if(contentChanged) {
+                                // the old content is not needed, so it's not loaded
+                                ArticleContent content = new ArticleContent(
+                                        article.getId(), apiArticle.content);
+                                article.setArticleContent(content);
+                                article.updateContentDigest(apiArticle.content);
+                                articleContentToUpdate.add(content);
+                                articleChanges.add(ChangeType.CONTENT_CHANGED);
+                            }
+                        }
 
-                boolean existing = true;
-                if(article == null) {
-                    existing = false;
-
-                    article = new Article(null);
-                    article.setArticleId(id);
-                    article.setTitle(unescapeHtml(apiArticle.title));
-                    article.setArticleContent(new ArticleContent(null, apiArticle.content));
-                    article.setDomain(apiArticle.domainName);
-                    article.setUrl(apiArticle.url);
-                    article.setOriginUrl(apiArticle.originUrl);
-                    article.setEstimatedReadingTime(apiArticle.readingTime);
-                    article.setLanguage(apiArticle.language);
-                    article.setPreviewPictureURL(apiArticle.previewPicture);
-                    article.setAuthors(formatAuthors(apiArticle.authors));
-                    article.setCreationDate(apiArticle.createdAt);
-                    article.setUpdateDate(apiArticle.updatedAt);
-                    article.setPublishedAt(apiArticle.publishedAt);
-                    article.setStarredAt(apiArticle.starredAt);
-                    article.setIsPublic(apiArticle.isPublic);
-                    article.setPublicUid(apiArticle.publicUid);
-                    article.setArchive(apiArticle.archived);
-                    article.setFavorite(apiArticle.starred);
-                    article.setImagesDownloaded(false);
-
-                    articleChanges.add(ChangeType.ADDED);
-                }
+                        if(existing) {
+                            if(!equalOrEmpty(article.getTitle(), unescapeHtml(apiArticle.title))) {
+                                article.setTitle(unescapeHtml(apiArticle.title));
+                                articleChanges.add(ChangeType.TITLE_CHANGED);
+                            }
+                            if(!equalOrEmpty(article.getDomain(), apiArticle.domainName)) {
+                                article.setDomain(apiArticle.domainName);
+                                articleChanges.add(ChangeType.DOMAIN_CHANGED);
+                            }
+                            if(!equalOrEmpty(article.getUrl(), apiArticle.url)) {
+                                article.setUrl(apiArticle.url);
+                                articleChanges.add(ChangeType.URL_CHANGED);
+                            }
+                            if(!equalOrEmpty(article.getOriginUrl(), apiArticle.originUrl)) {
+                                article.setOriginUrl(apiArticle.originUrl);
+                                articleChanges.add(ChangeType.ORIGIN_URL_CHANGED);
+                            }
+                            if(article.getEstimatedReadingTime() != apiArticle.readingTime) {
+                                article.setEstimatedReadingTime(apiArticle.readingTime);
+                                articleChanges.add(ChangeType.ESTIMATED_READING_TIME_CHANGED);
+                            }
+                            if(!equalOrEmpty(article.getLanguage(), apiArticle.language)) {
+                                article.setLanguage(apiArticle.language);
+                                articleChanges.add(ChangeType.LANGUAGE_CHANGED);
+                            }
+                            if(!equalOrEmpty(article.getPreviewPictureURL(), apiArticle.previewPicture)) {
+                                article.setPreviewPictureURL(apiArticle.previewPicture);
+                                articleChanges.add(ChangeType.PREVIEW_PICTURE_URL_CHANGED);
+                            }
+                            if(!equalOrEmpty(article.getAuthors(), formatAuthors(apiArticle.authors))) {
+                                article.setAuthors(formatAuthors(apiArticle.authors));
+                                articleChanges.add(ChangeType.AUTHORS_CHANGED);
+                            }
+                            if(article.getCreationDate().getTime() != apiArticle.createdAt.getTime()) {
+                                article.setCreationDate(apiArticle.createdAt);
+                                articleChanges.add(ChangeType.CREATED_DATE_CHANGED);
+                            }
+                            if(article.getUpdateDate().getTime() != apiArticle.updatedAt.getTime()) {
+                                article.setUpdateDate(apiArticle.updatedAt);
+                                articleChanges.add(ChangeType.UPDATED_DATE_CHANGED);
+                            }
+                            if(!Objects.equals(article.getPublishedAt(), apiArticle.publishedAt)) {
+                                article.setPublishedAt(apiArticle.publishedAt);
+                                articleChanges.add(ChangeType.PUBLISHED_AT_CHANGED);
+                            }
+                            if(!Objects.equals(article.getStarredAt(), apiArticle.starredAt)) {
+                                article.setStarredAt(apiArticle.starredAt);
+                                articleChanges.add(ChangeType.STARRED_AT_CHANGED);
+                            }
+                            if(!Objects.equals(article.getIsPublic(), apiArticle.isPublic)) {
+                                article.setIsPublic(apiArticle.isPublic);
+                                articleChanges.add(ChangeType.IS_PUBLIC_CHANGED);
+                            }
+                            if(!equalOrEmpty(article.getPublicUid(), apiArticle.publicUid)) {
+                                article.setPublicUid(apiArticle.publicUid);
+                                articleChanges.add(ChangeType.PUBLIC_UID_CHANGED);
+                            }
+                            if(article.getArchive() != apiArticle.archived) {
+                                article.setArchive(apiArticle.archived);
+                                articleChanges.add(apiArticle.archived
+                                        ? ChangeType.ARCHIVED
+                                        : ChangeType.UNARCHIVED);
+                            }
+                            if(article.getFavorite() != apiArticle.starred) {
+                                article.setFavorite(apiArticle.starred);
+                                articleChanges.add(apiArticle.starred
+                                        ? ChangeType.FAVORITED
+                                        : ChangeType.UNFAVORITED);
+                            }
 
-                if(existing) {
-                    if(!equalOrEmpty(article.getContent(), apiArticle.content)) {
-                        article.setContent(apiArticle.content);
-                        articleContentToUpdate.add(article.getArticleContent());
-                        articleChanges.add(ChangeType.CONTENT_CHANGED);
-                    }
-                    if(!equalOrEmpty(article.getTitle(), unescapeHtml(apiArticle.title))) {
-                        article.setTitle(unescapeHtml(apiArticle.title));
-                        articleChanges.add(ChangeType.TITLE_CHANGED);
-                    }
-                    if(!equalOrEmpty(article.getDomain(), apiArticle.domainName)) {
-                        article.setDomain(apiArticle.domainName);
-                        articleChanges.add(ChangeType.DOMAIN_CHANGED);
-                    }
-                    if(!equalOrEmpty(article.getUrl(), apiArticle.url)) {
-                        article.setUrl(apiArticle.url);
-                        articleChanges.add(ChangeType.URL_CHANGED);
-                    }
-                    if(!equalOrEmpty(article.getOriginUrl(), apiArticle.originUrl)) {
-                        article.setOriginUrl(apiArticle.originUrl);
-                        articleChanges.add(ChangeType.ORIGIN_URL_CHANGED);
-                    }
-                    if(article.getEstimatedReadingTime() != apiArticle.readingTime) {
-                        article.setEstimatedReadingTime(apiArticle.readingTime);
-                        articleChanges.add(ChangeType.ESTIMATED_READING_TIME_CHANGED);
-                    }
-                    if(!equalOrEmpty(article.getLanguage(), apiArticle.language)) {
-                        article.setLanguage(apiArticle.language);
-                        articleChanges.add(ChangeType.LANGUAGE_CHANGED);
-                    }
-                    if(!equalOrEmpty(article.getPreviewPictureURL(), apiArticle.previewPicture)) {
-                        article.setPreviewPictureURL(apiArticle.previewPicture);
-                        articleChanges.add(ChangeType.PREVIEW_PICTURE_URL_CHANGED);
-                    }
-                    if(!equalOrEmpty(article.getAuthors(), formatAuthors(apiArticle.authors))) {
-                        article.setAuthors(formatAuthors(apiArticle.authors));
-                        articleChanges.add(ChangeType.AUTHORS_CHANGED);
-                    }
-                    if(article.getCreationDate().getTime() != apiArticle.createdAt.getTime()) {
-                        article.setCreationDate(apiArticle.createdAt);
-                        articleChanges.add(ChangeType.CREATED_DATE_CHANGED);
-                    }
-                    if(article.getUpdateDate().getTime() != apiArticle.updatedAt.getTime()) {
-                        article.setUpdateDate(apiArticle.updatedAt);
-                        articleChanges.add(ChangeType.UPDATED_DATE_CHANGED);
-                    }
-                    if(!Objects.equals(article.getPublishedAt(), apiArticle.publishedAt)) {
-                        article.setPublishedAt(apiArticle.publishedAt);
-                        articleChanges.add(ChangeType.PUBLISHED_AT_CHANGED);
-                    }
-                    if(!Objects.equals(article.getStarredAt(), apiArticle.starredAt)) {
-                        article.setStarredAt(apiArticle.starredAt);
-                        articleChanges.add(ChangeType.STARRED_AT_CHANGED);
-                    }
-                    if(!Objects.equals(article.getIsPublic(), apiArticle.isPublic)) {
-                        article.setIsPublic(apiArticle.isPublic);
-                        articleChanges.add(ChangeType.IS_PUBLIC_CHANGED);
-                    }
-                    if(!equalOrEmpty(article.getPublicUid(), apiArticle.publicUid)) {
-                        article.setPublicUid(apiArticle.publicUid);
-                        articleChanges.add(ChangeType.PUBLIC_UID_CHANGED);
-                    }
-                    if(article.getArchive() != apiArticle.archived) {
-                        article.setArchive(apiArticle.archived);
-                        articleChanges.add(apiArticle.archived
-                                ? ChangeType.ARCHIVED
-                                : ChangeType.UNARCHIVED);
-                    }
-                    if(article.getFavorite() != apiArticle.starred) {
-                        article.setFavorite(apiArticle.starred);
-                        articleChanges.add(apiArticle.starred
-                                ? ChangeType.FAVORITED
-                                : ChangeType.UNFAVORITED);
-                    }
+                            if(contentDeferred && !article.isContentPending()
+                                    && articleChanges.contains(ChangeType.UPDATED_DATE_CHANGED)) {
+                                // the content may have changed as well;
+                                // the stored content is kept until the new one is fetched
+                                article.setContentDownloaded(false);
+                                contentDigestUpdated = true;
+                            }
+
+                            if(articleChanges.contains(ChangeType.CONTENT_CHANGED)
+                                    || articleChanges.contains(ChangeType.PREVIEW_PICTURE_URL_CHANGED)) {
 
-                    if(articleChanges.contains(ChangeType.CONTENT_CHANGED)
-                            || articleChanges.contains(ChangeType.PREVIEW_PICTURE_URL_CHANGED)) {
+                                if(article.getImagesDownloaded() != null && article.getImagesDownloaded()) {
+                                    articleChanges.add(ChangeType.FETCHED_IMAGES_CHANGED);
+                                }
 
-                        if(article.getImagesDownloaded() != null && article.getImagesDownloaded()) {
-                            articleChanges.add(ChangeType.FETCHED_IMAGES_CHANGED);
+                                article.setImagesDownloaded(false);
+                            }
                         }
 
-                        article.setImagesDownloaded(false);
-                    }
-                }
+                        fixArticleNullValues(article);
+
+                        if(full) article.setSyncGeneration(syncGeneration);
 
-                fixArticleNullValues(article);
+                        boolean tagsChanged = false;
 
-                List<Tag> articleTags;
-                if(existing) {
-                    articleTags = article.getTags();
-                    List<Tag> tagJoinsToRemove = null;
+                        List<Tag> articleTags;
+                        presentTags.clear();
+                        if(existing) {
+                            articleTags = article.getTags();
 
-                    for(Tag tag: articleTags) {
-                        boolean found;
-                        if(tag.getTagId() != null) {
-                            found = findApiTagByID(tag.getTagId(), apiArticle.tags) != null;
+                            apiTagIds.clear();
+                            apiTagLabels.clear();
+                            for(wallabag.apiwrapper.models.Tag apiTag: apiArticle.tags) {
+                                apiTagIds.add(apiTag.id);
+                                apiTagLabels.add(apiTag.label);
+                            }
+
+                            for(Iterator<Tag> it = articleTags.iterator(); it.hasNext(); ) {
+                                Tag tag = it.next();
+
+                                boolean found = tag.getTagId() != null
+                                        ? apiTagIds.contains(tag.getTagId())
+                                        : apiTagLabels.contains(tag.getLabel());
+
+                                if(found) {
+                                    presentTags.add(tag);
+                                } else {
+                                    it.remove();
+                                    Long joinId = localTagJoins.get(
+                                            new Pair<>(article.getId(), tag.getId()));
+                                    if(joinId != null) articleTagJoinsToRemove.add(joinId);
+                                    tagsChanged = true;
+                                }
+                            }
                         } else {
-                            found = findApiTagByLabel(tag.getLabel(), apiArticle.tags) != null;
+                            articleTags = new ArrayList<>(apiArticle.tags.size());
+                            article.setTags(articleTags);
                         }
 
-                        if(!found) {
-                            if(tagJoinsToRemove == null) tagJoinsToRemove = new ArrayList<>();
+                        if(!apiArticle.tags.isEmpty()) {
+                            List<Tag> tagJoinsToInsert = new ArrayList<>(apiArticle.tags.size());
 
-                            tagJoinsToRemove.add(tag);
-                        }
-                    }
+                            for(wallabag.apiwrapper.models.Tag apiTag: apiArticle.tags) {
+                                Tag tag = tagIdMap.get(apiTag.id);
 
-                    if(tagJoinsToRemove != null && !tagJoinsToRemove.isEmpty()) {
-                        articleTags.removeAll(tagJoinsToRemove);
-                        articleTagJoinsToRemove.put(article, tagJoinsToRemove);
-                    }
-                } else {
-                    articleTags = new ArrayList<>(apiArticle.tags.size());
-                    article.setTags(articleTags);
-                }
+                                if(tag == null) {
+                                    tag = tagLabelMap.get(apiTag.label);
 
-                if(!apiArticle.tags.isEmpty()) {
-                    List<Tag> tagJoinsToInsert = new ArrayList<>(apiArticle.tags.size());
+                                    if(tag == null) {
+                                        tag = new Tag(null, apiTag.id, apiTag.label);
 
-                    for(wallabag.apiwrapper.models.Tag apiTag: apiArticle.tags) {
-                        Tag tag = tagIdMap.get(apiTag.id);
+                                        tagIdMap.put(tag.getTagId(), tag);
 
-                        if(tag == null) {
-                            tag = tagLabelMap.get(apiTag.label);
+                                        tagsToInsert.add(tag);
+                                    } else {
+                                        tag.setTagId(apiTag.id);
 
-                            if(tag == null) {
-                                tag = new Tag(null, apiTag.id, apiTag.label);
+                                        tagIdMap.put(tag.getTagId(), tag);
+                                        tagLabelMap.remove(tag.getLabel());
 
-                                tagIdMap.put(tag.getTagId(), tag);
+                                        tagsToUpdate.add(tag);
+                                    }
+                                } else if(!TextUtils.equals(tag.getLabel(), apiTag.label)) {
+                                    Log.w(TAG, String.format("performUpdate() tag label mismatch: " +
+                                            "tag ID: %s, local label: %s, remote label: %s",
+                                            tag.getId(), tag.getLabel(), apiTag.label));
 
-                                tagsToInsert.add(tag);
-                            } else {
-                                tag.setTagId(apiTag.id);
+                                    tag.setLabel(apiTag.label);
 
-                                tagIdMap.put(tag.getTagId(), tag);
-                                tagLabelMap.remove(tag.getLabel());
+                                    tagsToUpdate.add(tag);
+                                    tagsChanged = true;
+                                }
 
-                                tagsToUpdate.add(tag);
+                                if(presentTags.add(tag)) {
+                                    articleTags.add(tag);
+                                    tagJoinsToInsert.add(tag);
+                                }
                             }
-                        } else if(!TextUtils.equals(tag.getLabel(), apiTag.label)) {
-                            Log.w(TAG, String.format("performUpdate() tag label mismatch: " +
-                                    "tag ID: %s, local label: %s, remote label: %s",
-                                    tag.getId(), tag.getLabel(), apiTag.label));
-
-                            tag.setLabel(apiTag.label);
 
-                            tagsToUpdate.add(tag);
+                            if(!tagJoinsToInsert.isEmpty()) {
+                                articleTagJoinsToInsert.put(article, tagJoinsToInsert);
+                                tagsChanged = true;
+                            }
                         }
 
-                        if(!articleTags.contains(tag)) {
-                            articleTags.add(tag);
-                            tagJoinsToInsert.add(tag);
+                        // annotations that are left in the map are new
+                        apiAnnotationMap.clear();
+                        for(wallabag.apiwrapper.models.Annotation apiAnnotation: apiArticle.annotations) {
+                            apiAnnotationMap.put(apiAnnotation.id, apiAnnotation);
                         }
-                    }
 
-                    if(!tagJoinsToInsert.isEmpty()) {
-                        articleTagJoinsToInsert.put(article, tagJoinsToInsert);
-                    }
-                }
+                        if (existing) {
+                            List<Annotation> annotations = article.getAnnotations();
+                            List<Annotation> aToRemove = null;
 
-                processedApiAnnotations.clear();
+                            for (Annotation annotation : annotations) {
+                                wallabag.apiwrapper.models.Annotation apiAnnotation
+                                        = annotation.getAnnotationId() != null
+                                        ? apiAnnotationMap.remove(annotation.getAnnotationId())
+                                        : null;
 
-                if (existing) {
-                    List<Annotation> annotations = article.getAnnotations();
-                    List<Annotation> aToRemove = null;
+                                if (apiAnnotation == null) {
+                                    if (aToRemove == null) aToRemove = new ArrayList<>();
+                                    aToRemove.add(annotation);
+                                } else {
 
-                    for (Annotation annotation : annotations) {
-                        wallabag.apiwrapper.models.Annotation apiAnnotation
-                                = findApiAnnotation(annotation.getAnnotationId(), apiArticle.annotations);
+                                    boolean annotationChanged = false;
+
+                                    if (!equalOrEmpty(annotation.getText(), apiAnnotation.text)) {
+                                        annotation.setText(apiAnnotation.text);
+                                        annotationChanged = true;
+                                    }
+                                    if (!equalOrEmpty(annotation.getQuote(), apiAnnotation.quote)) {
+                                        annotation.setQuote(apiAnnotation.quote);
+                                        annotationChanged = true;
+                                    }
+                                    if (!Objects.equals(annotation.getCreatedAt(), apiAnnotation.createdAt)) {
+                                        annotation.setCreatedAt(apiAnnotation.createdAt);
+                                        annotationChanged = true;
+                                    }
+                                    if (!Objects.equals(annotation.getUpdatedAt(), apiAnnotation.updatedAt)) {
+                                        annotation.setUpdatedAt(apiAnnotation.updatedAt);
+                                        annotationChanged = true;
+                                    }
+                                    if (!equalOrEmpty(annotation.getAnnotatorSchemaVersion(), apiAnnotation.annotatorSchemaVersion)) {
+                                        annotation.setAnnotatorSchemaVersion(apiAnnotation.annotatorSchemaVersion);
+                                        annotationChanged = true;
+                                    }
+
+                                    if (annotationChanged) {
+                                        annotationsToUpdate.add(annotation);
+                                        annotationsChanged = true;
+                                    }
+
+                                    // ranges that are left in the map are new
+                                    apiRangeMap.clear();
+                                    for (wallabag.apiwrapper.models.Annotation.Range apiRange : apiAnnotation.ranges) {
+                                        apiRangeMap.put(getRangeKey(apiRange.start, apiRange.end,
+                                                apiRange.startOffset, apiRange.endOffset), apiRange);
+                                    }
+
+                                    List<AnnotationRange> rToRemove = null;
+                                    for (AnnotationRange range : annotation.getRanges()) {
+                                        wallabag.apiwrapper.models.Annotation.Range apiRange
+                                                = apiRangeMap.remove(getRangeKey(range.getStart(), range.getEnd(),
+                                                range.getStartOffset(), range.getEndOffset()));
+                                        if (apiRange == null) {
+                                            if (rToRemove == null)
+                                                rToRemove = new ArrayList<>(annotation.getRanges().size());
+                                            rToRemove.add(range);
+                                        }
+                                    }
+                                    for (wallabag.apiwrapper.models.Annotation.Range apiRange : apiRangeMap.values()) {
+                                        AnnotationRange range = new AnnotationRange(null, annotation.getId(),
+                                                apiRange.start, apiRange.end, apiRange.startOffset, apiRange.endOffset);
+                                        annotation.getRanges().add(range);
+                                        annotationRangesToInsert.add(new Pair<>(null, range));
+                                        annotationsChanged = true;
+                                    }
+
+                                    if (rToRemove != null) {
+                                        for (AnnotationRange range : rToRemove) {
+                                            annotationRangesToRemove.add(range.getId());
+                                        }
+                                        annotation.getRanges().removeAll(rToRemove);
+                                        annotationsChanged = true;
+                                    }
+                                }
+                            }
 
-                        if (apiAnnotation == null) {
-                            if (aToRemove == null) aToRemove = new ArrayList<>();
-                            aToRemove.add(annotation);
+                            if (aToRemove != null) {
+                                for (Annotation annotation : aToRemove) {
+                                    for (AnnotationRange range : annotation.getRanges()) {
+                                        annotationRangesToRemove.add(range.getId());
+                                    }
+                                    annotationsToRemove.add(annotation.getId());
+                                }
+                                annotations.removeAll(aToRemove);
+                                annotationsChanged = true;
+                            }
                         } else {
-                            processedApiAnnotations.add(apiAnnotation);
+                            article.setAnnotations(new ArrayList<>(apiArticle.annotations.size()));
+                        }
 
-                            boolean annotationChanged = false;
+                        for (wallabag.apiwrapper.models.Annotation apiAnnotation : apiAnnotationMap.values()) {
 
-                            if (!equalOrEmpty(annotation.getText(), apiAnnotation.text)) {
-                                annotation.setText(apiAnnotation.text);
-                                annotationChanged = true;
-                            }
-                            if (!equalOrEmpty(annotation.getQuote(), apiAnnotation.quote)) {
-                                annotation.setQuote(apiAnnotation.quote);
-                                annotationChanged = true;
-                            }
-                            if (!Objects.equals(annotation.getCreatedAt(), apiAnnotation.createdAt)) {
-                                annotation.setCreatedAt(apiAnnotation.createdAt);
-                                annotationChanged = true;
-                            }
-                            if (!Objects.equals(annotation.getUpdatedAt(), apiAnnotation.updatedAt)) {
-                                annotation.setUpdatedAt(apiAnnotation.updatedAt);
-                                annotationChanged = true;
-                            }
-                            if (!equalOrEmpty(annotation.getAnnotatorSchemaVersion(), apiAnnotation.annotatorSchemaVersion)) {
-                                annotation.setAnnotatorSchemaVersion(apiAnnotation.annotatorSchemaVersion);
-                                annotationChanged = true;
-                            }
+                            Annotation annotation = new Annotation(null, apiAnnotation.id,
+                                    article.getId(), apiAnnotation.text, apiAnnotation.quote,
+                                    apiAnnotation.createdAt, apiAnnotation.updatedAt,
+                                    apiAnnotation.annotatorSchemaVersion);
 
-                            if (annotationChanged) {
-                                annotationsToUpdate.add(annotation);
-                                annotationsChanged = true;
-                            }
+                            annotationsToInsert.add(new Pair<>(existing ? null : article, annotation));
+                            article.getAnnotations().add(annotation);
 
-                            presentApiAnnotationRanges.clear();
-                            List<AnnotationRange> rToRemove = null;
-                            for (AnnotationRange range : annotation.getRanges()) {
-                                wallabag.apiwrapper.models.Annotation.Range apiRange
-                                        = findApiAnnotationRange(range, apiAnnotation.ranges);
-                                if (apiRange == null) {
-                                    if (rToRemove == null)
-                                        rToRemove = new ArrayList<>(annotation.getRanges().size());
-                                    rToRemove.add(range);
-                                } else {
-                                    presentApiAnnotationRanges.add(apiRange);
-                                }
-                            }
                             for (wallabag.apiwrapper.models.Annotation.Range apiRange : apiAnnotation.ranges) {
-                                if (presentApiAnnotationRanges.contains(apiRange)) continue;
-
-                                AnnotationRange range = new AnnotationRange(null, annotation.getId(),
+                                AnnotationRange range = new AnnotationRange(null, null,
                                         apiRange.start, apiRange.end, apiRange.startOffset, apiRange.endOffset);
-                                annotation.getRanges().add(range);
-                                annotationRangesToInsert.add(new Pair<>(null, range));
-                                annotationsChanged = true;
+                                annotationRangesToInsert.add(new Pair<>(annotation, range));
                             }
 
-                            if (rToRemove != null) {
-                                annotationRangesToRemove.addAll(rToRemove);
-                                annotation.getRanges().removeAll(rToRemove);
-                                annotationsChanged = true;
+                            annotationsChanged = true;
+                        }
+
+                        if(apiArticle.updatedAt.getTime() > latestUpdatedItemTimestamp) {
+                            latestUpdatedItemTimestamp = apiArticle.updatedAt.getTime();
+                        }
+
+                        if(!articleChanges.isEmpty() || contentDigestUpdated) {
+                            (existing ? articlesToUpdate : articlesToInsert).add(article);
+                        } else {
+                            Log.d(TAG, "performUpdate() article wasn't changed");
+
+                            if(full) articlesToMark.add(article.getId());
+                        }
+
+                        if(tagsChanged) {
+                            articleChanges.add(ChangeType.TAGS_CHANGED);
+                        }
+
+                        if (annotationsChanged) {
+                            articleChanges.add(ChangeType.ANNOTATIONS_CHANGED);
+                        }
+
+                        if(!articleChanges.isEmpty()) {
+                            Log.d(TAG, "performUpdate() articleChanges: " + articleChanges);
+
+                            if(event != null) {
+                                event.addArticleChangeWithoutObject(article, articleChanges);
                             }
                         }
                     }
 
-                    if (aToRemove != null) {
-                        for (Annotation annotation : aToRemove) {
-                            annotationRangesToRemove.addAll(annotation.getRanges());
-                        }
-                        annotationsToRemove.addAll(aToRemove);
-                        annotations.removeAll(aToRemove);
-                        annotationsChanged = true;
+                    writeStart = System.nanoTime();
+                    syncStats.addTime(SyncStats.Phase.DIFFING, writeStart - diffStart);
+
+                    syncStats.addUpdated(articlesToUpdate.size());
+                    syncStats.addInserted(articlesToInsert.size());
+
+                    if(!articlesToUpdate.isEmpty()) {
+                        Log.v(TAG, "performUpdate() performing articleDao.updateInTx()");
+                        articleDao.updateInTx(articlesToUpdate);
+                        Log.v(TAG, "performUpdate() done articleDao.updateInTx()");
+
+                        articlesToUpdate.clear();
                     }
-                } else {
-                    article.setAnnotations(new ArrayList<>(apiArticle.annotations.size()));
-                }
 
-                for (wallabag.apiwrapper.models.Annotation apiAnnotation : apiArticle.annotations) {
-                    if (processedApiAnnotations.contains(apiAnnotation)) continue;
+                    if(!articleContentToUpdate.isEmpty()) {
+                        Log.v(TAG, "performUpdate() performing articleContentDao.updateInTx()");
+                        long ftsStart = System.nanoTime();
+                        articleContentDao.updateInTx(articleContentToUpdate);
+                        ftsNanos += System.nanoTime() - ftsStart;
+                        Log.v(TAG, "performUpdate() done articleContentDao.updateInTx()");
+
+                        articleContentToUpdate.clear();
+                    }
+
+                    if(!articlesToInsert.isEmpty()) {
+                        Log.v(TAG, "performUpdate() performing articleDao.insertInTx()");
+                        articleDao.insertInTx(articlesToInsert);
+                        Log.v(TAG, "performUpdate() done articleDao.insertInTx()");
+
+                        for (Article article : articlesToInsert) {
+                            ArticleContent content = article.getArticleContent();
+                            content.setId(article.getId());
+                            articleContentToInsert.add(content);
+                        }
 
-                    Annotation annotation = new Annotation(null, apiAnnotation.id,
-                            article.getId(), apiAnnotation.text, apiAnnotation.quote,
-                            apiAnnotation.createdAt, apiAnnotation.updatedAt,
-                            apiAnnotation.annotatorSchemaVersion);
+                        articlesToInsert.clear();
+                    }
 
-                    annotationsToInsert.add(new Pair<>(existing ? null : article, annotation));
-                    article.getAnnotations().add(annotation);
+                    if(!articleContentToInsert.isEmpty()) {
+                        Log.v(TAG, "performUpdate() performing articleContentDao.insertInTx()");
+                        long ftsStart = System.nanoTime();
+                        articleContentDao.insertInTx(articleContentToInsert);
+                        ftsNanos += System.nanoTime() - ftsStart;
+                        Log.v(TAG, "performUpdate() done articleContentDao.insertInTx()");
 
-                    for (wallabag.apiwrapper.models.Annotation.Range apiRange : apiAnnotation.ranges) {
-                        AnnotationRange range = new AnnotationRange(null, null,
-                                apiRange.start, apiRange.end, apiRange.startOffset, apiRange.endOffset);
-                        annotationRangesToInsert.add(new Pair<>(annotation, range));
+                        articleContentToInsert.clear();
                     }
 
-                    annotationsChanged = true;
-                }
+                    if(!tagsToUpdate.isEmpty()) {
+                        Log.v(TAG, "performUpdate() performing tagDao.updateInTx()");
+                        tagDao.updateInTx(tagsToUpdate);
+                        Log.v(TAG, "performUpdate() done tagDao.updateInTx()");
 
-                if(apiArticle.updatedAt.getTime() > latestUpdatedItemTimestamp) {
-                    latestUpdatedItemTimestamp = apiArticle.updatedAt.getTime();
-                }
+                        tagsToUpdate.clear();
+                    }
 
-                if(!articleChanges.isEmpty()) {
-                    (existing ? articlesToUpdate : articlesToInsert).add(article);
-                } else {
-                    Log.d(TAG, "performUpdate() article wasn't changed");
-                }
+                    if(!tagsToInsert.isEmpty()) {
+                        Log.v(TAG, "performUpdate() performing tagDao.insertInTx()");
+                        tagDao.insertInTx(tagsToInsert);
+                        Log.v(TAG, "performUpdate() done tagDao.insertInTx()");
 
-                // TODO: fix - this is incorrect
-                if(!tagsToUpdate.isEmpty() || !tagsToInsert.isEmpty()
-                        || !articleTagJoinsToRemove.isEmpty()
-                        || !articleTagJoinsToInsert.isEmpty()) {
-                    articleChanges.add(ChangeType.TAGS_CHANGED);
-                }
+                        // the joins of later pages are resolved by the new local IDs
+                        for(Tag tag: tagsToInsert) tagMap.put(tag.getId(), tag);
 
-                if (annotationsChanged) {
-                    articleChanges.add(ChangeType.ANNOTATIONS_CHANGED);
-                }
+                        tagsToInsert.clear();
+                    }
 
-                if(!articleChanges.isEmpty()) {
-                    Log.d(TAG, "performUpdate() articleChanges: " + articleChanges);
+                    if(!articleTagJoinsToRemove.isEmpty()) {
+                        Log.v(TAG, "performUpdate() performing article tag joins delete");
+                        deleteByIds(articleTagsJoinDao,
+                                ArticleTagsJoinDao.Properties.Id, articleTagJoinsToRemove);
+                        Log.v(TAG, "performUpdate() done article tag joins delete");
 
-                    if(event != null) {
-                        event.addArticleChangeWithoutObject(article, articleChanges);
+                        articleTagJoinsToRemove.clear();
                     }
-                }
-            }
 
-            if(!articlesToUpdate.isEmpty()) {
-                Log.v(TAG, "performUpdate() performing articleDao.updateInTx()");
-                articleDao.updateInTx(articlesToUpdate);
-                Log.v(TAG, "performUpdate() done articleDao.updateInTx()");
+                    if(!articleTagJoinsToInsert.isEmpty()) {
+                        List<ArticleTagsJoin> joins = new ArrayList<>();
 
-                articlesToUpdate.clear();
-            }
+                        for(Map.Entry<Article, List<Tag>> entry: articleTagJoinsToInsert.entrySet()) {
+                            for(Tag tag: entry.getValue()) {
+                                joins.add(new ArticleTagsJoin(null, entry.getKey().getId(), tag.getId()));
+                            }
+                        }
 
-            if(!articleContentToUpdate.isEmpty()) {
-                Log.v(TAG, "performUpdate() performing articleContentDao.updateInTx()");
-                articleContentDao.updateInTx(articleContentToUpdate);
-                Log.v(TAG, "performUpdate() done articleContentDao.updateInTx()");
+                        articleTagJoinsToInsert.clear();
 
-                articleContentToUpdate.clear();
-            }
+                        Log.v(TAG, "performUpdate() performing articleTagsJoinDao.insertInTx()");
+                        articleTagsJoinDao.insertInTx(joins);
+                        Log.v(TAG, "performUpdate() done articleTagsJoinDao.insertInTx()");
+                    }
 
-            if(!articlesToInsert.isEmpty()) {
-                Log.v(TAG, "performUpdate() performing articleDao.insertInTx()");
-                articleDao.insertInTx(articlesToInsert);
-                Log.v(TAG, "performUpdate() done articleDao.insertInTx()");
+                    if(!annotationRangesToRemove.isEmpty()) {
+                        Log.v(TAG, "performUpdate() performing annotation ranges delete");
+                        deleteByIds(annotationRangeDao,
+                                AnnotationRangeDao.Properties.Id, annotationRangesToRemove);
+                        Log.v(TAG, "performUpdate() done annotation ranges delete");
 
-                for (Article article : articlesToInsert) {
-                    ArticleContent content = article.getArticleContent();
-                    content.setId(article.getId());
-                    articleContentToInsert.add(content);
-                }
+                        annotationRangesToRemove.clear();
+                    }
 
-                articlesToInsert.clear();
-            }
+                    if(!annotationsToRemove.isEmpty()) {
+                        Log.v(TAG, "performUpdate() performing annotations delete");
+                        deleteByIds(annotationDao,
+                                AnnotationDao.Properties.Id, annotationsToRemove);
+                        Log.v(TAG, "performUpdate() done annotations delete");
 
-            if(!articleContentToInsert.isEmpty()) {
-                Log.v(TAG, "performUpdate() performing articleContentDao.insertInTx()");
-                articleContentDao.insertInTx(articleContentToInsert);
-                Log.v(TAG, "performUpdate() done articleContentDao.insertInTx()");
+                        annotationsToRemove.clear();
+                    }
 
-                articleContentToInsert.clear();
-            }
+                    if(!annotationsToUpdate.isEmpty()) {
+                        Log.v(TAG, "performUpdate() performing annotationDao.updateInTx()");
+                        annotationDao.updateInTx(annotationsToUpdate);
+                        Log.v(TAG, "performUpdate() done annotationDao.updateInTx()");
 
-            if(!tagsToUpdate.isEmpty()) {
-                Log.v(TAG, "performUpdate() performing tagDao.updateInTx()");
-                tagDao.updateInTx(tagsToUpdate);
-                Log.v(TAG, "performUpdate() done tagDao.updateInTx()");
+                        annotationsToUpdate.clear();
+                    }
 
-                tagsToUpdate.clear();
-            }
+                    if(!annotationsToInsert.isEmpty()) {
+                        List<Annotation> annotations = new ArrayList<>(annotationsToInsert.size());
 
-            if(!tagsToInsert.isEmpty()) {
-                Log.v(TAG, "performUpdate() performing tagDao.insertInTx()");
-                tagDao.insertInTx(tagsToInsert);
-                Log.v(TAG, "performUpdate() done tagDao.insertInTx()");
+                        for (Pair<Article, Annotation> entry : annotationsToInsert) {
+                            Article article = entry.first;
+                            Annotation annotation = entry.second;
+                            if (article != null) annotation.setArticleId(article.getId());
+                            annotations.add(annotation);
+                        }
 
-                tagsToInsert.clear();
-            }
+                        Log.v(TAG, "performUpdate() performing annotationDao.insertInTx()");
+                        annotationDao.insertInTx(annotations);
+                        Log.v(TAG, "performUpdate() done annotationDao.insertInTx()");
 
-            if(!articleTagJoinsToRemove.isEmpty()) {
-                List<ArticleTagsJoin> joins = new ArrayList<>();
+                        annotationsToInsert.clear();
+                    }
 
-                for(Map.Entry<Article, List<Tag>> entry: articleTagJoinsToRemove.entrySet()) {
-                    List<Long> tagIDsToRemove = new ArrayList<>(entry.getValue().size());
-                    for(Tag tag: entry.getValue()) tagIDsToRemove.add(tag.getId());
+                    if(!annotationRangesToInsert.isEmpty()) {
+                        List<AnnotationRange> ranges = new ArrayList<>(annotationRangesToInsert.size());
 
-                    joins.addAll(articleTagsJoinDao.queryBuilder().where(
-                            ArticleTagsJoinDao.Properties.ArticleId.eq(entry.getKey().getId()),
-                            ArticleTagsJoinDao.Properties.TagId.in(tagIDsToRemove)).list());
-                }
+                        for (Pair<Annotation, AnnotationRange> entry : annotationRangesToInsert) {
+                            Annotation annotation = entry.first;
+                            AnnotationRange range = entry.second;
+                            if (annotation != null) range.setAnnotationId(annotation.getId());
+                            ranges.add(range);
+                        }
 
-                articleTagJoinsToRemove.clear();
+                        Log.v(TAG, "performUpdate() performing annotationRangeDao.insertInTx()");
+                        annotationRangeDao.insertInTx(ranges);
+                        Log.v(TAG, "performUpdate() done annotationRangeDao.insertInTx()");
 
-                Log.v(TAG, "performUpdate() performing articleTagsJoinDao.deleteInTx()");
-                articleTagsJoinDao.deleteInTx(joins);
-                Log.v(TAG, "performUpdate() done articleTagsJoinDao.deleteInTx()");
-            }
+                        annotationRangesToInsert.clear();
+                    }
+
+                    if(!articlesToMark.isEmpty()) {
+                        Log.v(TAG, "performUpdate() marking unchanged articles");
+                        markArticles(articlesToMark, syncGeneration);
+                        Log.v(TAG, "performUpdate() done marking unchanged articles");
+
+                        articlesToMark.clear();
+                    }
 
-            if(!articleTagJoinsToInsert.isEmpty()) {
-                List<ArticleTagsJoin> joins = new ArrayList<>();
+                    sqliteDatabase.setTransactionSuccessful();
+                } finally {
+                    sqliteDatabase.endTransaction();
 
-                for(Map.Entry<Article, List<Tag>> entry: articleTagJoinsToInsert.entrySet()) {
-                    for(Tag tag: entry.getValue()) {
-                        joins.add(new ArticleTagsJoin(null, entry.getKey().getId(), tag.getId()));
+                    if(writeStart != 0) {
+                        // content writes fire the FTS triggers
+                        syncStats.addTime(SyncStats.Phase.FTS, ftsNanos);
+                        syncStats.addTime(SyncStats.Phase.DB_WRITES,
+                                System.nanoTime() - writeStart - ftsNanos);
                     }
                 }
 
-                articleTagJoinsToInsert.clear();
+                if(updateListener != null) {
+                    updateListener.onCheckpoint(new Checkpoint(
+                            full ? UpdateType.FULL : UpdateType.FAST, syncGeneration,
+                            articles.page, articles.total, latestUpdatedItemTimestamp));
 
-                Log.v(TAG, "performUpdate() performing articleTagsJoinDao.insertInTx()");
-                articleTagsJoinDao.insertInTx(joins);
-                Log.v(TAG, "performUpdate() done articleTagsJoinDao.insertInTx()");
+                    updateListener.onProgress(articles.page * perPage, articles.total);
+                }
             }
+        } finally {
+            pageIterator.close();
+        }
 
-            if(!annotationRangesToRemove.isEmpty()) {
-                Log.v(TAG, "performUpdate() performing annotationRangeDao.deleteInTx()");
-                annotationRangeDao.deleteInTx(annotationRangesToRemove);
-                Log.v(TAG, "performUpdate() done annotationRangeDao.deleteInTx()");
+        return latestUpdatedItemTimestamp;
+    }
 
-                annotationRangesToRemove.clear();
-            }
+    /**
+     * Reconciles local tags with the remote ones:
+     * local tags are matched by remote ID first, then by label;
+     * unmatched remote tags are inserted, unmatched local tags are deleted along with their joins.
+     *
+     * @param apiTags remote tags
+     * @param event event to report changes to
+     * @return resulting list of local tags
+     */
+    private List<Tag> syncTags(List<wallabag.apiwrapper.models.Tag> apiTags,
+                               ArticlesChangedEvent event) {
+        TagDao tagDao = daoSession.getTagDao();
 
-            if(!annotationsToRemove.isEmpty()) {
-                Log.v(TAG, "performUpdate() performing annotationDao.deleteInTx()");
-                annotationDao.deleteInTx(annotationsToRemove);
-                Log.v(TAG, "performUpdate() done annotationDao.deleteInTx()");
+        List<Tag> localTags = tagDao.queryBuilder().list();
 
-                annotationsToRemove.clear();
+        Map<Integer, Tag> localTagIdMap = new HashMap<>(localTags.size());
+        Map<String, Tag> localTagLabelMap = new HashMap<>(localTags.size());
+        for(Tag tag: localTags) {
+            if(tag.getTagId() != null) {
+                localTagIdMap.put(tag.getTagId(), tag);
+            } else {
+                localTagLabelMap.put(tag.getLabel(), tag);
             }
+        }
 
-            if(!annotationsToUpdate.isEmpty()) {
-                Log.v(TAG, "performUpdate() performing annotationDao.updateInTx()");
-                annotationDao.updateInTx(annotationsToUpdate);
-                Log.v(TAG, "performUpdate() done annotationDao.updateInTx()");
+        List<Tag> tags = new ArrayList<>(apiTags.size());
+        List<Tag> tagsToUpdate = new ArrayList<>();
+        List<Tag> tagsToInsert = new ArrayList<>();
 
-                annotationsToUpdate.clear();
-            }
+        for(wallabag.apiwrapper.models.Tag apiTag: apiTags) {
+            Tag tag = localTagIdMap.remove(apiTag.id);
 
-            if(!annotationsToInsert.isEmpty()) {
-                List<Annotation> annotations = new ArrayList<>(annotationsToInsert.size());
+            if(tag == null) {
+                tag = localTagLabelMap.remove(apiTag.label);
 
-                for (Pair<Article, Annotation> entry : annotationsToInsert) {
-                    Article article = entry.first;
-                    Annotation annotation = entry.second;
-                    if (article != null) annotation.setArticleId(article.getId());
-                    annotations.add(annotation);
+                if(tag == null) {
+                    tag = new Tag(null, apiTag.id, apiTag.label);
+                    tagsToInsert.add(tag);
+                } else {
+                    tag.setTagId(apiTag.id);
+                    tagsToUpdate.add(tag);
                 }
+            } else if(!TextUtils.equals(tag.getLabel(), apiTag.label)) {
+                tag.setLabel(apiTag.label);
+                tagsToUpdate.add(tag);
+            }
+
+            tags.add(tag);
+        }
+
+        List<Long> tagsToDelete = new ArrayList<>(
+                localTagIdMap.size() + localTagLabelMap.size());
+        for(Tag tag: localTagIdMap.values()) tagsToDelete.add(tag.getId());
+        for(Tag tag: localTagLabelMap.values()) tagsToDelete.add(tag.getId());
+
+        Log.d(TAG, String.format("syncTags() tags to insert: %d, to update: %d, to delete: %d",
+                tagsToInsert.size(), tagsToUpdate.size(), tagsToDelete.size()));
+
+        if(!tagsToUpdate.isEmpty()) tagDao.updateInTx(tagsToUpdate);
+        if(!tagsToInsert.isEmpty()) tagDao.insertInTx(tagsToInsert);
+
+        if(!tagsToDelete.isEmpty()) {
+            daoSession.getArticleTagsJoinDao().queryBuilder()
+                    .where(ArticleTagsJoinDao.Properties.TagId.in(tagsToDelete))
+                    .buildDelete().executeDeleteWithoutDetachingEntities();
+            tagDao.deleteByKeyInTx(tagsToDelete);
+
+            // not worth tracking the affected articles
+            event.invalidateAll(ChangeType.TAGS_CHANGED);
+        }
+
+        return tags;
+    }
+
+    private void markArticles(Collection<Long> articleIds, long syncGeneration) {
+        daoSession.getDatabase().execSQL("update " + ArticleDao.TABLENAME
+                + " set " + ArticleDao.Properties.SyncGeneration.columnName + " = " + syncGeneration
+                + " where " + ArticleDao.Properties.Id.columnName
+                + " in (" + TextUtils.join(",", articleIds) + ")");
+    }
+
+    private void sweepUnmarkedArticles(ArticlesChangedEvent event, long syncGeneration,
+                                       int remoteTotal) {
+        long markedNumber = daoSession.getArticleDao().queryBuilder()
+                .where(ArticleDao.Properties.SyncGeneration.eq(syncGeneration))
+                .count();
+
+        if(markedNumber < remoteTotal) {
+            // some pages were skipped (remote changes during a resumed update?)
+            Log.w(TAG, String.format("sweepUnmarkedArticles() marked: %d, remote total: %d" +
+                    "; skipping sweep", markedNumber, remoteTotal));
+            return;
+        }
+
+        List<Article> articles = daoSession.getArticleDao().queryBuilder()
+                .whereOr(ArticleDao.Properties.SyncGeneration.isNull(),
+                        ArticleDao.Properties.SyncGeneration.notEq(syncGeneration))
+                .list();
+
+        Log.d(TAG, "sweepUnmarkedArticles() articles to delete: " + articles.size());
+
+        if(articles.isEmpty()) return;
 
-                Log.v(TAG, "performUpdate() performing annotationDao.insertInTx()");
-                annotationDao.insertInTx(annotations);
-                Log.v(TAG, "performUpdate() done annotationDao.insertInTx()");
+        List<Long> articleIds = new ArrayList<>(articles.size());
+        for(Article article: articles) {
+            articleIds.add(article.getId());
+
+            event.addArticleChangeWithoutObject(article, ChangeType.DELETED);
+        }
+
+        long start = System.nanoTime();
+        deleteArticles(articleIds);
+        syncStats.addTime(SyncStats.Phase.DB_WRITES, System.nanoTime() - start);
+        syncStats.addDeleted(articleIds.size());
+    }
 
-                annotationsToInsert.clear();
+    /**
+     * Loads local articles corresponding to the provided API articles
+     * along with their tags and annotations (with ranges)
+     * using a fixed number of queries.
+     * The content is not loaded: content changes are detected using the content digest.
+     *
+     * @param apiArticles API articles
+     * @param tagMap all local tags mapped by their local IDs
+     * @return local articles mapped by their remote IDs
+     */
+    private Map<Integer, Article> loadLocalArticles(
+            List<wallabag.apiwrapper.models.Article> apiArticles, Map<Long, Tag> tagMap,
+            Map<Pair<Long, Long>, Long> tagJoins) {
+        tagJoins.clear();
+
+        List<Integer> remoteIds = new ArrayList<>(apiArticles.size());
+        for(wallabag.apiwrapper.models.Article apiArticle: apiArticles) {
+            remoteIds.add(apiArticle.id);
+        }
+
+        List<Article> articles = daoSession.getArticleDao().queryBuilder()
+                .where(ArticleDao.Properties.ArticleId.in(remoteIds)).list();
+
+        Log.v(TAG, String.format("loadLocalArticles() found %d of %d articles",
+                articles.size(), remoteIds.size()));
+
+        if(articles.isEmpty()) return Collections.emptyMap();
+
+        Map<Long, Article> articleMap = new HashMap<>(articles.size());
+        Map<Integer, Article> result = new HashMap<>(articles.size());
+        for(Article article: articles) {
+            articleMap.put(article.getId(), article);
+            result.put(article.getArticleId(), article);
+
+            article.setTags(new ArrayList<Tag>());
+            article.setAnnotations(new ArrayList<Annotation>());
+        }
+
+        Collection<Long> ids = articleMap.keySet();
+
+        for(ArticleTagsJoin join: ArticleTagsJoin.getTagsJoinByArticleQueryBuilder(
+                ids, daoSession.getArticleTagsJoinDao()).list()) {
+            Tag tag = tagMap.get(join.getTagId());
+            if(tag == null) {
+                Log.w(TAG, "loadLocalArticles() tag not found by ID: " + join.getTagId());
+                continue;
             }
 
-            if(!annotationRangesToInsert.isEmpty()) {
-                List<AnnotationRange> ranges = new ArrayList<>(annotationRangesToInsert.size());
+            articleMap.get(join.getArticleId()).getTags().add(tag);
+            tagJoins.put(new Pair<>(join.getArticleId(), join.getTagId()), join.getId());
+        }
 
-                for (Pair<Annotation, AnnotationRange> entry : annotationRangesToInsert) {
-                    Annotation annotation = entry.first;
-                    AnnotationRange range = entry.second;
-                    if (annotation != null) range.setAnnotationId(annotation.getId());
-                    ranges.add(range);
-                }
+        List<Annotation> annotations = Annotation.getAnnotationByArticlesQueryBuilder(
+                ids, daoSession.getAnnotationDao()).list();
 
-                Log.v(TAG, "performUpdate() performing annotationRangeDao.insertInTx()");
-                annotationRangeDao.insertInTx(ranges);
-                Log.v(TAG, "performUpdate() done annotationRangeDao.insertInTx()");
+        if(!annotations.isEmpty()) {
+            Map<Long, Annotation> annotationMap = new HashMap<>(annotations.size());
+            for(Annotation annotation: annotations) {
+                annotationMap.put(annotation.getId(), annotation);
+                annotation.setRanges(new ArrayList<AnnotationRange>());
 
-                annotationRangesToInsert.clear();
+                articleMap.get(annotation.getArticleId()).getAnnotations().add(annotation);
             }
 
-            if(updateListener != null) {
-                updateListener.onProgress(articles.page * perPage, articles.total);
+            for(AnnotationRange range: AnnotationRange.getAnnotationRangesByAnnotationsQueryBuilder(
+                    annotationMap.keySet(), daoSession.getAnnotationRangeDao()).list()) {
+                annotationMap.get(range.getAnnotationId()).getRanges().add(range);
             }
         }
 
-        return latestUpdatedItemTimestamp;
+        return result;
     }
 
     private String formatAuthors(List<String> authorsList) {
@@ -767,47 +1423,30 @@ public class Updater {
         if(article.getPreviewPictureURL() == null) article.setPreviewPictureURL("");
     }
 
-    private wallabag.apiwrapper.models.Tag findApiTagByID(
-            Integer id, List<wallabag.apiwrapper.models.Tag> tags) {
-        for(wallabag.apiwrapper.models.Tag tag: tags) {
-            if(id.equals(tag.id)) return tag;
-        }
-
-        return null;
-    }
-
-    private wallabag.apiwrapper.models.Tag findApiTagByLabel(
-            String label, List<wallabag.apiwrapper.models.Tag> tags) {
-        for(wallabag.apiwrapper.models.Tag tag: tags) {
-            if(TextUtils.equals(tag.label, label)) return tag;
-        }
-
-        return null;
-    }
-
-    private wallabag.apiwrapper.models.Annotation findApiAnnotation(
-            Integer annotationId, List<wallabag.apiwrapper.models.Annotation> annotations) {
-        if (annotationId == null) return null;
-
-        for (wallabag.apiwrapper.models.Annotation annotation : annotations) {
-            if (annotation.id == annotationId) return annotation;
-        }
-
-        return null;
+    /**
+     * Returns a key identifying an annotation range by its value.
+     * {@code null} and empty strings produce equal keys (see {@link #equalOrEmpty}).
+     */
+    private static String getRangeKey(String start, String end, long startOffset, long endOffset) {
+        return (start != null ? start : "") + '\n' + (end != null ? end : "")
+                + '\n' + startOffset + '\n' + endOffset;
     }
 
-    private wallabag.apiwrapper.models.Annotation.Range findApiAnnotationRange(
-            AnnotationRange range, List<wallabag.apiwrapper.models.Annotation.Range> ranges) {
-        for (wallabag.apiwrapper.models.Annotation.Range apiRange : ranges) {
-            if (equalOrEmpty(apiRange.start, range.getStart())
-                    && equalOrEmpty(apiRange.end, range.getEnd())
-                    && apiRange.startOffset == range.getStartOffset()
-                    && apiRange.endOffset == range.getEndOffset()) {
-                return apiRange;
-            }
+    /**
+     * Deletes entities by their IDs using a single statement per chunk.
+     *
+     * @param dao the entity DAO
+     * @param idProperty the ID property
+     * @param ids the IDs to delete
+     */
+    private static <T> void deleteByIds(AbstractDao<T, Long> dao, Property idProperty,
+                                        List<Long> ids) {
+        // SQLite limits the number of bound parameters
+        int chunkSize = 500;
+        for(int i = 0; i < ids.size(); i += chunkSize) {
+            dao.queryBuilder().where(idProperty.in(ids.subList(i, Math.min(i + chunkSize, ids.size()))))
+                    .buildDelete().executeDeleteWithoutDetachingEntities();
         }
-
-        return null;
     }
 
     private void performSweep(ArticlesChangedEvent event, ProgressListener progressListener,
@@ -824,11 +1463,7 @@ public class Updater {
             return;
         }
 
-        int remoteTotal = wallabagService
-                .getArticlesBuilder()
-                .perPage(1)
-                .detailLevel(ArticlesQueryBuilder.DetailLevel.METADATA)
-                .execute().total;
+        int remoteTotal = getRemoteTotal();
 
         Log.d(TAG, String.format("performSweep() local total: %d, remote total: %d",
                 totalNumber, remoteTotal));
@@ -842,80 +1477,302 @@ public class Updater {
             }
         }
 
-        int dbQuerySize = 50;
+        List<Long> articlesToDelete;
+        if(sweepStrategy == SweepStrategy.ID_LISTING) {
+            articlesToDelete = sweepByIdListing(event, progressListener, totalNumber, remoteTotal);
+        } else {
+            articlesToDelete = sweepByUrlExistence(event, progressListener, force,
+                    totalNumber, remoteTotal);
+        }
 
-        QueryBuilder<Article> queryBuilder = articleDao.queryBuilder()
-                .orderDesc(ArticleDao.Properties.ArticleId).limit(dbQuerySize);
+        if(!articlesToDelete.isEmpty()) {
+            Log.d(TAG, String.format("performSweep() deleting %d articles", articlesToDelete.size()));
+
+            long start = System.nanoTime();
+            deleteArticles(articlesToDelete);
+            syncStats.addTime(SyncStats.Phase.DB_WRITES, System.nanoTime() - start);
+            syncStats.addDeleted(articlesToDelete.size());
+        }
+    }
+
+    /**
+     * Checks local articles by URL using the "exists" API,
+     * verifying the articles that are not found by ID.
+     */
+    private List<Long> sweepByUrlExistence(ArticlesChangedEvent event,
+                                           ProgressListener progressListener, boolean force,
+                                           int totalNumber, int remoteTotal)
+            throws UnsuccessfulResponseException, IOException {
+        ArticleDao articleDao = daoSession.getArticleDao();
+
+        int dbQuerySize = 50;
+        int expectedNumber = totalNumber - remoteTotal;
 
         List<Long> articlesToDelete = new ArrayList<>();
 
-        LinkedList<Article> articleQueue = new LinkedList<>();
-        List<Article> addedArticles = new ArrayList<>();
-        BatchExistQueryBuilder existQueryBuilder = null;
+        ExecutorService executor = Executors.newFixedThreadPool(SWEEP_CONCURRENCY);
+        Deque<Future<ExistCheckResult>> pendingChecks = new ArrayDeque<>(SWEEP_CONCURRENCY);
+        int checked = 0;
+        try {
+            List<Article> batch = new ArrayList<>();
+            BatchExistQueryBuilder existQueryBuilder = null;
+
+            Integer lastArticleId = null;
+            boolean done = false;
+            while(!done) {
+                // keyset pagination: doesn't slow down towards the end like `offset` does
+                QueryBuilder<Article> queryBuilder = articleDao.queryBuilder()
+                        .orderDesc(ArticleDao.Properties.ArticleId).limit(dbQuerySize);
+                if(lastArticleId != null) {
+                    queryBuilder.where(ArticleDao.Properties.ArticleId.lt(lastArticleId));
+                }
+
+                List<Article> articles = queryBuilder.list();
+                if(articles.isEmpty()) break;
 
-        int offset = 0;
+                lastArticleId = articles.get(articles.size() - 1).getArticleId();
 
-        while(true) {
-            if(articleQueue.isEmpty()) {
-                Log.d(TAG, String.format("performSweep() %d/%d", offset, totalNumber));
+                for(Article article: articles) {
+                    String url = article.getUrl();
+                    if(TextUtils.isEmpty(url)) {
+                        Log.w(TAG, "performSweep() empty or null URL on article with ArticleID: "
+                                + article.getArticleId());
+                        checked++;
+                        continue;
+                    }
 
-                if(progressListener != null) {
-                    progressListener.onProgress(offset, totalNumber);
+                    if(existQueryBuilder == null) {
+                        existQueryBuilder = wallabagService.getArticlesExistQueryBuilder(7950);
+                    }
+
+                    if(existQueryBuilder.addUrl(url)) {
+                        batch.add(article);
+                        continue;
+                    }
+
+                    if(batch.isEmpty()) {
+                        Log.e(TAG, "performSweep() can't check article with ArticleID: "
+                                + article.getArticleId());
+                        checked++;
+                        continue;
+                    }
+
+                    Log.d(TAG, "performSweep() can't add more articles to query");
+
+                    pendingChecks.add(executor.submit(
+                            createExistCheckTask(existQueryBuilder, batch)));
+                    batch = new ArrayList<>();
+                    existQueryBuilder = wallabagService.getArticlesExistQueryBuilder(7950);
+
+                    if(existQueryBuilder.addUrl(url)) {
+                        batch.add(article);
+                    } else {
+                        Log.e(TAG, "performSweep() can't check article with ArticleID: "
+                                + article.getArticleId());
+                        checked++;
+                    }
+
+                    if(pendingChecks.size() >= SWEEP_CONCURRENCY) {
+                        checked += processExistCheck(pendingChecks.remove(),
+                                event, articlesToDelete);
+
+                        if(progressListener != null) {
+                            progressListener.onProgress(checked, totalNumber);
+                        }
+
+                        if(!force && articlesToDelete.size() >= expectedNumber) {
+                            Log.d(TAG, "performSweep() number of found deleted articles" +
+                                    " >= expected number; finishing sweep");
+                            done = true;
+                            break;
+                        }
+                    }
                 }
+            }
 
-                articleQueue.addAll(queryBuilder.list());
+            if(!done && !batch.isEmpty()) {
+                pendingChecks.add(executor.submit(createExistCheckTask(existQueryBuilder, batch)));
+            }
+
+            while(!done && !pendingChecks.isEmpty()) {
+                checked += processExistCheck(pendingChecks.remove(), event, articlesToDelete);
+
+                if(progressListener != null) {
+                    progressListener.onProgress(checked, totalNumber);
+                }
 
-                offset += dbQuerySize;
-                queryBuilder.offset(offset);
+                if(!force && articlesToDelete.size() >= expectedNumber) {
+                    Log.d(TAG, "performSweep() number of found deleted articles" +
+                            " >= expected number; finishing sweep");
+                    done = true;
+                }
             }
+        } finally {
+            // cancels the checks that are no longer needed
+            executor.shutdownNow();
+        }
 
-            if(articleQueue.isEmpty() && addedArticles.isEmpty()) break;
+        return articlesToDelete;
+    }
+
+    /**
+     * Lists IDs of all remote articles (metadata only) and deletes local articles
+     * which are not in the list and are not found by ID. Costs about
+     * {@code remoteTotal / perPage} requests, a single pass over the local IDs
+     * and a request per local article missing from the list.
+     */
+    private List<Long> sweepByIdListing(ArticlesChangedEvent event,
+                                        ProgressListener progressListener,
+                                        int totalNumber, int remoteTotal)
+            throws UnsuccessfulResponseException, IOException {
+        int perPage = 100;
+
+        // oldest first: articles added during the listing are appended to the end
+        // and don't shift the pages
+        ArticlesQueryBuilder queryBuilder = wallabagService
+                .getArticlesBuilder()
+                .perPage(perPage)
+                .detailLevel(ArticlesQueryBuilder.DetailLevel.METADATA)
+                .sortCriterion(ArticlesQueryBuilder.SortCriterion.CREATED)
+                .sortOrder(ArticlesQueryBuilder.SortOrder.ASCENDING);
 
-            boolean runQuery = true;
+        int[] remoteIds = new int[Math.max(remoteTotal, 16)];
+        int remoteCount = 0;
 
-            while(!articleQueue.isEmpty()) {
-                runQuery = false;
+        PrefetchingPageIterator pageIterator = new PrefetchingPageIterator(
+                queryBuilder.pageIterator(), readAheadPages, syncStats);
+        try {
+            while(pageIterator.hasNext()) {
+                Articles articles = pageIterator.next();
+                syncStats.addPage();
 
-                Article article = articleQueue.element();
+                if(articles.embedded.items.size() > remoteIds.length - remoteCount) {
+                    remoteIds = Arrays.copyOf(remoteIds, Math.max(remoteIds.length * 2,
+                            remoteCount + articles.embedded.items.size()));
+                }
 
-                String url = article.getUrl();
-                if(TextUtils.isEmpty(url)) {
-                    Log.w(TAG, "performSweep() empty or null URL on article with ArticleID: "
-                            + article.getArticleId());
+                for(wallabag.apiwrapper.models.Article apiArticle: articles.embedded.items) {
+                    remoteIds[remoteCount++] = apiArticle.id;
+                }
 
-                    articleQueue.remove();
-                    continue;
+                if(progressListener != null) {
+                    progressListener.onProgress(remoteCount, articles.total + totalNumber);
                 }
+            }
+        } finally {
+            pageIterator.close();
+        }
+
+        int remoteTotalAfter = getRemoteTotal();
+        if(remoteTotalAfter != remoteTotal || remoteCount < remoteTotal) {
+            // deletions during the listing shift the pages, so some IDs could have been skipped
+            Log.w(TAG, String.format("sweepByIdListing() remote articles changed during listing" +
+                            "; total before: %d, after: %d, listed: %d; skipping sweep",
+                    remoteTotal, remoteTotalAfter, remoteCount));
+            return Collections.emptyList();
+        }
+
+        Arrays.sort(remoteIds, 0, remoteCount);
+
+        Log.d(TAG, "sweepByIdListing() listed remote IDs: " + remoteCount);
 
-                if(existQueryBuilder == null) {
-                    existQueryBuilder = wallabagService
-                            .getArticlesExistQueryBuilder(7950);
+        List<Long> notListed = new ArrayList<>();
+
+        Cursor cursor = daoSession.getDatabase().rawQuery("select "
+                + ArticleDao.Properties.Id.columnName + ", "
+                + ArticleDao.Properties.ArticleId.columnName
+                + " from " + ArticleDao.TABLENAME, null);
+        try {
+            while(cursor.moveToNext()) {
+                if(Arrays.binarySearch(remoteIds, 0, remoteCount, cursor.getInt(1)) < 0) {
+                    notListed.add(cursor.getLong(0));
                 }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Log.d(TAG, "sweepByIdListing() articles not found remotely: " + notListed.size());
+
+        List<Article> candidates = new ArrayList<>(notListed.size());
+        // SQLite limits the number of bound parameters
+        int chunkSize = 500;
+        for(int i = 0; i < notListed.size(); i += chunkSize) {
+            candidates.addAll(daoSession.getArticleDao().queryBuilder()
+                    .where(ArticleDao.Properties.Id.in(notListed.subList(
+                            i, Math.min(i + chunkSize, notListed.size()))))
+                    .list());
+        }
 
-                if(existQueryBuilder.addUrl(url)) {
-                    addedArticles.add(article);
-                    articleQueue.remove();
-                } else if(addedArticles.isEmpty()) {
-                    Log.e(TAG, "performSweep() can't check article with ArticleID: "
+        // the listing is not a snapshot: a deletion and an addition during the listing
+        // shift the pages without changing the total, so a live article could be skipped.
+        // The candidates are verified by ID, like in the URL-existence strategy
+        List<Long> articlesToDelete = new ArrayList<>(candidates.size());
+        int progressTotal = remoteCount + totalNumber + candidates.size();
+
+        ExecutorService executor = Executors.newFixedThreadPool(SWEEP_CONCURRENCY);
+        try {
+            List<Future<Boolean>> checks = new ArrayList<>(candidates.size());
+            for(final Article article: candidates) {
+                // we could use `getArticle(int)`, but `getTags()` is lighter
+                checks.add(executor.submit(
+                        () -> wallabagService.getTags(article.getArticleId()) == null));
+            }
+
+            for(int i = 0; i < candidates.size(); i++) {
+                Article article = candidates.get(i);
+
+                if(getCheckResult(checks.get(i))) {
+                    Log.v(TAG, "sweepByIdListing() article not found by ID: "
                             + article.getArticleId());
 
-                    articleQueue.remove();
+                    articlesToDelete.add(article.getId());
+                    event.addArticleChangeWithoutObject(article, ChangeType.DELETED);
                 } else {
-                    Log.d(TAG, "performSweep() can't add more articles to query");
+                    Log.v(TAG, "sweepByIdListing() article found by ID: "
+                            + article.getArticleId());
+                }
 
-                    runQuery = true;
-                    break;
+                if(progressListener != null) {
+                    progressListener.onProgress(remoteCount + totalNumber + i + 1, progressTotal);
                 }
             }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Log.d(TAG, "sweepByIdListing() articles not found by ID: " + articlesToDelete.size());
+
+        if(progressListener != null) {
+            progressListener.onProgress(progressTotal, progressTotal);
+        }
+
+        return articlesToDelete;
+    }
 
-            if(runQuery && existQueryBuilder != null) {
+    private static class ExistCheckResult {
+        final int checkedNumber;
+        final List<Article> deletedArticles;
+
+        ExistCheckResult(int checkedNumber, List<Article> deletedArticles) {
+            this.checkedNumber = checkedNumber;
+            this.deletedArticles = deletedArticles;
+        }
+    }
+
+    private Callable<ExistCheckResult> createExistCheckTask(
+            final BatchExistQueryBuilder existQueryBuilder, final List<Article> articles) {
+        return new Callable<ExistCheckResult>() {
+            @Override
+            public ExistCheckResult call() throws Exception {
                 Log.d(TAG, "performSweep() checking articles; number of articles: "
-                        + addedArticles.size());
+                        + articles.size());
 
-                Map<String, Boolean> articlesMap = existQueryBuilder.execute();
-                existQueryBuilder.reset();
+                Map<String, Boolean> articlesMap
+                        = syncStats.measureApiCall(existQueryBuilder::execute);
 
-                for(Article a: addedArticles) {
+                List<Article> notFound = new ArrayList<>();
+                for(Article a: articles) {
                     Boolean value = articlesMap.get(a.getUrl());
                     Log.v(TAG, String.format("performSweep() articleID: %d, exists: %s",
                             a.getArticleId(), value));
@@ -924,63 +1781,112 @@ public class Updater {
                         Log.v(TAG, String.format("performSweep() article not found remotely" +
                                 "; articleID: %d, article URL: %s", a.getArticleId(), a.getUrl()));
 
-                        Log.v(TAG, "performSweep() trying to find article by ID");
+                        notFound.add(a);
+                    }
+                }
 
-                        // we could use `getArticle(int)`, but `getTags()` is lighter
-                        if(wallabagService.getTags(a.getArticleId()) != null) {
-                            Log.v(TAG, "performSweep() article found by ID");
-                        } else {
-                            Log.v(TAG, "performSweep() article not found by ID");
+                // the URL might have changed, so the candidates are verified by ID.
+                // The API can't check several IDs at once, so it's done here,
+                // concurrently with the other batches
+                List<Article> deleted = new ArrayList<>(notFound.size());
+                for(Article a: notFound) {
+                    if(Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Sweep check interrupted");
+                    }
 
-                            articlesToDelete.add(a.getId());
+                    // we could use `getArticle(int)`, but `getTags()` is lighter
+                    if(wallabagService.getTags(a.getArticleId()) != null) {
+                        Log.v(TAG, "performSweep() article found by ID: " + a.getArticleId());
+                    } else {
+                        Log.v(TAG, "performSweep() article not found by ID: " + a.getArticleId());
 
-                            event.addArticleChangeWithoutObject(a, ChangeType.DELETED);
-                        }
+                        deleted.add(a);
                     }
                 }
 
-                addedArticles.clear();
+                return new ExistCheckResult(articles.size(), deleted);
+            }
+        };
+    }
+
+    private int processExistCheck(Future<ExistCheckResult> future, ArticlesChangedEvent event,
+                                  List<Long> articlesToDelete)
+            throws UnsuccessfulResponseException, IOException {
+        ExistCheckResult result = getCheckResult(future);
 
-                if(articlesToDelete.size() >= totalNumber - remoteTotal) {
-                    Log.d(TAG, "performSweep() number of found deleted articles >= expected number");
+        for(Article a: result.deletedArticles) {
+            articlesToDelete.add(a.getId());
 
-                    if(!force) {
-                        Log.d(TAG, "performSweep() finishing sweep");
-                        break;
-                    }
-                }
+            event.addArticleChangeWithoutObject(a, ChangeType.DELETED);
+        }
+
+        return result.checkedNumber;
+    }
+
+    private static <T> T getCheckResult(Future<T> future)
+            throws UnsuccessfulResponseException, IOException {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a sweep check");
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof UnsuccessfulResponseException) {
+                throw (UnsuccessfulResponseException)cause;
+            }
+            if(cause instanceof IOException) throw (IOException)cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private int getRemoteTotal() throws UnsuccessfulResponseException, IOException {
+        return wallabagService
+                .getArticlesBuilder()
+                .perPage(1)
+                .detailLevel(ArticlesQueryBuilder.DetailLevel.METADATA)
+                .execute().total;
+    }
+
+    private void deleteArticles(List<Long> articleIds) {
+        // SQLite limits the number of bound parameters
+        int chunkSize = 500;
+        if(articleIds.size() > chunkSize) {
+            for(int i = 0; i < articleIds.size(); i += chunkSize) {
+                deleteArticles(articleIds.subList(i, Math.min(i + chunkSize, articleIds.size())));
             }
+            return;
         }
 
-        if(!articlesToDelete.isEmpty()) {
-            Log.d(TAG, String.format("performSweep() deleting %d articles", articlesToDelete.size()));
+        Log.d(TAG, "deleteArticles() deleting related entities");
 
-            Log.d(TAG, "performSweep() deleting related entities");
+        // delete related tag joins
+        ArticleTagsJoin.getTagsJoinByArticleQueryBuilder(
+                articleIds, daoSession.getArticleTagsJoinDao())
+                .buildDelete().executeDeleteWithoutDetachingEntities();
 
-            // delete related tag joins
-            ArticleTagsJoin.getTagsJoinByArticleQueryBuilder(
-                    articlesToDelete, daoSession.getArticleTagsJoinDao())
-                    .buildDelete().executeDeleteWithoutDetachingEntities();
+        Collection<Long> annotationIds = Annotation.getAnnotationIdsByArticleIds(
+                articleIds, daoSession.getAnnotationDao());
 
-            Collection<Long> annotationIds = Annotation.getAnnotationIdsByArticleIds(
-                    articlesToDelete, daoSession.getAnnotationDao());
+        // delete ranges of related annotations
+        AnnotationRange.getAnnotationRangesByAnnotationsQueryBuilder(
+                annotationIds, daoSession.getAnnotationRangeDao())
+                .buildDelete().executeDeleteWithoutDetachingEntities();
 
-            // delete ranges of related annotations
-            AnnotationRange.getAnnotationRangesByAnnotationsQueryBuilder(
-                    annotationIds, daoSession.getAnnotationRangeDao())
-                    .buildDelete().executeDeleteWithoutDetachingEntities();
+        // delete related annotations
+        daoSession.getAnnotationDao().deleteByKeyInTx(annotationIds);
 
-            // delete related annotations
-            daoSession.getAnnotationDao().deleteByKeyInTx(annotationIds);
+        Log.d(TAG, "deleteArticles() performing content delete");
+        daoSession.getArticleContentDao().deleteByKeyInTx(articleIds);
+        Log.d(TAG, "deleteArticles() articles content deleted");
 
-            Log.d(TAG, "performSweep() performing content delete");
-            daoSession.getArticleContentDao().deleteByKeyInTx(articlesToDelete);
-            Log.d(TAG, "performSweep() articles content deleted");
+        Log.d(TAG, "deleteArticles() performing articles delete");
+        daoSession.getArticleDao().deleteByKeyInTx(articleIds);
+        Log.d(TAG, "deleteArticles() articles deleted");
 
-            Log.d(TAG, "performSweep() performing articles delete");
-            articleDao.deleteByKeyInTx(articlesToDelete);
-            Log.d(TAG, "performSweep() articles deleted");
-        }
+        // image references are removed by a trigger
+        ImageStore.scheduleGarbageCollection();
     }
 
 }
@@ -10,15 +10,25 @@ import com.facebook.stetho.okhttp3.StethoInterceptor;
 
 import fr.gaulupeau.apps.Poche.data.Settings;
 import fr.gaulupeau.apps.Poche.network.exceptions.IncorrectConfigurationException;
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.Interceptor;
 import okhttp3.JavaNetCookieJar;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
+import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
 
 import fr.gaulupeau.apps.InThePoche.BuildConfig;
@@ -29,6 +39,15 @@ import wallabag.apiwrapper.models.TokenResponse;
 
 public class WallabagConnection {
 
+    private static final String TAG = WallabagConnection.class.getSimpleName();
+
+    private static final String HTTP_CACHE_DIR = "http";
+    private static final long HTTP_CACHE_SIZE = 50 * 1024 * 1024;
+
+    private static OkHttpClient baseClient;
+    private static Cache httpCache;
+    private static final Object baseClientLock = new Object();
+
     private static WallabagService wallabagService;
     private static final Object wallabagServiceLock = new Object();
 
@@ -91,7 +110,7 @@ public class WallabagConnection {
 
                 return !TextUtils.isEmpty(token.accessToken);
             }
-        }, createClient(false), null);
+        }, getClientBuilder(false).addInterceptor(new SyncStatsInterceptor()).build(), null);
     }
 
     public static boolean isNetworkAvailable() {
@@ -110,8 +129,16 @@ public class WallabagConnection {
         return getClientBuilder(addCookieManager).build();
     }
 
-    private static OkHttpClient.Builder getClientBuilder(boolean addCookieManager) {
-        OkHttpClient.Builder b = new OkHttpClient.Builder()
+    /**
+     * Returns a builder for a client with its own timeouts and interceptors
+     * which shares the connection pool and the dispatcher
+     * with all the other clients of the app.
+     * The client has no HTTP cache: API responses are private and not reusable.
+     *
+     * @see #getCachingClientBuilder()
+     */
+    public static OkHttpClient.Builder getClientBuilder(boolean addCookieManager) {
+        OkHttpClient.Builder b = getBaseClient().newBuilder()
                 .readTimeout(45, TimeUnit.SECONDS);
 
         if(addCookieManager) {
@@ -126,6 +153,103 @@ public class WallabagConnection {
         return b;
     }
 
+    /**
+     * Returns a builder like {@link #getClientBuilder(boolean)} (without cookies)
+     * for a client that uses the shared HTTP cache.
+     * Meant for the images and the other public resources only.
+     */
+    public static OkHttpClient.Builder getCachingClientBuilder() {
+        return getClientBuilder(false).cache(getHttpCache());
+    }
+
+    private static Cache getHttpCache() {
+        synchronized(baseClientLock) {
+            if(httpCache == null) {
+                // the cache revalidates stored responses using ETag and Last-Modified
+                httpCache = new Cache(new File(App.getInstance().getCacheDir(), HTTP_CACHE_DIR),
+                        HTTP_CACHE_SIZE);
+                removeApiResponses(httpCache);
+            }
+            return httpCache;
+        }
+    }
+
+    // API responses were cached by older versions; they hold private content
+    private static void removeApiResponses(Cache cache) {
+        try {
+            Iterator<String> urls = cache.urls();
+            while(urls.hasNext()) {
+                if(urls.next().contains("/api/")) urls.remove();
+            }
+        } catch(IOException e) {
+            Log.w(TAG, "removeApiResponses() couldn't clean up the cache", e);
+        }
+    }
+
+    private static OkHttpClient getBaseClient() {
+        synchronized(baseClientLock) {
+            if(baseClient == null) {
+                baseClient = createBaseClient();
+            }
+            return baseClient;
+        }
+    }
+
+    private static OkHttpClient createBaseClient() {
+        Log.d(TAG, "createBaseClient() creating shared client");
+
+        // sync and image fetching use several connections to the same server at once;
+        // keeping them warm saves TLS handshakes
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(16);
+        dispatcher.setMaxRequestsPerHost(6);
+
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(8, 5, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .build();
+    }
+
+    /**
+     * Records network time and received bytes to the {@linkplain SyncStats#getActive() active}
+     * sync stats. The time of reading the response body is counted as network time too.
+     */
+    private static class SyncStatsInterceptor implements Interceptor {
+        @Override public Response intercept(Chain chain) throws IOException {
+            final SyncStats stats = SyncStats.getActive();
+            if(stats == null) return chain.proceed(chain.request());
+
+            stats.addRequest();
+
+            long start = System.nanoTime();
+            Response response;
+            try {
+                response = chain.proceed(chain.request());
+            } finally {
+                stats.addNetworkTime(System.nanoTime() - start);
+            }
+
+            ResponseBody body = response.body();
+            if(body == null) return response;
+
+            Source countingSource = new ForwardingSource(body.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long readStart = System.nanoTime();
+                    long read = super.read(sink, byteCount);
+                    stats.addNetworkTime(System.nanoTime() - readStart);
+                    if(read > 0) stats.addBytesReceived(read);
+                    return read;
+                }
+            };
+
+            return response.newBuilder()
+                    .body(ResponseBody.create(Okio.buffer(countingSource),
+                            body.contentType(), body.contentLength()))
+                    .build();
+        }
+    }
+
     /**
      * OkHttp Logging interceptor
      * http://stackoverflow.com/a/30625572/1592572
@@ -14,7 +14,8 @@ public class ActionRequest implements Parcelable {
     public enum Action {
         ADD_LINK, ARTICLE_CHANGE, ARTICLE_TAGS_DELETE, ARTICLE_DELETE,
         ANNOTATION_ADD, ANNOTATION_UPDATE, ANNOTATION_DELETE,
-        SYNC_QUEUE, UPDATE_ARTICLES, SWEEP_DELETED_ARTICLES, FETCH_IMAGES, DOWNLOAD_AS_FILE
+        SYNC_QUEUE, UPDATE_ARTICLES, SWEEP_DELETED_ARTICLES, FETCH_IMAGES, DOWNLOAD_AS_FILE,
+        FETCH_CONTENT, PLAN_SYNC
     }
 
     public enum RequestType {
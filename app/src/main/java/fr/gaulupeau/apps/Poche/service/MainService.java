@@ -17,6 +17,7 @@ import java.util.List;
 
 import fr.gaulupeau.apps.Poche.data.QueueHelper;
 import fr.gaulupeau.apps.Poche.data.Settings;
+import fr.gaulupeau.apps.Poche.data.SyncStatsHistory;
 import fr.gaulupeau.apps.Poche.data.dao.AnnotationDao;
 import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
 import fr.gaulupeau.apps.Poche.data.dao.DaoSession;
@@ -28,6 +29,8 @@ import fr.gaulupeau.apps.Poche.data.dao.entities.Tag;
 import fr.gaulupeau.apps.Poche.events.ActionResultEvent;
 import fr.gaulupeau.apps.Poche.events.LinkUploadedEvent;
 import fr.gaulupeau.apps.Poche.events.ArticlesChangedEvent;
+import fr.gaulupeau.apps.Poche.events.FetchContentFinishedEvent;
+import fr.gaulupeau.apps.Poche.events.FetchContentProgressEvent;
 import fr.gaulupeau.apps.Poche.events.OfflineQueueChangedEvent;
 import fr.gaulupeau.apps.Poche.events.SweepDeletedArticlesFinishedEvent;
 import fr.gaulupeau.apps.Poche.events.SweepDeletedArticlesProgressEvent;
@@ -38,6 +41,7 @@ import fr.gaulupeau.apps.Poche.events.SyncQueueStartedEvent;
 import fr.gaulupeau.apps.Poche.events.UpdateArticlesProgressEvent;
 import fr.gaulupeau.apps.Poche.events.UpdateArticlesStartedEvent;
 import fr.gaulupeau.apps.Poche.events.UpdateArticlesFinishedEvent;
+import fr.gaulupeau.apps.Poche.network.SyncStats;
 import fr.gaulupeau.apps.Poche.network.Updater;
 import fr.gaulupeau.apps.Poche.network.WallabagConnection;
 import fr.gaulupeau.apps.Poche.network.exceptions.IncorrectConfigurationException;
@@ -85,15 +89,19 @@ public class MainService extends IntentServiceBase {
             case SYNC_QUEUE: {
                 SyncQueueStartedEvent startEvent = new SyncQueueStartedEvent(actionRequest);
                 postStickyEvent(startEvent);
+                SyncStats stats = startSyncStats("syncQueue");
                 Pair<ActionResult, Long> syncResult = null;
                 try {
                     syncResult = syncOfflineQueue(actionRequest);
                     result = syncResult.first;
                 } finally {
+                    finishSyncStats(stats);
                     removeStickyEvent(startEvent);
                     if(result == null) result = new ActionResult(ActionResult.ErrorType.UNKNOWN);
-                    postEvent(new SyncQueueFinishedEvent(actionRequest, result,
-                            syncResult != null ? syncResult.second : null));
+                    SyncQueueFinishedEvent finishedEvent = new SyncQueueFinishedEvent(
+                            actionRequest, result, syncResult != null ? syncResult.second : null);
+                    finishedEvent.setSyncStats(stats);
+                    postEvent(finishedEvent);
                 }
                 break;
             }
@@ -101,12 +109,17 @@ public class MainService extends IntentServiceBase {
             case UPDATE_ARTICLES: {
                 UpdateArticlesStartedEvent startEvent = new UpdateArticlesStartedEvent(actionRequest);
                 postStickyEvent(startEvent);
+                SyncStats stats = startSyncStats("update." + actionRequest.getUpdateType());
                 try {
-                    result = updateArticles(actionRequest);
+                    result = updateArticles(actionRequest, stats);
                 } finally {
+                    finishSyncStats(stats);
                     removeStickyEvent(startEvent);
                     if(result == null) result = new ActionResult(ActionResult.ErrorType.UNKNOWN);
-                    postEvent(new UpdateArticlesFinishedEvent(actionRequest, result));
+                    UpdateArticlesFinishedEvent finishedEvent
+                            = new UpdateArticlesFinishedEvent(actionRequest, result);
+                    finishedEvent.setSyncStats(stats);
+                    postEvent(finishedEvent);
                 }
                 break;
             }
@@ -115,16 +128,33 @@ public class MainService extends IntentServiceBase {
                 SweepDeletedArticlesStartedEvent startEvent
                         = new SweepDeletedArticlesStartedEvent(actionRequest);
                 postStickyEvent(startEvent);
+                SyncStats stats = startSyncStats("sweep");
                 try {
-                    result = sweepDeletedArticles(actionRequest);
+                    result = sweepDeletedArticles(actionRequest, stats);
                 } finally {
+                    finishSyncStats(stats);
                     removeStickyEvent(startEvent);
                     if(result == null) result = new ActionResult(ActionResult.ErrorType.UNKNOWN);
-                    postEvent(new SweepDeletedArticlesFinishedEvent(actionRequest, result));
+                    SweepDeletedArticlesFinishedEvent finishedEvent
+                            = new SweepDeletedArticlesFinishedEvent(actionRequest, result);
+                    finishedEvent.setSyncStats(stats);
+                    postEvent(finishedEvent);
                 }
                 break;
             }
 
+            case FETCH_CONTENT:
+                try {
+                    result = fetchContent(actionRequest);
+                } finally {
+                    postEvent(new FetchContentFinishedEvent(actionRequest));
+                }
+                break;
+
+            case PLAN_SYNC:
+                result = planSync(actionRequest);
+                break;
+
             default:
                 Log.w(TAG, "Unknown action requested: " + actionRequest.getAction());
                 break;
@@ -509,7 +539,23 @@ public class MainService extends IntentServiceBase {
         return null;
     }
 
-    private ActionResult updateArticles(final ActionRequest actionRequest) {
+    private SyncStats startSyncStats(String operation) {
+        SyncStats stats = new SyncStats(operation);
+        SyncStats.setActive(stats);
+        return stats;
+    }
+
+    private void finishSyncStats(SyncStats stats) {
+        SyncStats.setActive(null);
+        if(updater != null) updater.setSyncStats(null);
+
+        stats.finish();
+        Log.i(TAG, "finishSyncStats() " + stats);
+
+        SyncStatsHistory.append(this, stats);
+    }
+
+    private ActionResult updateArticles(final ActionRequest actionRequest, SyncStats stats) {
         Updater.UpdateType updateType = actionRequest.getUpdateType();
         Log.d(TAG, String.format("updateArticles(%s) started", updateType));
 
@@ -527,6 +573,23 @@ public class MainService extends IntentServiceBase {
                                 actionRequest, current, total));
                     }
 
+                    @Override
+                    public void onCheckpoint(Updater.Checkpoint checkpoint) {
+                        if(checkpoint.getUpdateType() == Updater.UpdateType.FAST) {
+                            settings.setLatestUpdatedItemTimestamp(
+                                    checkpoint.getLatestUpdatedItemTimestamp());
+                        } else {
+                            settings.setUpdateCheckpoint(checkpoint);
+                        }
+                    }
+
+                    @Override
+                    public void onPartialUpdate(ArticlesChangedEvent event) {
+                        Log.d(TAG, "updateArticles() update interrupted, posting committed changes");
+
+                        postEvent(event);
+                    }
+
                     @Override
                     public void onSuccess(long latestUpdatedItemTimestamp) {
                         Log.i(TAG, "updateArticles() update successful, saving timestamps");
@@ -534,11 +597,17 @@ public class MainService extends IntentServiceBase {
                         settings.setLatestUpdatedItemTimestamp(latestUpdatedItemTimestamp);
                         settings.setLatestUpdateRunTimestamp(System.currentTimeMillis());
                         settings.setFirstSyncDone(true);
+                        settings.setUpdateCheckpoint(null);
                     }
                 };
 
-                event = getUpdater().update(updateType,
-                        settings.getLatestUpdatedItemTimestamp(), updateListener);
+                Updater updater = getUpdater();
+                updater.setReadAheadPages(settings.getSyncReadAheadPages());
+                updater.setContentDeferred(settings.isSyncContentDeferred());
+                updater.setSyncStats(stats);
+
+                event = updater.update(updateType, settings.getLatestUpdatedItemTimestamp(),
+                        settings.getUpdateCheckpoint(), updateListener);
             } catch(UnsuccessfulResponseException | IOException e) {
                 ActionResult r = processException(e, "updateArticles()");
                 result.updateWith(r);
@@ -561,7 +630,8 @@ public class MainService extends IntentServiceBase {
         return result;
     }
 
-    private ActionResult sweepDeletedArticles(final ActionRequest actionRequest) {
+    private ActionResult sweepDeletedArticles(final ActionRequest actionRequest,
+                                              SyncStats stats) {
         Log.d(TAG, "sweepDeletedArticles() started");
 
         ActionResult result = new ActionResult();
@@ -573,7 +643,12 @@ public class MainService extends IntentServiceBase {
                         postEvent(new SweepDeletedArticlesProgressEvent(
                                 actionRequest, current, total));
 
-                event = getUpdater().sweepDeletedArticles(progressListener);
+                Updater updater = getUpdater();
+                updater.setReadAheadPages(getSettings().getSyncReadAheadPages());
+                updater.setSweepStrategy(getSettings().getSweepStrategy());
+                updater.setSyncStats(stats);
+
+                event = updater.sweepDeletedArticles(progressListener);
             } catch(UnsuccessfulResponseException | IOException e) {
                 ActionResult r = processException(e, "sweepDeletedArticles()");
                 result.updateWith(r);
@@ -596,6 +671,99 @@ public class MainService extends IntentServiceBase {
         return result;
     }
 
+    private ActionResult planSync(ActionRequest actionRequest) {
+        Log.d(TAG, "planSync() started");
+
+        ActionResult result = new ActionResult();
+
+        if(WallabagConnection.isNetworkAvailable()) {
+            Settings settings = getSettings();
+
+            try {
+                SyncPlanner.Plan plan = new SyncPlanner(getDaoSession(), getWallabagService(),
+                        settings).plan(actionRequest.getUpdateType());
+
+                Log.i(TAG, "planSync() plan: " + plan);
+                settings.setLatestSyncPlan(String.format("%s; queue: %s, sweep: %s: %s",
+                        plan.getDecision(), plan.isSyncQueue(), plan.isSweep(), plan.getReason()));
+
+                if(plan.isNothingToDo()) {
+                    settings.setLatestUpdateRunTimestamp(System.currentTimeMillis());
+                }
+
+                // the chain is started on success, see EventProcessor.onActionResultEvent()
+                actionRequest.setNextRequest(ServiceHelper.getPlannedRequest(settings, plan,
+                        actionRequest.getRequestType() == ActionRequest.RequestType.AUTO,
+                        actionRequest.getOperationID()));
+            } catch(UnsuccessfulResponseException | IOException e) {
+                ActionResult r = processException(e, "planSync()");
+                result.updateWith(r);
+            } catch(Exception e) {
+                Log.e(TAG, "planSync() exception", e);
+
+                result.setErrorType(ActionResult.ErrorType.UNKNOWN);
+                result.setMessage(e.toString());
+                result.setException(e);
+            }
+        } else {
+            result.setErrorType(ActionResult.ErrorType.NO_NETWORK);
+        }
+
+        Log.d(TAG, "planSync() finished");
+        return result;
+    }
+
+    private ActionResult fetchContent(final ActionRequest actionRequest) {
+        boolean priorityOnly = actionRequest.getArticleID() != null;
+        Log.d(TAG, "fetchContent() started; priorityOnly: " + priorityOnly);
+
+        ActionResult result = new ActionResult();
+        ArticlesChangedEvent event = null;
+
+        if(WallabagConnection.isNetworkAvailable()) {
+            try {
+                Updater.ContentListener contentListener = new Updater.ContentListener() {
+                    @Override
+                    public void onProgress(int current, int total) {
+                        postEvent(new FetchContentProgressEvent(actionRequest, current, total));
+                    }
+
+                    @Override
+                    public void onPriorityContentFetched(ArticlesChangedEvent event) {
+                        postEvent(event);
+                    }
+
+                    @Override
+                    public void onPartialContentFetched(ArticlesChangedEvent event) {
+                        Log.d(TAG, "fetchContent() fetching interrupted, posting committed changes");
+
+                        postEvent(event);
+                    }
+                };
+
+                event = getUpdater().fetchContent(priorityOnly, contentListener);
+            } catch(UnsuccessfulResponseException | IOException e) {
+                ActionResult r = processException(e, "fetchContent()");
+                result.updateWith(r);
+            } catch(Exception e) {
+                Log.e(TAG, "fetchContent() exception", e);
+
+                result.setErrorType(ActionResult.ErrorType.UNKNOWN);
+                result.setMessage(e.toString());
+                result.setException(e);
+            }
+        } else {
+            result.setErrorType(ActionResult.ErrorType.NO_NETWORK);
+        }
+
+        if(event != null && event.isAnythingChanged()) {
+            postEvent(event);
+        }
+
+        Log.d(TAG, "fetchContent() finished");
+        return result;
+    }
+
     private Updater getUpdater() throws IncorrectConfigurationException {
         if(updater == null) {
             updater = new Updater(getDaoSession(), getWallabagService());
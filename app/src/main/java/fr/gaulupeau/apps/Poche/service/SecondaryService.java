@@ -16,11 +16,12 @@ import org.greenrobot.greendao.query.QueryBuilder;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
+import fr.gaulupeau.apps.Poche.data.ImageStore;
+import fr.gaulupeau.apps.Poche.data.Settings;
 import fr.gaulupeau.apps.Poche.data.StorageHelper;
 import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
 import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
@@ -32,7 +33,8 @@ import fr.gaulupeau.apps.Poche.events.FeedsChangedEvent;
 import fr.gaulupeau.apps.Poche.events.FetchImagesFinishedEvent;
 import fr.gaulupeau.apps.Poche.events.FetchImagesProgressEvent;
 import fr.gaulupeau.apps.Poche.events.FetchImagesStartedEvent;
-import fr.gaulupeau.apps.Poche.network.ImageCacheUtils;
+import fr.gaulupeau.apps.Poche.network.ImageDownloader;
+import fr.gaulupeau.apps.Poche.network.ImageTranscoder;
 import fr.gaulupeau.apps.Poche.network.WallabagConnection;
 import fr.gaulupeau.apps.Poche.network.WallabagWebService;
 import fr.gaulupeau.apps.Poche.network.exceptions.IncorrectConfigurationException;
@@ -251,7 +253,8 @@ public class SecondaryService extends IntentServiceBase {
         ArticleDao articleDao = getDaoSession().getArticleDao();
 
         QueryBuilder<Article> queryBuilder = articleDao.queryBuilder()
-                .where(ArticleDao.Properties.ImagesDownloaded.eq(false))
+                .where(ArticleDao.Properties.ImagesDownloaded.eq(false),
+                        ArticleDao.Properties.ContentDownloaded.eq(true))
                 .orderAsc(ArticleDao.Properties.ArticleId);
 
         int totalNumber = (int)queryBuilder.count();
@@ -265,50 +268,67 @@ public class SecondaryService extends IntentServiceBase {
         ArticlesChangedEvent event = new ArticlesChangedEvent();
 
         List<Integer> processedArticles = new ArrayList<>(totalNumber);
-        Set<Integer> changedArticles = new HashSet<>(totalNumber);
 
-        int dbQuerySize = 50;
+        postEvent(new FetchImagesProgressEvent(actionRequest, 0, totalNumber));
 
-        queryBuilder.limit(dbQuerySize);
+        Settings settings = getSettings();
+        ImageDownloader downloader = new ImageDownloader(
+                settings.getImageCacheConcurrency(),
+                settings.getImageCachePerHostConcurrency(),
+                ImageTranscoder.fromSettings(this, settings),
+                finished -> postEvent(new FetchImagesProgressEvent(
+                        actionRequest, finished, totalNumber)));
 
-        int offset = 0;
-
-        while(true) {
-            Log.d(TAG, "fetchImages() looping; offset: " + offset);
+        Set<Long> changedArticles;
+        try {
+            int dbQuerySize = 50;
 
-            List<Article> articleList = queryBuilder.list();
+            queryBuilder.limit(dbQuerySize);
 
-            if(articleList.isEmpty()) {
-                Log.d(TAG, "fetchImages() no more articles");
-                break;
-            }
+            int offset = 0;
 
-            int i = 0;
-            for(Article article: articleList) {
-                int index = offset + i++;
-                Log.d(TAG, "fetchImages() processing " + index
-                        + ". articleID: " + article.getArticleId());
-                postEvent(new FetchImagesProgressEvent(actionRequest, index, totalNumber));
+            while(true) {
+                Log.d(TAG, "fetchImages() looping; offset: " + offset);
 
-                String content = article.getContent();
+                List<Article> articleList = queryBuilder.list();
 
-                // append preview picture URL to content to fetch it too
-                // should probably be handled separately
-                if(!TextUtils.isEmpty(article.getPreviewPictureURL())) {
-                    content = "<img src=\"" + article.getPreviewPictureURL() + "\"/>" + content;
+                if(articleList.isEmpty()) {
+                    Log.d(TAG, "fetchImages() no more articles");
+                    break;
                 }
 
-                if(ImageCacheUtils.cacheImages(article.getArticleId().longValue(), content)) {
-                    changedArticles.add(article.getArticleId());
-                }
+                for(Article article: articleList) {
+                    Log.d(TAG, "fetchImages() queueing articleID: " + article.getArticleId());
+
+                    String content = article.getContent();
+
+                    // append preview picture URL to content to fetch it too
+                    // should probably be handled separately
+                    if(!TextUtils.isEmpty(article.getPreviewPictureURL())) {
+                        content = "<img src=\"" + article.getPreviewPictureURL() + "\"/>" + content;
+                    }
+
+                    downloader.addArticle(article, content);
 
-                processedArticles.add(article.getArticleId());
+                    processedArticles.add(article.getArticleId());
+                }
 
-                Log.d(TAG, "fetchImages() processing article " + article.getArticleId() + " finished");
+                offset += dbQuerySize;
+                queryBuilder.offset(offset);
             }
 
-            offset += dbQuerySize;
-            queryBuilder.offset(offset);
+            downloader.awaitCompletion();
+
+            changedArticles = downloader.getChangedArticles();
+
+            // content updates may have left some images unreferenced
+            ImageStore.scheduleGarbageCollection();
+        } catch(InterruptedException e) {
+            Log.w(TAG, "fetchImages() interrupted");
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            downloader.shutdown();
         }
 
         for(Integer articleID: processedArticles) {
@@ -321,7 +341,7 @@ public class SecondaryService extends IntentServiceBase {
                     article.setImagesDownloaded(true);
                     articleDao.update(article);
 
-                    if(changedArticles.contains(articleID)) {
+                    if(changedArticles.contains(articleID.longValue())) {
                         // maybe add another change type for unsuccessful articles?
                         event.addArticleChangeWithoutObject(article,
                                 FeedsChangedEvent.ChangeType.FETCHED_IMAGES_CHANGED);
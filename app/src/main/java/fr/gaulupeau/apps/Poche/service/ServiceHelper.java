@@ -98,7 +98,16 @@ public class ServiceHelper {
                                       boolean auto, Long operationID) {
         Log.d(TAG, "syncAndUpdate() started");
 
-        if(settings != null && settings.isOfflineQueuePending()) {
+        if(auto) {
+            Log.d(TAG, "syncAndUpdate() planning auto-sync");
+
+            ActionRequest request = new ActionRequest(ActionRequest.Action.PLAN_SYNC);
+            request.setUpdateType(updateType);
+            request.setOperationID(operationID);
+            request.setRequestType(ActionRequest.RequestType.AUTO);
+
+            startService(context, request);
+        } else if(settings != null && settings.isOfflineQueuePending()) {
             Log.d(TAG, "syncAndUpdate() running sync and update");
 
             ActionRequest syncRequest = getSyncQueueRequest(auto, false);
@@ -110,6 +119,43 @@ public class ServiceHelper {
         }
     }
 
+    /**
+     * Builds the chain of requests for the plan.
+     *
+     * @return the first request of the chain or {@code null} if there's nothing to do
+     */
+    static ActionRequest getPlannedRequest(Settings settings, SyncPlanner.Plan plan,
+                                           boolean auto, Long operationID) {
+        ActionRequest request;
+        switch(plan.getDecision()) {
+            case FAST:
+                request = getUpdateArticlesRequest(settings, Updater.UpdateType.FAST,
+                        plan.isSweep(), auto, operationID);
+                break;
+
+            case FULL:
+                request = getUpdateArticlesRequest(settings, Updater.UpdateType.FULL,
+                        false, auto, operationID);
+                break;
+
+            case SWEEP:
+                request = getSweepDeletedArticlesRequest(auto, operationID);
+                break;
+
+            default:
+                request = null;
+                break;
+        }
+
+        if(plan.isSyncQueue()) {
+            ActionRequest syncRequest = getSyncQueueRequest(auto, false);
+            syncRequest.setNextRequest(request);
+            request = syncRequest;
+        }
+
+        return request;
+    }
+
     public static void syncQueue(Context context) {
         syncQueue(context, false, false);
     }
@@ -143,15 +189,28 @@ public class ServiceHelper {
     private static ActionRequest getUpdateArticlesRequest(Settings settings,
                                                           Updater.UpdateType updateType,
                                                           boolean auto, Long operationID) {
+        return getUpdateArticlesRequest(settings, updateType,
+                updateType == Updater.UpdateType.FAST && settings.isSweepingAfterFastSyncEnabled(),
+                auto, operationID);
+    }
+
+    private static ActionRequest getUpdateArticlesRequest(Settings settings,
+                                                          Updater.UpdateType updateType,
+                                                          boolean sweep,
+                                                          boolean auto, Long operationID) {
         ActionRequest request = new ActionRequest(ActionRequest.Action.UPDATE_ARTICLES);
         request.setUpdateType(updateType);
         request.setOperationID(operationID);
         if(auto) request.setRequestType(ActionRequest.RequestType.AUTO);
 
-        if(updateType == Updater.UpdateType.FAST && settings.isSweepingAfterFastSyncEnabled()) {
+        if(sweep) {
             request.setNextRequest(getSweepDeletedArticlesRequest(auto, operationID));
         }
 
+        if(settings.isSyncContentDeferred()) {
+            addNextRequest(request, getFetchContentRequest(null));
+        }
+
         if(settings.isImageCacheEnabled()) {
             addNextRequest(request, getFetchImagesRequest());
         }
@@ -196,6 +255,21 @@ public class ServiceHelper {
         return new ActionRequest(ActionRequest.Action.FETCH_IMAGES);
     }
 
+    public static void fetchArticleContent(Context context, int articleID) {
+        Log.d(TAG, "fetchArticleContent() started; articleID: " + articleID);
+
+        Updater.prioritizeContent(articleID);
+
+        startService(context, getFetchContentRequest(articleID));
+    }
+
+    private static ActionRequest getFetchContentRequest(Integer articleID) {
+        ActionRequest request = new ActionRequest(ActionRequest.Action.FETCH_CONTENT);
+        request.setArticleID(articleID);
+
+        return request;
+    }
+
     private static void changeArticle(Context context, int articleID,
                                       QueueItem.ArticleChangeType articleChangeType) {
         Log.d(TAG, "changeArticle() started; articleChangeType: " + articleChangeType);
@@ -225,6 +299,8 @@ public class ServiceHelper {
             case SYNC_QUEUE:
             case UPDATE_ARTICLES:
             case SWEEP_DELETED_ARTICLES:
+            case FETCH_CONTENT:
+            case PLAN_SYNC:
                 startService(context, request, true);
                 break;
 
@@ -0,0 +1,199 @@
+package fr.gaulupeau.apps.Poche.service;
+
+import android.util.Log;
+
+import wallabag.apiwrapper.ArticlesQueryBuilder;
+import wallabag.apiwrapper.WallabagService;
+import wallabag.apiwrapper.exceptions.UnsuccessfulResponseException;
+
+import java.io.IOException;
+
+import fr.gaulupeau.apps.Poche.data.QueueHelper;
+import fr.gaulupeau.apps.Poche.data.Settings;
+import fr.gaulupeau.apps.Poche.data.dao.DaoSession;
+import fr.gaulupeau.apps.Poche.network.Updater;
+
+/**
+ * Decides what sync work is actually needed using cheap probes:
+ * the offline queue length, the number of remotely changed articles
+ * and (if needed) the remote article count compared to the local one.
+ */
+class SyncPlanner {
+
+    private static final String TAG = SyncPlanner.class.getSimpleName();
+
+    enum Decision { SKIP, FAST, SWEEP, FULL }
+
+    static class Plan {
+
+        private final boolean syncQueue;
+        private final Decision decision;
+        private final boolean sweep;
+        private final String reason;
+
+        Plan(boolean syncQueue, Decision decision, boolean sweep, String reason) {
+            this.syncQueue = syncQueue;
+            this.decision = decision;
+            this.sweep = sweep;
+            this.reason = reason;
+        }
+
+        boolean isSyncQueue() {
+            return syncQueue;
+        }
+
+        Decision getDecision() {
+            return decision;
+        }
+
+        /**
+         * @return true if a sweep should be run after the update
+         *         (always implied by {@link Decision#SWEEP})
+         */
+        boolean isSweep() {
+            return sweep;
+        }
+
+        String getReason() {
+            return reason;
+        }
+
+        boolean isNothingToDo() {
+            return !syncQueue && decision == Decision.SKIP;
+        }
+
+        @Override
+        public String toString() {
+            return "Plan{" +
+                    "syncQueue=" + syncQueue +
+                    ", decision=" + decision +
+                    ", sweep=" + sweep +
+                    ", reason='" + reason + '\'' +
+                    '}';
+        }
+
+    }
+
+    private final DaoSession daoSession;
+    private final WallabagService wallabagService;
+    private final Settings settings;
+
+    SyncPlanner(DaoSession daoSession, WallabagService wallabagService, Settings settings) {
+        this.daoSession = daoSession;
+        this.wallabagService = wallabagService;
+        this.settings = settings;
+    }
+
+    /**
+     * Probes the local and the remote state and returns the work to be done.
+     * <p>
+     * If the offline queue is not empty, at least a {@link Decision#FAST} update is planned:
+     * the probes run before the queue is pushed, so they can't see the articles
+     * it adds or changes (e.g. links added offline).
+     *
+     * @param requestedType the update type the sync was requested with
+     * @return the plan
+     */
+    Plan plan(Updater.UpdateType requestedType)
+            throws UnsuccessfulResponseException, IOException {
+        Plan plan = probe(requestedType);
+
+        if(plan.isSyncQueue() && (plan.getDecision() == Decision.SKIP
+                || plan.getDecision() == Decision.SWEEP)) {
+            plan = new Plan(true, Decision.FAST, plan.isSweep(),
+                    "offline queue is not empty; " + plan.getReason());
+        }
+
+        return plan;
+    }
+
+    private Plan probe(Updater.UpdateType requestedType)
+            throws UnsuccessfulResponseException, IOException {
+        Log.d(TAG, "probe() started; requestedType: " + requestedType);
+
+        long queueLength = new QueueHelper(daoSession).getQueueLength();
+        boolean syncQueue = queueLength > 0;
+
+        Log.d(TAG, "probe() queue length: " + queueLength);
+
+        if(!settings.isFirstSyncDone()) {
+            return new Plan(syncQueue, Decision.FULL, false, "first sync is not done");
+        }
+        if(settings.getUpdateCheckpoint() != null) {
+            return new Plan(syncQueue, Decision.FULL, false, "interrupted full update");
+        }
+
+        int changedNumber = getChangedNumber(settings.getLatestUpdatedItemTimestamp());
+
+        Log.d(TAG, "probe() remotely changed articles: " + changedNumber);
+
+        if(requestedType == Updater.UpdateType.FULL) {
+            if(changedNumber > 0) {
+                return new Plan(syncQueue, Decision.FULL, false,
+                        changedNumber + " articles changed remotely");
+            }
+
+            int localTotal = getLocalTotal();
+            int remoteTotal = getRemoteTotal();
+            if(localTotal != remoteTotal) {
+                return new Plan(syncQueue, Decision.FULL, false, String.format(
+                        "local total (%d) differs from remote total (%d)", localTotal, remoteTotal));
+            }
+
+            return new Plan(syncQueue, Decision.SKIP, false, "no remote changes");
+        }
+
+        if(!settings.isSweepingAfterFastSyncEnabled()) {
+            return changedNumber > 0
+                    ? new Plan(syncQueue, Decision.FAST, false,
+                            changedNumber + " articles changed remotely")
+                    : new Plan(syncQueue, Decision.SKIP, false, "no remote changes");
+        }
+
+        int localTotal = getLocalTotal();
+        int remoteTotal = getRemoteTotal();
+
+        Log.d(TAG, String.format("probe() local total: %d, remote total: %d",
+                localTotal, remoteTotal));
+
+        if(changedNumber > 0) {
+            // after the update the local total is somewhere in [localTotal, localTotal + changed]
+            boolean sweep = localTotal + changedNumber > remoteTotal;
+
+            return new Plan(syncQueue, Decision.FAST, sweep, String.format(
+                    "%d articles changed remotely; local total: %d, remote total: %d",
+                    changedNumber, localTotal, remoteTotal));
+        }
+
+        if(localTotal > remoteTotal) {
+            return new Plan(syncQueue, Decision.SWEEP, true, String.format(
+                    "no remote changes; local total (%d) is greater than remote total (%d)",
+                    localTotal, remoteTotal));
+        }
+
+        return new Plan(syncQueue, Decision.SKIP, false, "no remote changes or deletions");
+    }
+
+    private int getChangedNumber(long latestUpdatedItemTimestamp)
+            throws UnsuccessfulResponseException, IOException {
+        return wallabagService
+                .getArticlesBuilder()
+                .perPage(1)
+                .detailLevel(ArticlesQueryBuilder.DetailLevel.METADATA)
+                .since(latestUpdatedItemTimestamp)
+                .execute().total;
+    }
+
+    private int getRemoteTotal() throws UnsuccessfulResponseException, IOException {
+        return wallabagService
+                .getArticlesBuilder()
+                .perPage(1)
+                .detailLevel(ArticlesQueryBuilder.DetailLevel.METADATA)
+                .execute().total;
+    }
+
+    private int getLocalTotal() {
+        return (int)daoSession.getArticleDao().queryBuilder().count();
+    }
+
+}
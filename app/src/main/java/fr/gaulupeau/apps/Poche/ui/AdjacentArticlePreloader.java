@@ -0,0 +1,249 @@
+package fr.gaulupeau.apps.Poche.ui;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fr.gaulupeau.apps.Poche.App;
+import fr.gaulupeau.apps.Poche.data.DbConnection;
+import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
+import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
+import fr.gaulupeau.apps.Poche.events.ArticlesChangedEvent;
+import fr.gaulupeau.apps.Poche.events.FeedsChangedEvent;
+
+/**
+ * Prepares the previous and the next articles of the one being read,
+ * so that {@link ReadArticleActivity} can show them without querying and rendering.
+ * <p>
+ * The articles, their pages and their own adjacent article IDs are loaded
+ * on a background thread. Only the entries for the neighbours of the last
+ * {@linkplain #preload requested} article are kept, and pages longer than
+ * {@link #MAX_PAGE_LENGTH} are left to the {@link ArticleRenderCache}.
+ * Entries are dropped on {@link ArticlesChangedEvent}s that may affect them.
+ */
+public class AdjacentArticlePreloader {
+
+    public static class PreloadedArticle {
+
+        public final Article article;
+        /** The page or {@code null} if it wasn't kept in memory. */
+        public final String page;
+        public final Long previousArticleId;
+        public final Long nextArticleId;
+
+        PreloadedArticle(Article article, String page, Long previousArticleId, Long nextArticleId) {
+            this.article = article;
+            this.page = page;
+            this.previousArticleId = previousArticleId;
+            this.nextArticleId = nextArticleId;
+        }
+
+    }
+
+    private static final String TAG = AdjacentArticlePreloader.class.getSimpleName();
+
+    private static final int MAX_PAGE_LENGTH = 1024 * 1024; // chars
+
+    // changes that may alter the adjacent articles of any article
+    private static final EnumSet<FeedsChangedEvent.ChangeType> CHANGE_SET_ADJACENCY = EnumSet.of(
+            FeedsChangedEvent.ChangeType.UNSPECIFIED,
+            FeedsChangedEvent.ChangeType.ADDED,
+            FeedsChangedEvent.ChangeType.DELETED,
+            FeedsChangedEvent.ChangeType.ARCHIVED,
+            FeedsChangedEvent.ChangeType.UNARCHIVED,
+            FeedsChangedEvent.ChangeType.FAVORITED,
+            FeedsChangedEvent.ChangeType.UNFAVORITED,
+            FeedsChangedEvent.ChangeType.TAGS_CHANGED);
+
+    // changes that may alter search results
+    private static final EnumSet<FeedsChangedEvent.ChangeType> CHANGE_SET_SEARCH = EnumSet.of(
+            FeedsChangedEvent.ChangeType.TITLE_CHANGED,
+            FeedsChangedEvent.ChangeType.CONTENT_CHANGED);
+
+    // changes that may alter the preloaded article or its page
+    private static final EnumSet<FeedsChangedEvent.ChangeType> CHANGE_SET_ARTICLE = EnumSet.of(
+            FeedsChangedEvent.ChangeType.CONTENT_CHANGED,
+            FeedsChangedEvent.ChangeType.TITLE_CHANGED,
+            FeedsChangedEvent.ChangeType.DOMAIN_CHANGED,
+            FeedsChangedEvent.ChangeType.URL_CHANGED,
+            FeedsChangedEvent.ChangeType.PUBLISHED_AT_CHANGED,
+            FeedsChangedEvent.ChangeType.AUTHORS_CHANGED,
+            FeedsChangedEvent.ChangeType.ESTIMATED_READING_TIME_CHANGED,
+            FeedsChangedEvent.ChangeType.PREVIEW_PICTURE_URL_CHANGED,
+            FeedsChangedEvent.ChangeType.ANNOTATIONS_CHANGED);
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private static final Object lock = new Object();
+
+    // all fields below are guarded by the lock
+    private static final Map<Long, PreloadedArticle> preloaded = new HashMap<>();
+    private static final Set<Long> wanted = new HashSet<>();
+    private static final Map<Long, Integer> scheduledGenerations = new HashMap<>();
+    private static ArticleListContext listContext;
+    private static int generation;
+
+    /**
+     * Schedules preloading of the adjacent articles.
+     * Entries for other articles are dropped.
+     *
+     * @param listContext the list the articles belong to
+     * @param previousArticleId the local (DB) ID of the previous article or {@code null}
+     * @param nextArticleId the local (DB) ID of the next article or {@code null}
+     */
+    public static void preload(ArticleListContext listContext,
+                               Long previousArticleId, Long nextArticleId) {
+        Set<Long> ids = new HashSet<>(2);
+        if(previousArticleId != null) ids.add(previousArticleId);
+        if(nextArticleId != null) ids.add(nextArticleId);
+
+        int currentGeneration;
+        synchronized(lock) {
+            if(!listContext.equals(AdjacentArticlePreloader.listContext)) {
+                AdjacentArticlePreloader.listContext = listContext;
+                clear();
+            }
+
+            preloaded.keySet().retainAll(ids);
+            wanted.clear();
+            wanted.addAll(ids);
+            ids.removeAll(preloaded.keySet());
+
+            currentGeneration = generation;
+            for(Iterator<Long> it = ids.iterator(); it.hasNext(); ) {
+                Long id = it.next();
+                Integer scheduledGeneration = scheduledGenerations.put(id, currentGeneration);
+                if(scheduledGeneration != null && scheduledGeneration == currentGeneration) {
+                    it.remove(); // already on the way
+                }
+            }
+        }
+
+        if(ids.isEmpty()) return;
+
+        Log.d(TAG, "preload() scheduling: " + ids);
+
+        executor.execute(() -> {
+            for(Long id: ids) {
+                preloadArticle(listContext, id, currentGeneration);
+            }
+        });
+    }
+
+    /**
+     * Returns and removes the preloaded entry.
+     *
+     * @param id the local (DB) ID of the article
+     * @return the entry or {@code null} if it is not preloaded for the list
+     */
+    public static PreloadedArticle take(ArticleListContext listContext, long id) {
+        synchronized(lock) {
+            if(!listContext.equals(AdjacentArticlePreloader.listContext)) return null;
+
+            PreloadedArticle entry = preloaded.remove(id);
+            if(entry != null) Log.d(TAG, "take() preloaded article: " + id);
+            return entry;
+        }
+    }
+
+    /**
+     * Drops the entries that may be affected by the event.
+     *
+     * @return true if anything was dropped, so the preloading should be requested again
+     */
+    public static boolean onArticlesChanged(ArticlesChangedEvent event) {
+        synchronized(lock) {
+            if(preloaded.isEmpty() && wanted.isEmpty()) return false;
+
+            boolean search = listContext != null && listContext.isSearch();
+
+            boolean adjacencyChanged = event.isInvalidateAll();
+            for(ArticlesChangedEvent.ArticleEntry entry: event.getChangedArticles().values()) {
+                if(!Collections.disjoint(entry.changes, CHANGE_SET_ADJACENCY)
+                        || (search && !Collections.disjoint(entry.changes, CHANGE_SET_SEARCH))) {
+                    adjacencyChanged = true;
+                    break;
+                }
+            }
+
+            if(adjacencyChanged) {
+                Log.d(TAG, "onArticlesChanged() adjacency may have changed, clearing");
+                clear();
+                return true;
+            }
+
+            boolean dropped = false;
+            for(Iterator<PreloadedArticle> it = preloaded.values().iterator(); it.hasNext(); ) {
+                EnumSet<FeedsChangedEvent.ChangeType> changes
+                        = event.getArticleChanges(it.next().article);
+                if(changes != null && !Collections.disjoint(changes, CHANGE_SET_ARTICLE)) {
+                    it.remove();
+                    dropped = true;
+                }
+            }
+            if(dropped) generation++;
+
+            return dropped;
+        }
+    }
+
+    private static void clear() {
+        preloaded.clear();
+        wanted.clear();
+        generation++;
+    }
+
+    private static void preloadArticle(ArticleListContext listContext, Long id, int generation) {
+        synchronized(lock) {
+            Integer scheduledGeneration = scheduledGenerations.get(id);
+            if(scheduledGeneration != null && scheduledGeneration == generation) {
+                scheduledGenerations.remove(id);
+            }
+
+            if(!isCurrent(listContext, id, generation)) return;
+        }
+
+        try {
+            ArticleDao articleDao = DbConnection.getSession().getArticleDao();
+
+            Article article = articleDao.queryBuilder()
+                    .where(ArticleDao.Properties.Id.eq(id))
+                    .unique();
+            if(article == null) return;
+
+            Long previousArticleId = listContext.getAdjacentArticle(articleDao, article, true);
+            Long nextArticleId = listContext.getAdjacentArticle(articleDao, article, false);
+
+            ArticlePageRenderer renderer = new ArticlePageRenderer(
+                    App.getInstance(), App.getInstance().getSettings());
+            String page = ArticleRenderCache.getPage(renderer, article);
+            if(page.length() > MAX_PAGE_LENGTH) page = null;
+
+            synchronized(lock) {
+                if(!isCurrent(listContext, id, generation)) return;
+
+                preloaded.put(id, new PreloadedArticle(
+                        article, page, previousArticleId, nextArticleId));
+            }
+
+            Log.d(TAG, "preloadArticle() preloaded article: " + id);
+        } catch(Exception e) {
+            Log.w(TAG, "preloadArticle() couldn't preload article: " + id, e);
+        }
+    }
+
+    private static boolean isCurrent(ArticleListContext listContext, Long id, int generation) {
+        return generation == AdjacentArticlePreloader.generation
+                && listContext.equals(AdjacentArticlePreloader.listContext)
+                && wanted.contains(id);
+    }
+
+}
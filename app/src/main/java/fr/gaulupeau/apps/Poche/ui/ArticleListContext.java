@@ -0,0 +1,304 @@
+package fr.gaulupeau.apps.Poche.ui;
+
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.text.TextUtils;
+
+import org.greenrobot.greendao.Property;
+import org.greenrobot.greendao.query.WhereCondition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
+import fr.gaulupeau.apps.Poche.data.dao.ArticleTagsJoinDao;
+import fr.gaulupeau.apps.Poche.data.dao.FtsDao;
+import fr.gaulupeau.apps.Poche.data.dao.TagDao;
+import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
+
+import static fr.gaulupeau.apps.Poche.ui.ReadArticleActivity.EXTRA_LIST_ARCHIVED;
+import static fr.gaulupeau.apps.Poche.ui.ReadArticleActivity.EXTRA_LIST_FAVORITES;
+import static fr.gaulupeau.apps.Poche.ui.ReadArticleActivity.EXTRA_LIST_SEARCH_QUERY;
+import static fr.gaulupeau.apps.Poche.ui.ReadArticleActivity.EXTRA_LIST_SORT_KEY;
+import static fr.gaulupeau.apps.Poche.ui.ReadArticleActivity.EXTRA_LIST_SORT_ORDER;
+import static fr.gaulupeau.apps.Poche.ui.ReadArticleActivity.EXTRA_LIST_TAG;
+
+/**
+ * The article list an article was opened from:
+ * defines the previous and the next articles in {@link ReadArticleActivity}.
+ */
+public class ArticleListContext {
+
+    private static final String TABLE_ALIAS = "T";
+
+    private final Boolean favorites;
+    private final Boolean archived;
+    private final String tagLabel;
+    private final String searchQuery;
+    private final ArticleSortKey sortKey;
+    private final Sortable.SortOrder sortOrder;
+
+    public ArticleListContext(Boolean favorites, Boolean archived,
+                              String tagLabel, String searchQuery,
+                              ArticleSortKey sortKey, Sortable.SortOrder sortOrder) {
+        this.favorites = favorites;
+        this.archived = archived;
+        this.tagLabel = tagLabel;
+        this.searchQuery = TextUtils.isEmpty(searchQuery) ? null : searchQuery;
+        this.sortKey = sortKey != null ? sortKey : ArticleSortKey.ID;
+        this.sortOrder = sortOrder != null ? sortOrder : Sortable.SortOrder.DESC;
+    }
+
+    public static ArticleListContext fromIntent(Intent intent) {
+        return new ArticleListContext(
+                intent.hasExtra(EXTRA_LIST_FAVORITES)
+                        ? intent.getBooleanExtra(EXTRA_LIST_FAVORITES, false) : null,
+                intent.hasExtra(EXTRA_LIST_ARCHIVED)
+                        ? intent.getBooleanExtra(EXTRA_LIST_ARCHIVED, false) : null,
+                intent.getStringExtra(EXTRA_LIST_TAG),
+                intent.getStringExtra(EXTRA_LIST_SEARCH_QUERY),
+                intent.hasExtra(EXTRA_LIST_SORT_KEY)
+                        ? ArticleSortKey.valueOf(intent.getStringExtra(EXTRA_LIST_SORT_KEY)) : null,
+                intent.hasExtra(EXTRA_LIST_SORT_ORDER)
+                        ? Sortable.SortOrder.valueOf(intent.getStringExtra(EXTRA_LIST_SORT_ORDER))
+                        : null);
+    }
+
+    public void putToIntent(Intent intent) {
+        if(favorites != null) intent.putExtra(EXTRA_LIST_FAVORITES, favorites);
+        if(archived != null) intent.putExtra(EXTRA_LIST_ARCHIVED, archived);
+        if(tagLabel != null) intent.putExtra(EXTRA_LIST_TAG, tagLabel);
+        if(searchQuery != null) intent.putExtra(EXTRA_LIST_SEARCH_QUERY, searchQuery);
+        intent.putExtra(EXTRA_LIST_SORT_KEY, sortKey.name());
+        intent.putExtra(EXTRA_LIST_SORT_ORDER, sortOrder.name());
+    }
+
+    public Boolean getFavorites() {
+        return favorites;
+    }
+
+    public Boolean getArchived() {
+        return archived;
+    }
+
+    public boolean isSearch() {
+        return searchQuery != null;
+    }
+
+    /**
+     * Runs the adjacent article query with additional conditions.
+     */
+    interface ArticleQuery {
+        Long query(boolean asc, WhereCondition... conditions);
+    }
+
+    /**
+     * Returns the article shown right before or after the article in the list.
+     * <p>
+     * Seeks on the (sort key, row ID) pair the list is ordered by,
+     * the same way {@link ArticleListFragment} loads the next page.
+     *
+     * @return the local (DB) ID of the adjacent article or {@code null} if there's none
+     */
+    public Long getAdjacentArticle(ArticleDao articleDao, Article article, boolean previous) {
+        return getAdjacentArticle(articleDao, getSortValue(articleDao, article.getId()),
+                article.getId(), previous,
+                (asc, conditions) -> queryAdjacentArticle(articleDao, asc, conditions));
+    }
+
+    Long getAdjacentArticle(ArticleDao articleDao, Long key, long id, boolean previous,
+                            ArticleQuery query) {
+        // the previous article is the next one in the reversed order
+        boolean asc = (sortOrder == Sortable.SortOrder.ASC) != previous;
+
+        Property keyProperty = sortKey.getProperty();
+        Property idProperty = ArticleDao.Properties.Id;
+
+        Long result;
+        if(key == null) {
+            result = query.query(asc, keyProperty.isNull(),
+                    asc ? idProperty.gt(id) : idProperty.lt(id));
+
+            // NULLs come first in ascending order
+            if(result == null && asc) {
+                result = query.query(true, keyProperty.isNotNull());
+            }
+        } else {
+            // the first condition is the range the index seeks to, the second one skips the ties
+            result = query.query(asc,
+                    asc ? keyProperty.ge(key) : keyProperty.le(key),
+                    articleDao.queryBuilder().or(
+                            asc ? keyProperty.gt(key) : keyProperty.lt(key),
+                            asc ? idProperty.gt(id) : idProperty.lt(id)));
+
+            // NULLs come last in descending order
+            if(result == null && !asc && sortKey.isNullable()) {
+                result = query.query(false, keyProperty.isNull());
+            }
+        }
+
+        return result;
+    }
+
+    // selects only the row ID: no entity is created or cached
+    private Long queryAdjacentArticle(ArticleDao articleDao, boolean asc,
+                                      WhereCondition... conditions) {
+        List<Object> values = new ArrayList<>();
+        String sql = getAdjacentArticleQuerySql(asc, conditions, values);
+
+        String[] args = new String[values.size()];
+        for(int i = 0; i < args.length; i++) {
+            args[i] = String.valueOf(values.get(i));
+        }
+
+        try(Cursor c = articleDao.getDatabase().rawQuery(sql, args)) {
+            return c.moveToFirst() ? c.getLong(0) : null;
+        }
+    }
+
+    /**
+     * Builds the SQL of an adjacent article query.
+     *
+     * @param values the list to add the values of the conditions to
+     */
+    String getAdjacentArticleQuerySql(boolean asc, WhereCondition[] conditions,
+                                      List<Object> values) {
+        List<WhereCondition> where = new ArrayList<>(Arrays.asList(conditions));
+
+        if(favorites != null) where.add(ArticleDao.Properties.Favorite.eq(favorites));
+        if(archived != null) where.add(ArticleDao.Properties.Archive.eq(archived));
+
+        if(tagLabel != null) where.add(getTagCondition(tagLabel));
+
+        if(searchQuery != null) {
+            where.add(new WhereCondition.StringCondition(
+                    TABLE_ALIAS + "." + ArticleDao.Properties.Id.columnName + " IN (" +
+                    FtsDao.getQueryString() + DatabaseUtils.sqlEscapeString(searchQuery) + ")"));
+        }
+
+        StringBuilder sql = new StringBuilder("select ")
+                .append(TABLE_ALIAS).append(".\"").append(ArticleDao.Properties.Id.columnName)
+                .append("\" from ").append(ArticleDao.TABLENAME).append(' ').append(TABLE_ALIAS);
+
+        for(int i = 0; i < where.size(); i++) {
+            sql.append(i == 0 ? " where " : " and ");
+
+            WhereCondition condition = where.get(i);
+            condition.appendTo(sql, TABLE_ALIAS);
+            condition.appendValuesTo(values);
+        }
+
+        String direction = asc ? " asc" : " desc";
+        sql.append(" order by ")
+                .append(TABLE_ALIAS).append(".\"").append(sortKey.getProperty().columnName)
+                .append('"').append(direction).append(", ")
+                .append(TABLE_ALIAS).append(".\"").append(ArticleDao.Properties.Id.columnName)
+                .append('"').append(direction)
+                .append(" limit 1");
+
+        return sql.toString();
+    }
+
+    // the raw column value: the same one the list compares
+    private Long getSortValue(ArticleDao articleDao, long id) {
+        String sql = "select \"" + sortKey.getProperty().columnName + "\" from "
+                + ArticleDao.TABLENAME + " where \"" + ArticleDao.Properties.Id.columnName
+                + "\" = ?";
+
+        try(Cursor c = articleDao.getDatabase().rawQuery(sql, new String[] {String.valueOf(id)})) {
+            return c.moveToFirst() && !c.isNull(0) ? c.getLong(0) : null;
+        }
+    }
+
+    /**
+     * Returns the condition that limits articles to the ones with the tag.
+     *
+     * @see #getTagCondition(Collection, boolean)
+     */
+    public static WhereCondition getTagCondition(String tagLabel) {
+        return getTagCondition(Collections.singleton(tagLabel), false);
+    }
+
+    /**
+     * Returns the condition that limits articles to the ones with the tags.
+     * <p>
+     * Subqueries are used instead of joins: the set of article IDs is read from
+     * the (TAG_ID, ARTICLE_ID) index, and articles are not duplicated
+     * if several tags share a label or an article matches several tags.
+     * <p>
+     * The lists filter by a single tag for now; the multi-tag forms are only used by tests.
+     *
+     * @param tagLabels labels of the tags
+     * @param matchAll {@code true} to select the articles that have all the tags,
+     *                 {@code false} to select the articles that have any of them
+     */
+    static WhereCondition getTagCondition(Collection<String> tagLabels, boolean matchAll) {
+        Set<String> labels = new LinkedHashSet<>(tagLabels);
+        if(labels.isEmpty()) throw new IllegalArgumentException("No tag labels");
+
+        String articleId = ArticleTagsJoinDao.Properties.ArticleId.columnName;
+        String tagId = ArticleTagsJoinDao.Properties.TagId.columnName;
+        String id = TagDao.Properties.Id.columnName;
+        String label = TagDao.Properties.Label.columnName;
+
+        StringBuilder placeholders = new StringBuilder();
+        for(int i = 0; i < labels.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+
+        String sql;
+        if(!matchAll || labels.size() == 1) {
+            sql = ArticleDao.Properties.Id.columnName
+                    + " IN (select " + articleId + " from " + ArticleTagsJoinDao.TABLENAME
+                    + " where " + tagId + " IN (select " + id + " from " + TagDao.TABLENAME
+                    + " where " + label + " IN (" + placeholders + ")))";
+        } else {
+            // distinct labels are counted: tags sharing a label count once
+            sql = ArticleDao.Properties.Id.columnName
+                    + " IN (select J." + articleId
+                    + " from " + ArticleTagsJoinDao.TABLENAME + " J, " + TagDao.TABLENAME + " G"
+                    + " where J." + tagId + " = G." + id
+                    + " and G." + label + " IN (" + placeholders + ")"
+                    + " group by J." + articleId
+                    + " having count(distinct G." + label + ") = " + labels.size() + ")";
+        }
+
+        return new WhereCondition.StringCondition(sql, labels.toArray());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(o == null || getClass() != o.getClass()) return false;
+
+        ArticleListContext that = (ArticleListContext)o;
+        return equal(favorites, that.favorites)
+                && equal(archived, that.archived)
+                && TextUtils.equals(tagLabel, that.tagLabel)
+                && TextUtils.equals(searchQuery, that.searchQuery)
+                && sortKey == that.sortKey
+                && sortOrder == that.sortOrder;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = favorites != null ? favorites.hashCode() : 0;
+        result = 31 * result + (archived != null ? archived.hashCode() : 0);
+        result = 31 * result + (tagLabel != null ? tagLabel.hashCode() : 0);
+        result = 31 * result + (searchQuery != null ? searchQuery.hashCode() : 0);
+        result = 31 * result + sortKey.hashCode();
+        result = 31 * result + sortOrder.hashCode();
+        return result;
+    }
+
+    private static boolean equal(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+}
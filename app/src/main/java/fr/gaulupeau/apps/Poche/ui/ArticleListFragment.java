@@ -3,6 +3,7 @@ package fr.gaulupeau.apps.Poche.ui;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.os.Bundle;
 import androidx.recyclerview.widget.DiffUtil;
@@ -14,37 +15,39 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.widget.Toast;
 
-import org.greenrobot.greendao.query.LazyList;
-import org.greenrobot.greendao.query.QueryBuilder;
+import org.greenrobot.greendao.Property;
 import org.greenrobot.greendao.query.WhereCondition;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
 import fr.gaulupeau.apps.InThePoche.R;
 import fr.gaulupeau.apps.Poche.App;
+import fr.gaulupeau.apps.Poche.data.ArticleListItem;
 import fr.gaulupeau.apps.Poche.data.DbConnection;
 import fr.gaulupeau.apps.Poche.data.ListAdapter;
 import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
-import fr.gaulupeau.apps.Poche.data.dao.ArticleTagsJoinDao;
 import fr.gaulupeau.apps.Poche.data.dao.DaoSession;
 import fr.gaulupeau.apps.Poche.data.dao.FtsDao;
-import fr.gaulupeau.apps.Poche.data.dao.TagDao;
-import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
-import fr.gaulupeau.apps.Poche.data.dao.entities.ArticleTagsJoin;
-import fr.gaulupeau.apps.Poche.data.dao.entities.Tag;
 
 import static fr.gaulupeau.apps.Poche.data.ListTypes.LIST_TYPE_ARCHIVED;
 import static fr.gaulupeau.apps.Poche.data.ListTypes.LIST_TYPE_FAVORITES;
 import static fr.gaulupeau.apps.Poche.data.ListTypes.LIST_TYPE_UNREAD;
 
-public class ArticleListFragment extends RecyclerViewListFragment<Article> {
+public class ArticleListFragment extends RecyclerViewListFragment<ArticleListItem> {
 
     public interface OnFragmentInteractionListener {
         void onRecyclerViewListSwipeUpdate();
     }
 
+    /**
+     * Runs the list query with additional conditions.
+     */
+    interface ItemQuery {
+        List<ArticleListItem> query(String orderBy, int limit, WhereCondition... conditions);
+    }
+
     private static final String TAG = ArticleListFragment.class.getSimpleName();
 
     private static final String LIST_TYPE_PARAM = "list_type";
@@ -52,16 +55,17 @@ public class ArticleListFragment extends RecyclerViewListFragment<Article> {
 
     private static final int PER_PAGE_LIMIT = 30;
 
+    private static final String TABLE_ALIAS = "T";
+
     private int listType;
+    private ArticleSortKey sortKey = ArticleSortKey.ID;
     private String tagLabel;
-    private List<Long> tagIDs;
 
     private OnFragmentInteractionListener host;
 
     private ArticleDao articleDao;
-    private TagDao tagDao;
 
-    private boolean forceContentUpdate;
+    private volatile boolean forceContentUpdate;
 
     public static ArticleListFragment newInstance(int listType, String tag) {
         ArticleListFragment fragment = new ArticleListFragment();
@@ -88,7 +92,6 @@ public class ArticleListFragment extends RecyclerViewListFragment<Article> {
 
         DaoSession daoSession = DbConnection.getSession();
         articleDao = daoSession.getArticleDao();
-        tagDao = daoSession.getTagDao();
 
         setHasOptionsMenu(true);
 
@@ -141,8 +144,15 @@ public class ArticleListFragment extends RecyclerViewListFragment<Article> {
         forceContentUpdate = true;
     }
 
+    public void setSortKey(ArticleSortKey sortKey) {
+        ArticleSortKey oldSortKey = this.sortKey;
+        this.sortKey = sortKey;
+
+        if(sortKey != oldSortKey) invalidateList();
+    }
+
     @Override
-    protected RecyclerView.Adapter getListAdapter(List<Article> list) {
+    protected RecyclerView.Adapter getListAdapter(List<ArticleListItem> list) {
         return new ListAdapter(App.getInstance(), App.getInstance().getSettings(),
                 list, new ListAdapter.OnItemClickListener() {
             @Override
@@ -151,97 +161,172 @@ public class ArticleListFragment extends RecyclerViewListFragment<Article> {
                     Log.e(TAG, "Fragment.getListAdapter.onItemClick prevent ArrayIndexOutOfBoundsException position=" + position + ", itemList.size()=" + itemList.size());
                 }
                 else {
-                    Article article = itemList.get(position);
-                    openArticle(article.getId());
+                    ArticleListItem item = itemList.get(position);
+                    openArticle(item.getId());
                 }
             }
         }, listType);
     }
 
     @Override
-    protected void resetContent() {
-        if(tagLabel != null) {
-            List<Tag> tags = tagDao.queryBuilder()
-                    .where(TagDao.Properties.Label.eq(tagLabel))
-                    .orderDesc(TagDao.Properties.Label)
-                    .list();
-
-            tagIDs = new ArrayList<>(tags.size());
-            for(Tag t: tags) {
-                tagIDs.add(t.getId());
+    protected void onContentReset() {
+        forceContentUpdate = false;
+    }
+
+    @Override
+    protected List<ArticleListItem> getItems(int page, ArticleListItem lastItem) {
+        if(lastItem == null) {
+            return queryItems(getOrderBy(), PER_PAGE_LIMIT);
+        }
+
+        return getItemsAfter(articleDao, sortKey, sortOrder,
+                lastItem.getSortValue(), lastItem.getId(), PER_PAGE_LIMIT, this::queryItems);
+    }
+
+    /**
+     * Returns the rows that follow the (sort key, row ID) pair of the last loaded row.
+     * <p>
+     * Seeks past the last loaded row instead of skipping the loaded rows with offset,
+     * so every page costs the same.
+     */
+    static List<ArticleListItem> getItemsAfter(ArticleDao articleDao, ArticleSortKey sortKey,
+                                               Sortable.SortOrder sortOrder,
+                                               Long lastKey, long lastId, int limit,
+                                               ItemQuery query) {
+        boolean asc = sortOrder == Sortable.SortOrder.ASC;
+
+        Property keyProperty = sortKey.getProperty();
+        Property idProperty = ArticleDao.Properties.Id;
+
+        String orderBy = getOrderBy(sortKey, sortOrder);
+        List<ArticleListItem> items;
+
+        if(lastKey == null) {
+            items = query.query(orderBy, limit, keyProperty.isNull(),
+                    asc ? idProperty.gt(lastId) : idProperty.lt(lastId));
+
+            // NULLs come first in ascending order
+            if(asc && items.size() < limit) {
+                items.addAll(query.query(orderBy, limit - items.size(),
+                        keyProperty.isNotNull()));
             }
         } else {
-            tagIDs = null;
+            // the first condition is the range the index seeks to, the second one skips the ties
+            items = query.query(orderBy, limit,
+                    asc ? keyProperty.ge(lastKey) : keyProperty.le(lastKey),
+                    articleDao.queryBuilder().or(
+                            asc ? keyProperty.gt(lastKey) : keyProperty.lt(lastKey),
+                            asc ? idProperty.gt(lastId) : idProperty.lt(lastId)));
+
+            // NULLs come last in descending order
+            if(!asc && sortKey.isNullable() && items.size() < limit) {
+                items.addAll(query.query(orderBy, limit - items.size(),
+                        keyProperty.isNull()));
+            }
         }
 
-        super.resetContent();
-
-        forceContentUpdate = false;
+        return items;
     }
 
-    @Override
-    protected List<Article> getItems(int page) {
-        QueryBuilder<Article> qb = getQueryBuilder()
-                .limit(PER_PAGE_LIMIT);
+    // selects only the columns of the rows: no entities are created or cached
+    private List<ArticleListItem> queryItems(String orderBy, int limit,
+                                             WhereCondition... conditions) {
+        List<WhereCondition> where = getConditions(listType, tagLabel, searchQuery);
+        where.addAll(Arrays.asList(conditions));
+
+        List<Object> values = new ArrayList<>();
+        String sql = getQuerySql(sortKey, where, orderBy, limit, values);
 
-        if(page > 0) {
-            qb.offset(PER_PAGE_LIMIT * page);
+        String[] args = new String[values.size()];
+        for(int i = 0; i < args.length; i++) {
+            args[i] = String.valueOf(values.get(i));
         }
 
-        return detachObjects(qb.list());
-    }
+        List<ArticleListItem> items = new ArrayList<>(limit);
+        try(Cursor c = DbConnection.getSession().getDatabase().rawQuery(sql, args)) {
+            while(c.moveToNext()) {
+                items.add(ArticleListItem.fromCursor(c));
+            }
+        }
 
-    private QueryBuilder<Article> getQueryBuilder() {
-        QueryBuilder<Article> qb = articleDao.queryBuilder();
+        return items;
+    }
 
-        if(tagIDs != null && !tagIDs.isEmpty()) {
-            // TODO: try subquery
-            qb.join(ArticleTagsJoin.class, ArticleTagsJoinDao.Properties.ArticleId)
-                    .where(ArticleTagsJoinDao.Properties.TagId.in(tagIDs));
+    /**
+     * Builds the SQL of a list query.
+     *
+     * @param values the list to add the values of the conditions to
+     */
+    static String getQuerySql(ArticleSortKey sortKey, List<WhereCondition> where,
+                              String orderBy, int limit, List<Object> values) {
+        StringBuilder sql = new StringBuilder("select ")
+                .append(ArticleListItem.getResultColumns(TABLE_ALIAS, sortKey.getProperty()))
+                .append(" from ").append(ArticleDao.TABLENAME).append(' ').append(TABLE_ALIAS);
+
+        for(int i = 0; i < where.size(); i++) {
+            sql.append(i == 0 ? " where " : " and ");
+
+            WhereCondition condition = where.get(i);
+            condition.appendTo(sql, TABLE_ALIAS);
+            condition.appendValuesTo(values);
         }
 
+        sql.append(" order by ").append(orderBy).append(" limit ").append(limit);
+
+        return sql.toString();
+    }
+
+    static List<WhereCondition> getConditions(int listType, String tagLabel, String searchQuery) {
+        List<WhereCondition> conditions = new ArrayList<>();
+
         switch(listType) {
             case LIST_TYPE_ARCHIVED:
-                qb.where(ArticleDao.Properties.Archive.eq(true));
+                conditions.add(ArticleDao.Properties.Archive.eq(true));
                 break;
 
             case LIST_TYPE_FAVORITES:
-                qb.where(ArticleDao.Properties.Favorite.eq(true));
+                conditions.add(ArticleDao.Properties.Favorite.eq(true));
                 break;
 
             default:
-                qb.where(ArticleDao.Properties.Archive.eq(false));
+                conditions.add(ArticleDao.Properties.Archive.eq(false));
                 break;
         }
 
+        if(tagLabel != null) {
+            conditions.add(ArticleListContext.getTagCondition(tagLabel));
+        }
+
         if(!TextUtils.isEmpty(searchQuery)) {
-            qb.where(new WhereCondition.StringCondition(ArticleDao.Properties.Id.columnName + " IN (" +
+            conditions.add(new WhereCondition.StringCondition(
+                    TABLE_ALIAS + "." + ArticleDao.Properties.Id.columnName + " IN (" +
                     FtsDao.getQueryString() + DatabaseUtils.sqlEscapeString(searchQuery) + ")"));
         }
 
+        return conditions;
+    }
+
+    private String getOrderBy() {
+        return getOrderBy(sortKey, sortOrder);
+    }
+
+    static String getOrderBy(ArticleSortKey sortKey, Sortable.SortOrder sortOrder) {
+        String direction;
         switch(sortOrder) {
             case ASC:
-                qb.orderAsc(ArticleDao.Properties.ArticleId);
+                direction = " asc";
                 break;
 
             case DESC:
-                qb.orderDesc(ArticleDao.Properties.ArticleId);
+                direction = " desc";
                 break;
 
             default:
                 throw new IllegalStateException("Sort order not implemented: " + sortOrder);
         }
 
-        return qb;
-    }
-
-    // removes articles from cache: necessary for DiffUtil to work
-    private List<Article> detachObjects(List<Article> articles) {
-        for(Article article: articles) {
-            articleDao.detach(article);
-        }
-
-        return articles;
+        return TABLE_ALIAS + ".\"" + sortKey.getProperty().columnName + "\"" + direction + ", "
+                + TABLE_ALIAS + ".\"" + ArticleDao.Properties.Id.columnName + "\"" + direction;
     }
 
     @Override
@@ -252,54 +337,55 @@ public class ArticleListFragment extends RecyclerViewListFragment<Article> {
     }
 
     @Override
-    protected DiffUtil.Callback getDiffUtilCallback(List<Article> oldItems, List<Article> newItems) {
-        return new ArticleListDiffCallback(oldItems, newItems, forceContentUpdate);
+    protected DiffUtil.Callback getDiffUtilCallback(List<ArticleListItem> oldItems,
+                                                    List<ArticleListItem> newItems) {
+        return new ArticleListItemDiffCallback(oldItems, newItems, forceContentUpdate);
     }
 
     private void openRandomArticle() {
-        LazyList<Article> articles = getQueryBuilder().listLazyUncached();
-
-        if(!articles.isEmpty()) {
-            long id = articles.get(new Random().nextInt(articles.size())).getId();
+        List<ArticleListItem> items = queryItems("random()", 1);
 
-            openArticle(id);
+        if(!items.isEmpty()) {
+            openArticle(items.get(0).getId());
         } else {
             Toast.makeText(getActivity(), R.string.no_articles, Toast.LENGTH_SHORT).show();
         }
-
-        articles.close();
     }
 
-    // TODO: include more info (order, search query, tag)
     private void openArticle(long id) {
         Activity activity = getActivity();
         if(activity != null) {
             Intent intent = new Intent(activity, ReadArticleActivity.class);
             intent.putExtra(ReadArticleActivity.EXTRA_ID, id);
 
+            Boolean favorites = null, archived = null;
             switch(listType) {
                 case LIST_TYPE_FAVORITES:
-                    intent.putExtra(ReadArticleActivity.EXTRA_LIST_FAVORITES, true);
+                    favorites = true;
                     break;
                 case LIST_TYPE_ARCHIVED:
-                    intent.putExtra(ReadArticleActivity.EXTRA_LIST_ARCHIVED, true);
+                    archived = true;
                     break;
                 default:
-                    intent.putExtra(ReadArticleActivity.EXTRA_LIST_ARCHIVED, false);
+                    archived = false;
                     break;
             }
 
+            new ArticleListContext(favorites, archived, tagLabel, searchQuery, sortKey, sortOrder)
+                    .putToIntent(intent);
+
             startActivity(intent);
         }
     }
 
-    private static class ArticleListDiffCallback extends DiffUtil.Callback {
+    private static class ArticleListItemDiffCallback extends DiffUtil.Callback {
 
-        private List<Article> oldList;
-        private List<Article> newList;
+        private List<ArticleListItem> oldList;
+        private List<ArticleListItem> newList;
         private boolean forceContentUpdate;
 
-        ArticleListDiffCallback(List<Article> oldList, List<Article> newList, boolean forceContentUpdate) {
+        ArticleListItemDiffCallback(List<ArticleListItem> oldList, List<ArticleListItem> newList,
+                                    boolean forceContentUpdate) {
             this.oldList = oldList;
             this.newList = newList;
             this.forceContentUpdate = forceContentUpdate;
@@ -317,21 +403,14 @@ public class ArticleListFragment extends RecyclerViewListFragment<Article> {
 
         @Override
         public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-            return oldList.get(oldItemPosition).getArticleId().equals(
-                    newList.get(newItemPosition).getArticleId());
+            return oldList.get(oldItemPosition).getId() == newList.get(newItemPosition).getId();
         }
 
         @Override
         public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
             if(forceContentUpdate) return false;
 
-            Article oldArticle = oldList.get(oldItemPosition);
-            Article newArticle = newList.get(newItemPosition);
-
-            return oldArticle.getArchive().equals(newArticle.getArchive())
-                    && oldArticle.getFavorite().equals(newArticle.getFavorite())
-                    && TextUtils.equals(oldArticle.getTitle(), newArticle.getTitle())
-                    && TextUtils.equals(oldArticle.getDomain(), newArticle.getDomain());
+            return oldList.get(oldItemPosition).isContentTheSame(newList.get(newItemPosition));
         }
 
     }
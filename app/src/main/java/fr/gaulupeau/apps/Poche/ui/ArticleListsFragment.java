@@ -27,6 +27,7 @@ public class ArticleListsFragment extends Fragment implements Sortable, Searchab
     private static final String PARAM_TAG = "tag";
 
     private static final String STATE_SORT_ORDER = "sort_order";
+    private static final String STATE_SORT_KEY = "sort_key";
     private static final String STATE_SEARCH_QUERY = "search_query";
 
     private static final EnumSet<ArticlesChangedEvent.ChangeType> CHANGE_SET = EnumSet.of(
@@ -38,6 +39,9 @@ public class ArticleListsFragment extends Fragment implements Sortable, Searchab
             ArticlesChangedEvent.ChangeType.ARCHIVED,
             ArticlesChangedEvent.ChangeType.UNARCHIVED,
             ArticlesChangedEvent.ChangeType.CREATED_DATE_CHANGED,
+            ArticlesChangedEvent.ChangeType.UPDATED_DATE_CHANGED,
+            ArticlesChangedEvent.ChangeType.PUBLISHED_AT_CHANGED,
+            ArticlesChangedEvent.ChangeType.STARRED_AT_CHANGED,
             ArticlesChangedEvent.ChangeType.TITLE_CHANGED,
             ArticlesChangedEvent.ChangeType.DOMAIN_CHANGED,
             ArticlesChangedEvent.ChangeType.ESTIMATED_READING_TIME_CHANGED);
@@ -49,6 +53,7 @@ public class ArticleListsFragment extends Fragment implements Sortable, Searchab
     private ViewPager viewPager;
 
     private Sortable.SortOrder sortOrder;
+    private ArticleSortKey sortKey;
     private String searchQuery;
 
     public static ArticleListsFragment newInstance(String tag) {
@@ -79,11 +84,15 @@ public class ArticleListsFragment extends Fragment implements Sortable, Searchab
             if(sortOrder == null) {
                 sortOrder = Sortable.SortOrder.values()[savedInstanceState.getInt(STATE_SORT_ORDER)];
             }
+            if(sortKey == null && savedInstanceState.containsKey(STATE_SORT_KEY)) {
+                sortKey = ArticleSortKey.values()[savedInstanceState.getInt(STATE_SORT_KEY)];
+            }
             if(searchQuery == null) {
                 searchQuery = savedInstanceState.getString(STATE_SEARCH_QUERY);
             }
         }
         if(sortOrder == null) sortOrder = SortOrder.DESC;
+        if(sortKey == null) sortKey = ArticleSortKey.ID;
     }
 
     @Override
@@ -126,6 +135,7 @@ public class ArticleListsFragment extends Fragment implements Sortable, Searchab
         Log.v(TAG, "onSaveInstanceState()");
 
         if(sortOrder != null) outState.putInt(STATE_SORT_ORDER, sortOrder.ordinal());
+        if(sortKey != null) outState.putInt(STATE_SORT_KEY, sortKey.ordinal());
         if(searchQuery != null) outState.putString(STATE_SEARCH_QUERY, searchQuery);
     }
 
@@ -136,6 +146,12 @@ public class ArticleListsFragment extends Fragment implements Sortable, Searchab
         setSortOrder(getCurrentFragment(), sortOrder);
     }
 
+    public void setSortKey(ArticleSortKey sortKey) {
+        this.sortKey = sortKey;
+
+        setSortKey(getCurrentFragment(), sortKey);
+    }
+
     @Override
     public void setSearchQuery(String searchQuery) {
         this.searchQuery = searchQuery;
@@ -154,6 +170,7 @@ public class ArticleListsFragment extends Fragment implements Sortable, Searchab
         if(fragment == null) return;
 
         setSortOrder(fragment, sortOrder);
+        setSortKey(fragment, sortKey);
         setSearchQueryOnFragment(fragment, searchQuery);
     }
 
@@ -162,6 +179,10 @@ public class ArticleListsFragment extends Fragment implements Sortable, Searchab
         if(fragment != null) fragment.setSortOrder(sortOrder);
     }
 
+    private void setSortKey(ArticleListFragment fragment, ArticleSortKey sortKey) {
+        if(fragment != null) fragment.setSortKey(sortKey);
+    }
+
     private void setSearchQueryOnFragment(ArticleListFragment fragment, String searchQuery) {
         if(fragment != null) fragment.setSearchQuery(searchQuery);
     }
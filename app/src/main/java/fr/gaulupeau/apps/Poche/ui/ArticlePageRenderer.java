@@ -0,0 +1,235 @@
+package fr.gaulupeau.apps.Poche.ui;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import fr.gaulupeau.apps.InThePoche.BuildConfig;
+import fr.gaulupeau.apps.InThePoche.R;
+import fr.gaulupeau.apps.Poche.data.Settings;
+import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
+import fr.gaulupeau.apps.Poche.network.ImageCacheUtils;
+
+import static android.text.Html.escapeHtml;
+
+/**
+ * Builds the HTML page that is shown in {@link ReadArticleActivity}.
+ * <p>
+ * Doesn't depend on the activity, so pages can be built in the background
+ * for the {@link ArticleRenderCache}.
+ */
+public class ArticlePageRenderer {
+
+    private static final String TAG = ArticlePageRenderer.class.getSimpleName();
+
+    private static String htmlBase;
+
+    private final Context context;
+    private final Settings settings;
+
+    public ArticlePageRenderer(Context context, Settings settings) {
+        this.context = context.getApplicationContext();
+        this.settings = settings;
+    }
+
+    /**
+     * Returns the key that identifies everything the page depends on:
+     * if the keys of two renders are equal, so are the pages.
+     *
+     * @return the key or {@code null} if the page shouldn't be cached
+     */
+    public String getCacheKey(Article article) {
+        if(article.isContentPending() || article.getContentHash() == null) return null;
+
+        String key = TextUtils.join("\n", new Object[] {
+                article.getArticleId(),
+                article.getContentHash(),
+                Themes.getCurrentTheme(),
+                settings.isArticleFontSerif(),
+                settings.isArticleTextAlignmentJustify(),
+                settings.getHandlePreformattedTextOption(),
+                settings.isImageCacheEnabled(),
+                settings.isAnnotationsEnabled(),
+                settings.isPreviewImageEnabled(),
+                settings.getReadingSpeed(),
+                Locale.getDefault(),
+                // the header fields are covered too, so that a missed event can't leave a stale page
+                article.getTitle(),
+                article.getUrl(),
+                article.getDomain(),
+                article.getAuthors(),
+                article.getPublishedAt() != null ? article.getPublishedAt().getTime() : null,
+                article.getPreviewPictureURL(),
+                article.getEstimatedReadingTime(),
+                BuildConfig.VERSION_CODE
+        });
+
+        return Article.calculateContentHash(key);
+    }
+
+    public String render(Article article) {
+        String cssName;
+        boolean highContrast = false;
+        boolean weightedFont = false;
+        switch(Themes.getCurrentTheme()) {
+            case E_INK:
+                weightedFont = true;
+            case LIGHT_CONTRAST:
+                highContrast = true;
+            case LIGHT:
+            default:
+                cssName = "main";
+                break;
+
+            case DARK_CONTRAST:
+                highContrast = true;
+            case DARK:
+                cssName = "dark";
+                break;
+
+            case SOLARIZED:
+                cssName = "solarized";
+                highContrast = false;
+                break;
+        }
+
+        List<String> additionalClasses = new ArrayList<>(1);
+        if(highContrast) additionalClasses.add("high-contrast");
+        if(weightedFont) additionalClasses.add("weighted-font");
+        if(settings.isArticleFontSerif()) additionalClasses.add("serif-font");
+        if(settings.isArticleTextAlignmentJustify()) additionalClasses.add("text-align-justify");
+        additionalClasses.add(settings.getHandlePreformattedTextOption());
+
+        String classAttr;
+        if(!additionalClasses.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append(" class=\"");
+            for(String cl: additionalClasses) {
+                sb.append(cl).append(' ');
+            }
+            sb.append('"');
+
+            classAttr = sb.toString();
+        } else {
+            classAttr = "";
+        }
+
+        String extraHead = getExtraHead();
+        String header = getHeader(article);
+        String htmlContent = getHtmlContent(article);
+
+        return String.format(getHtmlBase(), cssName, classAttr, escapeHtml(article.getTitle()),
+                escapeHtml(article.getUrl()), escapeHtml(article.getDomain()),
+                header, htmlContent, extraHead);
+    }
+
+    private String getExtraHead() {
+        String extra = "";
+
+        if (settings.isAnnotationsEnabled()) {
+            extra += "\n" +
+                    "\t\t<script src=\"annotator.min.js\"></script>" +
+                    "\n" +
+                    "\t\t<script src=\"annotations-android-app.js\"></script>";
+        }
+
+        return extra;
+    }
+
+    private String getHeader(Article article) {
+        StringBuilder header = new StringBuilder();
+
+        Date publishedAt = article.getPublishedAt();
+        if (publishedAt != null) {
+            header.append(android.text.format.DateFormat.getDateFormat(context).format(publishedAt))
+                    .append(' ')
+                    .append(android.text.format.DateFormat.getTimeFormat(context).format(publishedAt));
+        }
+
+        if (!TextUtils.isEmpty(article.getAuthors())) {
+            header.append(' ');
+            header.append(escapeHtml(article.getAuthors()));
+        }
+
+        header.append("<br>\n");
+
+        int estimatedReadingTime = article.getEstimatedReadingTime(settings.getReadingSpeed());
+        header.append(escapeHtml(context.getString(R.string.content_estimatedReadingTime,
+                estimatedReadingTime > 0 ? estimatedReadingTime : "< 1")));
+
+        if (settings.isPreviewImageEnabled() && !TextUtils.isEmpty(article.getPreviewPictureURL())) {
+            header.append("<br>\n");
+            header.append("<img src=\"")
+                    .append(escapeHtml(article.getPreviewPictureURL()))
+                    .append("\"/>");
+        }
+
+        String headerString = header.toString();
+
+        if (BuildConfig.DEBUG) Log.d(TAG, "getHeader() headerString: " + headerString);
+
+        return doImageUrlReplacements(headerString);
+    }
+
+    private String getHtmlContent(Article article) {
+        String htmlContent = article.getContent();
+
+        if(article.isContentPending() && TextUtils.isEmpty(htmlContent)) {
+            htmlContent = "<p>" + escapeHtml(context.getString(R.string.content_pending)) + "</p>";
+        }
+
+        if (BuildConfig.DEBUG) Log.d(TAG, "getHtmlContent() htmlContent: " + htmlContent);
+
+        return doImageUrlReplacements(htmlContent);
+    }
+
+    private String doImageUrlReplacements(String content) {
+        return ImageCacheUtils.replaceImageUrls(content, settings.isImageCacheEnabled());
+    }
+
+    private String getHtmlBase() {
+        String base = htmlBase;
+        if(base == null) {
+            try {
+                base = readRawString(R.raw.webview_htmlbase);
+            } catch(Exception e) {
+                // should not happen
+                throw new RuntimeException("Couldn't load raw resource", e);
+            }
+            htmlBase = base;
+        }
+        return base;
+    }
+
+    private String readRawString(int id) throws IOException {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    context.getResources().openRawResource(id)));
+
+            StringBuilder sb = new StringBuilder();
+            String s;
+            while((s = reader.readLine()) != null) {
+                sb.append(s).append('\n');
+            }
+
+            return sb.toString();
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch(IOException ignored) {}
+            }
+        }
+    }
+
+}
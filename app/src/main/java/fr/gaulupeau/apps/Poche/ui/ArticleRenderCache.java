@@ -0,0 +1,319 @@
+package fr.gaulupeau.apps.Poche.ui;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.gaulupeau.apps.Poche.App;
+import fr.gaulupeau.apps.Poche.data.DbConnection;
+import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
+import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
+import fr.gaulupeau.apps.Poche.events.ArticlesChangedEvent;
+import fr.gaulupeau.apps.Poche.events.FeedsChangedEvent;
+
+/**
+ * Disk cache of the pages built by {@link ArticlePageRenderer}.
+ * <p>
+ * An entry is stored per article along with the {@linkplain ArticlePageRenderer#getCacheKey(Article)
+ * key} it was built for; an entry with a different key is treated as a miss.
+ * Entries are dropped when {@link ArticlesChangedEvent}s report changes affecting the page,
+ * and the pages of unread articles with new content or images are built in the background.
+ * <p>
+ * All the file operations of the UI are done on the cache thread.
+ */
+public class ArticleRenderCache {
+
+    public interface PageCallback {
+        /**
+         * Called on the main thread.
+         */
+        void onPage(String page);
+    }
+
+    private static final String TAG = ArticleRenderCache.class.getSimpleName();
+
+    private static final String CACHE_DIR = "article_pages";
+
+    private static final int MAX_ENTRIES = 200;
+    private static final int MAX_PREBUILT_PER_EVENT = 50;
+
+    private static final EnumSet<FeedsChangedEvent.ChangeType> CHANGE_SET_INVALIDATE = EnumSet.of(
+            FeedsChangedEvent.ChangeType.CONTENT_CHANGED,
+            FeedsChangedEvent.ChangeType.TITLE_CHANGED,
+            FeedsChangedEvent.ChangeType.DOMAIN_CHANGED,
+            FeedsChangedEvent.ChangeType.URL_CHANGED,
+            FeedsChangedEvent.ChangeType.PUBLISHED_AT_CHANGED,
+            FeedsChangedEvent.ChangeType.AUTHORS_CHANGED,
+            FeedsChangedEvent.ChangeType.ESTIMATED_READING_TIME_CHANGED,
+            FeedsChangedEvent.ChangeType.PREVIEW_PICTURE_URL_CHANGED,
+            FeedsChangedEvent.ChangeType.DELETED,
+            FeedsChangedEvent.ChangeType.UNSPECIFIED);
+
+    private static final EnumSet<FeedsChangedEvent.ChangeType> CHANGE_SET_PREBUILD = EnumSet.of(
+            FeedsChangedEvent.ChangeType.ADDED,
+            FeedsChangedEvent.ChangeType.CONTENT_CHANGED,
+            FeedsChangedEvent.ChangeType.FETCHED_IMAGES_CHANGED);
+
+    // reads, builds, writes and deletes the entries, one at a time
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // pages requested by the UI that are not delivered yet; prebuilding yields to them
+    private static final AtomicInteger pendingRequests = new AtomicInteger();
+
+    /**
+     * Gets the page like {@link #getPage(ArticlePageRenderer, Article)} on the cache thread
+     * and passes it to the callback on the main thread.
+     */
+    public static void getPageAsync(ArticlePageRenderer renderer, Article article,
+                                    PageCallback callback) {
+        pendingRequests.incrementAndGet();
+        executor.execute(() -> {
+            String page;
+            try {
+                page = getPage(renderer, article);
+            } finally {
+                pendingRequests.decrementAndGet();
+            }
+
+            mainHandler.post(() -> callback.onPage(page));
+        });
+    }
+
+    /**
+     * Returns the cached page if it was built for the current state of the article,
+     * otherwise builds the page and caches it in the background.
+     * Reads and renders on the calling thread, so it must not be called on the main thread.
+     */
+    public static String getPage(ArticlePageRenderer renderer, Article article) {
+        String key = renderer.getCacheKey(article);
+        if(key == null) return renderer.render(article);
+
+        File file = getEntryFile(article.getArticleId());
+        if(file != null) {
+            String page = readEntry(file, key);
+            if(page != null) {
+                Log.d(TAG, "getPage() cache hit for articleID: " + article.getArticleId());
+
+                executor.execute(() -> {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.setLastModified(System.currentTimeMillis());
+                });
+
+                return page;
+            }
+        }
+
+        String page = renderer.render(article);
+
+        if(file != null) executor.execute(() -> writeEntry(file, key, page));
+
+        return page;
+    }
+
+    /**
+     * Drops the entries affected by the event and schedules building
+     * the pages of the unread articles with new content or images.
+     * May be called on any thread.
+     */
+    public static void onArticlesChanged(ArticlesChangedEvent event) {
+        if(!Collections.disjoint(event.getInvalidateAllChanges(), CHANGE_SET_INVALIDATE)) {
+            Log.d(TAG, "onArticlesChanged() invalidating all");
+            invalidateAll();
+        }
+
+        List<Integer> toBuild = new ArrayList<>();
+
+        for(Map.Entry<Integer, ArticlesChangedEvent.ArticleEntry> entry
+                : event.getChangedArticles().entrySet()) {
+            EnumSet<FeedsChangedEvent.ChangeType> changes = entry.getValue().changes;
+
+            if(!Collections.disjoint(changes, CHANGE_SET_INVALIDATE)) {
+                invalidate(entry.getKey());
+            }
+
+            if(!changes.contains(FeedsChangedEvent.ChangeType.DELETED)
+                    && !Collections.disjoint(changes, CHANGE_SET_PREBUILD)) {
+                toBuild.add(entry.getKey());
+            }
+        }
+
+        if(toBuild.isEmpty()) return;
+
+        // newer articles are more likely to be opened
+        Collections.sort(toBuild, Collections.reverseOrder());
+        if(toBuild.size() > MAX_PREBUILT_PER_EVENT) {
+            toBuild = new ArrayList<>(toBuild.subList(0, MAX_PREBUILT_PER_EVENT));
+        }
+
+        List<Integer> articleIds = toBuild;
+        executor.execute(() -> prebuild(articleIds));
+    }
+
+    /**
+     * Drops the entry of the article on the cache thread.
+     */
+    public static void invalidate(int articleId) {
+        executor.execute(() -> {
+            File file = getEntryFile(articleId);
+            if(file != null && file.exists() && !file.delete()) {
+                Log.w(TAG, "invalidate() couldn't delete " + file);
+            }
+        });
+    }
+
+    /**
+     * Drops all the entries on the cache thread.
+     */
+    public static void invalidateAll() {
+        executor.execute(() -> {
+            File[] files = getCacheDir().listFiles();
+            if(files == null) return;
+
+            for(File file: files) {
+                if(!file.delete()) Log.w(TAG, "invalidateAll() couldn't delete " + file);
+            }
+        });
+    }
+
+    private static void prebuild(List<Integer> articleIds) {
+        Log.d(TAG, "prebuild() articles: " + articleIds.size());
+
+        ArticlePageRenderer renderer = new ArticlePageRenderer(
+                App.getInstance(), App.getInstance().getSettings());
+        ArticleDao articleDao = DbConnection.getSession().getArticleDao();
+
+        int built = 0;
+        for(int i = 0; i < articleIds.size(); i++) {
+            if(pendingRequests.get() > 0) {
+                // let the page the user waits for go first
+                List<Integer> remaining = new ArrayList<>(articleIds.subList(i, articleIds.size()));
+                Log.d(TAG, "prebuild() yielding; built pages: " + built
+                        + ", remaining: " + remaining.size());
+                executor.execute(() -> prebuild(remaining));
+                return;
+            }
+
+            Integer articleId = articleIds.get(i);
+            try {
+                Article article = articleDao.queryBuilder()
+                        .where(ArticleDao.Properties.ArticleId.eq(articleId))
+                        .unique();
+                if(article == null || article.getArchive()
+                        || !Boolean.TRUE.equals(article.getContentDownloaded())) continue;
+
+                String key = renderer.getCacheKey(article);
+                File file = getEntryFile(articleId);
+                if(key == null || file == null) continue;
+
+                if(key.equals(readKey(file))) continue;
+
+                writeEntry(file, key, renderer.render(article));
+                built++;
+            } catch(Exception e) {
+                Log.w(TAG, "prebuild() couldn't build page for articleID: " + articleId, e);
+            }
+        }
+
+        Log.d(TAG, "prebuild() built pages: " + built);
+    }
+
+    private static String readEntry(File file, String key) {
+        if(!file.exists()) return null;
+
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if(!key.equals(reader.readLine())) return null;
+
+            StringBuilder sb = new StringBuilder((int)file.length());
+            char[] buffer = new char[8192];
+            int read;
+            while((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
+        } catch(IOException e) {
+            Log.w(TAG, "readEntry() couldn't read " + file, e);
+            return null;
+        }
+    }
+
+    private static String readKey(File file) {
+        if(!file.exists()) return null;
+
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            return reader.readLine();
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeEntry(File file, String key, String page) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            try(Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+                writer.write(key);
+                writer.write('\n');
+                writer.write(page);
+            }
+
+            if(!tmpFile.renameTo(file)) throw new IOException("Couldn't rename " + tmpFile);
+        } catch(IOException e) {
+            Log.w(TAG, "writeEntry() couldn't write " + file, e);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            return;
+        }
+
+        trim();
+    }
+
+    private static void trim() {
+        File[] files = getCacheDir().listFiles();
+        if(files == null || files.length <= MAX_ENTRIES) return;
+
+        Arrays.sort(files, (f1, f2) -> Long.compare(f2.lastModified(), f1.lastModified()));
+
+        for(int i = MAX_ENTRIES; i < files.length; i++) {
+            if(!files[i].delete()) Log.w(TAG, "trim() couldn't delete " + files[i]);
+        }
+    }
+
+    private static File getEntryFile(int articleId) {
+        File dir = getCacheDir();
+        if(!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "getEntryFile() couldn't create cache dir: " + dir);
+            return null;
+        }
+
+        return new File(dir, articleId + ".html");
+    }
+
+    private static File getCacheDir() {
+        return new File(App.getInstance().getCacheDir(), CACHE_DIR);
+    }
+
+}
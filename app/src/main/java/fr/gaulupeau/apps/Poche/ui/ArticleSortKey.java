@@ -0,0 +1,44 @@
+package fr.gaulupeau.apps.Poche.ui;
+
+import org.greenrobot.greendao.Property;
+
+import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
+
+/**
+ * The property article lists are ordered by.
+ * <p>
+ * Each key is backed by two composite indexes, {@code (ARCHIVE, key)} and {@code (FAVORITE, key)},
+ * matching the filters of the lists; the ID key uses the article ID indexes.
+ * Ties are broken by the row ID, which SQLite keeps at the end of every index entry,
+ * so the order is total and a page can be continued from the last row (keyset pagination).
+ */
+public enum ArticleSortKey {
+
+    ID(ArticleDao.Properties.ArticleId, false),
+    CREATED(ArticleDao.Properties.CreationDate, true),
+    UPDATED(ArticleDao.Properties.UpdateDate, true),
+    READING_TIME(ArticleDao.Properties.EstimatedReadingTime, false),
+    PUBLISHED(ArticleDao.Properties.PublishedAt, true),
+    STARRED(ArticleDao.Properties.StarredAt, true);
+
+    private final Property property;
+    private final boolean nullable;
+
+    ArticleSortKey(Property property, boolean nullable) {
+        this.property = property;
+        this.nullable = nullable;
+    }
+
+    public Property getProperty() {
+        return property;
+    }
+
+    /**
+     * @return true if some articles may have no value;
+     * SQLite puts such rows first in ascending order and last in descending
+     */
+    public boolean isNullable() {
+        return nullable;
+    }
+
+}
@@ -10,6 +10,9 @@ import android.util.Log;
 import android.view.View;
 import android.widget.RemoteViews;
 
+import org.greenrobot.greendao.database.Database;
+import org.greenrobot.greendao.database.DatabaseStatement;
+
 import fr.gaulupeau.apps.InThePoche.R;
 import fr.gaulupeau.apps.Poche.data.DbConnection;
 import fr.gaulupeau.apps.Poche.data.dao.ArticleDao;
@@ -27,8 +30,7 @@ public class IconUnreadWidget extends AppWidgetProvider { // TODO: check widget
                                 int appWidgetId) {
         Log.d(TAG, "updateAppWidget() appWidgetId=" + appWidgetId);
 
-        long unreadCount = DbConnection.getSession().getArticleDao().queryBuilder().
-                where(ArticleDao.Properties.Archive.eq(false)).count();
+        long unreadCount = getUnreadCount(DbConnection.getSession().getDatabase());
 
         Log.d(TAG, "updateAppWidget() read from database unreadCount=" + unreadCount);
 
@@ -59,6 +61,21 @@ public class IconUnreadWidget extends AppWidgetProvider { // TODO: check widget
         appWidgetManager.updateAppWidget(appWidgetId, views);
     }
 
+    private static long getUnreadCount(Database db) {
+        DatabaseStatement stmt = db.compileStatement(getUnreadCountSql());
+        try {
+            return stmt.simpleQueryForLong();
+        } finally {
+            stmt.close();
+        }
+    }
+
+    // counted on the (ARCHIVE, ...) index without reading the rows
+    static String getUnreadCountSql() {
+        return "select count(*) from " + ArticleDao.TABLENAME
+                + " where " + ArticleDao.Properties.Archive.columnName + " = 0";
+    }
+
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         Log.d(TAG, "onUpdate() appWidgetIds.length=" + appWidgetIds.length);
@@ -106,6 +106,7 @@ public class MainActivity extends AppCompatActivity
 
     private Sortable.SortOrder sortOrder;
     private Sortable.SortOrder tagsSortOrder;
+    private ArticleSortKey sortKey;
     private String searchQuery;
     private String searchQueryPrevious;
     private boolean searchUIPending;
@@ -198,6 +199,7 @@ public class MainActivity extends AppCompatActivity
 
         sortOrder = settings.getListSortOrder();
         tagsSortOrder = settings.getTagListSortOrder();
+        sortKey = settings.getListSortKey();
 
         String currentFragmentType = null;
 
@@ -429,6 +431,10 @@ public class MainActivity extends AppCompatActivity
                 switchSortOrder();
                 return true;
 
+            case R.id.menu_main_changeSortKey:
+                showSortKeyDialog();
+                return true;
+
             case R.id.menu_main_syncQueue:
                 syncQueue();
                 return true;
@@ -623,6 +629,7 @@ public class MainActivity extends AppCompatActivity
         if(fragment == null) return;
 
         setSortOrder(fragment);
+        setSortKey(fragment);
         setSearchQueryOnFragment(fragment, searchQuery);
     }
 
@@ -655,6 +662,62 @@ public class MainActivity extends AppCompatActivity
         }
     }
 
+    private void showSortKeyDialog() {
+        final ArticleSortKey[] sortKeys = ArticleSortKey.values();
+
+        CharSequence[] titles = new CharSequence[sortKeys.length];
+        for(int i = 0; i < sortKeys.length; i++) {
+            titles[i] = getString(getSortKeyTitle(sortKeys[i]));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.menu_lists_changeSortKey);
+        builder.setSingleChoiceItems(titles, sortKey.ordinal(), new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dialog.dismiss();
+
+                sortKey = sortKeys[which];
+                settings.setListSortKey(sortKey);
+
+                setSortKey(currentFragment);
+            }
+        });
+        builder.setNegativeButton(android.R.string.cancel, null);
+
+        builder.show();
+    }
+
+    private static int getSortKeyTitle(ArticleSortKey sortKey) {
+        switch(sortKey) {
+            case ID:
+                return R.string.sortKey_id;
+
+            case CREATED:
+                return R.string.sortKey_created;
+
+            case UPDATED:
+                return R.string.sortKey_updated;
+
+            case READING_TIME:
+                return R.string.sortKey_readingTime;
+
+            case PUBLISHED:
+                return R.string.sortKey_published;
+
+            case STARRED:
+                return R.string.sortKey_starred;
+        }
+
+        throw new IllegalArgumentException("Sort key not implemented: " + sortKey);
+    }
+
+    private void setSortKey(Fragment fragment) {
+        if(fragment instanceof ArticleListsFragment) {
+            ((ArticleListsFragment)fragment).setSortKey(sortKey);
+        }
+    }
+
     private void setSearchQuery(String searchQuery) {
         this.searchQueryPrevious = this.searchQuery;
         this.searchQuery = searchQuery;
@@ -32,6 +32,8 @@ import android.view.WindowManager;
 import android.webkit.ConsoleMessage;
 import android.webkit.HttpAuthHandler;
 import android.webkit.WebChromeClient;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 import android.widget.Button;
@@ -47,21 +49,14 @@ import wallabag.apiwrapper.WallabagService;
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
-import org.greenrobot.greendao.query.QueryBuilder;
 
-import fr.gaulupeau.apps.InThePoche.BuildConfig;
 import fr.gaulupeau.apps.Poche.data.dao.entities.Annotation;
 import fr.gaulupeau.apps.Poche.events.ArticlesChangedEvent;
 import fr.gaulupeau.apps.Poche.events.FeedsChangedEvent;
-import fr.gaulupeau.apps.Poche.network.ImageCacheUtils;
+import fr.gaulupeau.apps.Poche.network.ImageRequestInterceptor;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -76,13 +71,15 @@ import fr.gaulupeau.apps.Poche.data.dao.entities.Article;
 import fr.gaulupeau.apps.Poche.service.ServiceHelper;
 import fr.gaulupeau.apps.Poche.tts.TtsFragment;
 
-import static android.text.Html.escapeHtml;
-
 public class ReadArticleActivity extends BaseActionBarActivity {
 
     public static final String EXTRA_ID = "ReadArticleActivity.id";
     public static final String EXTRA_LIST_ARCHIVED = "ReadArticleActivity.archived";
     public static final String EXTRA_LIST_FAVORITES = "ReadArticleActivity.favorites";
+    public static final String EXTRA_LIST_TAG = "ReadArticleActivity.tag";
+    public static final String EXTRA_LIST_SEARCH_QUERY = "ReadArticleActivity.searchQuery";
+    public static final String EXTRA_LIST_SORT_KEY = "ReadArticleActivity.sortKey";
+    public static final String EXTRA_LIST_SORT_ORDER = "ReadArticleActivity.sortOrder";
 
     private static final String TAG = ReadArticleActivity.class.getSimpleName();
 
@@ -101,9 +98,8 @@ public class ReadArticleActivity extends BaseActionBarActivity {
             ArticlesChangedEvent.ChangeType.PUBLISHED_AT_CHANGED,
             ArticlesChangedEvent.ChangeType.AUTHORS_CHANGED,
             ArticlesChangedEvent.ChangeType.URL_CHANGED,
-            ArticlesChangedEvent.ChangeType.ESTIMATED_READING_TIME_CHANGED,
 //            ArticlesChangedEvent.ChangeType.ANNOTATIONS_CHANGED, TODO: fix: own changes will cause reload
-            ArticlesChangedEvent.ChangeType.FETCHED_IMAGES_CHANGED);
+            ArticlesChangedEvent.ChangeType.ESTIMATED_READING_TIME_CHANGED);
 
     private static final EnumSet<ArticlesChangedEvent.ChangeType> CHANGE_SET_PREV_NEXT = EnumSet.of(
             ArticlesChangedEvent.ChangeType.UNSPECIFIED,
@@ -115,10 +111,12 @@ public class ReadArticleActivity extends BaseActionBarActivity {
             ArticlesChangedEvent.ChangeType.UNFAVORITED,
             ArticlesChangedEvent.ChangeType.CREATED_DATE_CHANGED);
 
-    private Boolean contextFavorites;
-    private Boolean contextArchived;
+    private ArticleListContext listContext;
+    private AdjacentArticlePreloader.PreloadedArticle preloadedArticle;
 
     private Settings settings;
+    private ArticlePageRenderer pageRenderer;
+    private ImageRequestInterceptor imageRequestInterceptor;
 
     private ArticleDao articleDao;
 
@@ -174,6 +172,7 @@ public class ReadArticleActivity extends BaseActionBarActivity {
 
     public void onCreate(Bundle savedInstanceState) {
         settings = App.getInstance().getSettings();
+        pageRenderer = new ArticlePageRenderer(this, settings);
 
         fullscreenArticleView = settings.isFullscreenArticleView();
         if(fullscreenArticleView) {
@@ -196,12 +195,8 @@ public class ReadArticleActivity extends BaseActionBarActivity {
         Intent intent = getIntent();
         long articleID = intent.getLongExtra(EXTRA_ID, -1);
         Log.d(TAG, "onCreate() articleId: " + articleID);
-        if(intent.hasExtra(EXTRA_LIST_FAVORITES)) {
-            contextFavorites = intent.getBooleanExtra(EXTRA_LIST_FAVORITES, false);
-        }
-        if(intent.hasExtra(EXTRA_LIST_ARCHIVED)) {
-            contextArchived = intent.getBooleanExtra(EXTRA_LIST_ARCHIVED, false);
-        }
+        listContext = ArticleListContext.fromIntent(intent);
+        preloadedArticle = AdjacentArticlePreloader.take(listContext, articleID);
 
         DaoSession session = DbConnection.getSession();
         articleDao = session.getArticleDao();
@@ -212,6 +207,11 @@ public class ReadArticleActivity extends BaseActionBarActivity {
             return;
         }
 
+        if(article.isContentPending()) {
+            Log.d(TAG, "onCreate() article content is pending, requesting it");
+            ServiceHelper.fetchArticleContent(this, article.getArticleId());
+        }
+
         fontSize = settings.getArticleFontSize();
         volumeButtonsScrolling = settings.isVolumeButtonsScrollingEnabled();
         tapToScroll = settings.isTapToScrollEnabled();
@@ -466,14 +466,17 @@ public class ReadArticleActivity extends BaseActionBarActivity {
     public void onArticlesChangedEvent(ArticlesChangedEvent event) {
         Log.d(TAG, "onArticlesChangedEvent() started");
 
+        boolean preloadedDropped = AdjacentArticlePreloader.onArticlesChanged(event);
+
         boolean updatePrevNext = false;
         if(!Collections.disjoint(event.getInvalidateAllChanges(), CHANGE_SET_PREV_NEXT)) {
             updatePrevNext = true;
         } else {
             EnumSet<ArticlesChangedEvent.ChangeType> changes;
-            if(contextArchived != null) {
-                changes = contextArchived ? event.getArchiveFeedChanges() : event.getMainFeedChanges();
-            } else if(contextFavorites != null && contextFavorites) {
+            if(listContext.getArchived() != null) {
+                changes = listContext.getArchived()
+                        ? event.getArchiveFeedChanges() : event.getMainFeedChanges();
+            } else if(listContext.getFavorites() != null && listContext.getFavorites()) {
                 changes = event.getFavoriteFeedChanges();
             } else {
                 changes = EnumSet.copyOf(event.getMainFeedChanges());
@@ -490,6 +493,8 @@ public class ReadArticleActivity extends BaseActionBarActivity {
             Log.d(TAG, "onArticleChangedEvent() prev/next buttons changed");
 
             updatePrevNextButtons();
+        } else if(preloadedDropped) {
+            AdjacentArticlePreloader.preload(listContext, previousArticleID, nextArticleID);
         }
 
         EnumSet<ArticlesChangedEvent.ChangeType> changes = event.getArticleChanges(article);
@@ -638,8 +643,23 @@ public class ReadArticleActivity extends BaseActionBarActivity {
             }
         });
 
+        if(settings.isImageCacheEnabled()) {
+            imageRequestInterceptor = new ImageRequestInterceptor(this, settings, article.getId());
+        }
+
         webViewContent.setWebViewClient(new WebViewClient() {
 
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view,
+                                                              WebResourceRequest request) {
+                if(imageRequestInterceptor != null) {
+                    WebResourceResponse response = imageRequestInterceptor.intercept(request);
+                    if(response != null) return response;
+                }
+
+                return super.shouldInterceptRequest(view, request);
+            }
+
             @Override
             public void onPageFinished(WebView view, String url) {
                 ReadArticleActivity.this.onPageFinished();
@@ -763,138 +783,23 @@ public class ReadArticleActivity extends BaseActionBarActivity {
     }
 
     private void loadArticleToWebView() {
-        webViewContent.loadDataWithBaseURL("file:///android_asset/", getHtmlPage(),
-                "text/html", "utf-8", null);
-    }
-
-    private String getHtmlPage() {
-        String cssName;
-        boolean highContrast = false;
-        boolean weightedFont = false;
-        switch(Themes.getCurrentTheme()) {
-            case E_INK:
-                weightedFont = true;
-            case LIGHT_CONTRAST:
-                highContrast = true;
-            case LIGHT:
-            default:
-                cssName = "main";
-                break;
-
-            case DARK_CONTRAST:
-                highContrast = true;
-            case DARK:
-                cssName = "dark";
-                break;
-
-            case SOLARIZED:
-                cssName = "solarized";
-                highContrast = false;
-                break;
-        }
-
-        List<String> additionalClasses = new ArrayList<>(1);
-        if(highContrast) additionalClasses.add("high-contrast");
-        if(weightedFont) additionalClasses.add("weighted-font");
-        if(settings.isArticleFontSerif()) additionalClasses.add("serif-font");
-        if(settings.isArticleTextAlignmentJustify()) additionalClasses.add("text-align-justify");
-        additionalClasses.add(settings.getHandlePreformattedTextOption());
-
-        String classAttr;
-        if(!additionalClasses.isEmpty()) {
-            StringBuilder sb = new StringBuilder();
-
-            sb.append(" class=\"");
-            for(String cl: additionalClasses) {
-                sb.append(cl).append(' ');
-            }
-            sb.append('"');
-
-            classAttr = sb.toString();
-        } else {
-            classAttr = "";
-        }
-
-        String htmlBase;
-        try {
-            htmlBase = readRawString(R.raw.webview_htmlbase);
-        } catch(Exception e) {
-            // should not happen
-            throw new RuntimeException("Couldn't load raw resource", e);
-        }
-
-        String extraHead = getExtraHead();
-        String header = getHeader();
-        String htmlContent = getHtmlContent();
-
-        return String.format(htmlBase, cssName, classAttr, escapeHtml(articleTitle),
-                escapeHtml(articleUrl), escapeHtml(articleDomain), header, htmlContent, extraHead);
-    }
-
-    private String getExtraHead() {
-        String extra = "";
-
-        if (annotationsEnabled) {
-            extra += "\n" +
-                    "\t\t<script src=\"annotator.min.js\"></script>" +
-                    "\n" +
-                    "\t\t<script src=\"annotations-android-app.js\"></script>";
-        }
-
-        return extra;
-    }
-
-    private String getHeader() {
-        StringBuilder header = new StringBuilder();
-
-        Date publishedAt = article.getPublishedAt();
-        if (publishedAt != null) {
-            header.append(android.text.format.DateFormat.getDateFormat(this).format(publishedAt))
-                    .append(' ')
-                    .append(android.text.format.DateFormat.getTimeFormat(this).format(publishedAt));
-        }
-
-        if (!TextUtils.isEmpty(article.getAuthors())) {
-            header.append(' ');
-            header.append(escapeHtml(article.getAuthors()));
-        }
-
-        header.append("<br>\n");
-
-        int estimatedReadingTime = article.getEstimatedReadingTime(settings.getReadingSpeed());
-        header.append(escapeHtml(getString(R.string.content_estimatedReadingTime,
-                estimatedReadingTime > 0 ? estimatedReadingTime : "< 1")));
-
-        if (settings.isPreviewImageEnabled() && !TextUtils.isEmpty(article.getPreviewPictureURL())) {
-            header.append("<br>\n");
-            header.append("<img src=\"")
-                    .append(escapeHtml(article.getPreviewPictureURL()))
-                    .append("\"/>");
+        if(preloadedArticle != null && preloadedArticle.article == article
+                && preloadedArticle.page != null) {
+            loadPageToWebView(preloadedArticle.page);
+            return;
         }
 
-        String headerString = header.toString();
-
-        if (BuildConfig.DEBUG) Log.d(TAG, "getHeader() headerString: " + headerString);
-
-        return doImageUrlReplacements(headerString);
-    }
+        final Article loadingArticle = article;
+        ArticleRenderCache.getPageAsync(pageRenderer, article, page -> {
+            if(isDestroyed() || article != loadingArticle) return;
 
-    private String getHtmlContent() {
-        String htmlContent = article.getContent();
-
-        if (BuildConfig.DEBUG) Log.d(TAG, "getHtmlContent() htmlContent: " + htmlContent);
-
-        return doImageUrlReplacements(htmlContent);
+            loadPageToWebView(page);
+        });
     }
 
-    private String doImageUrlReplacements(String content) {
-        if (settings.isImageCacheEnabled()) {
-            Log.d(TAG, "doImageUrlReplacements() replacing image links to cached versions");
-            content = ImageCacheUtils.replaceImagesInHtmlContent(
-                    content, article.getArticleId().longValue());
-        }
-
-        return ImageCacheUtils.replaceWallabagRelativeImgUrls(content);
+    private void loadPageToWebView(String page) {
+        webViewContent.loadDataWithBaseURL("file:///android_asset/", page,
+                "text/html", "utf-8", null);
     }
 
     private void initButtons() {
@@ -923,10 +828,18 @@ public class ReadArticleActivity extends BaseActionBarActivity {
     }
 
     private void updatePrevNextButtons() {
-        previousArticleID = getAdjacentArticle(true);
-        nextArticleID = getAdjacentArticle(false);
+        if(preloadedArticle != null) {
+            previousArticleID = preloadedArticle.previousArticleId;
+            nextArticleID = preloadedArticle.nextArticleId;
+            preloadedArticle = null;
+        } else {
+            previousArticleID = getAdjacentArticle(true);
+            nextArticleID = getAdjacentArticle(false);
+        }
 
         updatePrevNextButtonViews();
+
+        AdjacentArticlePreloader.preload(listContext, previousArticleID, nextArticleID);
     }
 
     private void updatePrevNextButtonViews() {
@@ -1175,8 +1088,7 @@ public class ReadArticleActivity extends BaseActionBarActivity {
         Intent intent = new Intent(this, ReadArticleActivity.class);
         intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
         intent.putExtra(ReadArticleActivity.EXTRA_ID, id);
-        if(contextFavorites != null) intent.putExtra(EXTRA_LIST_FAVORITES, contextFavorites);
-        if(contextArchived != null) intent.putExtra(EXTRA_LIST_ARCHIVED, contextArchived);
+        listContext.putToIntent(intent);
 
         startActivity(intent);
     }
@@ -1312,7 +1224,7 @@ public class ReadArticleActivity extends BaseActionBarActivity {
     }
 
     private boolean loadArticle(long id) {
-        article = getArticle(id);
+        article = preloadedArticle != null ? preloadedArticle.article : getArticle(id);
 
         if(article == null) return false;
 
@@ -1335,44 +1247,7 @@ public class ReadArticleActivity extends BaseActionBarActivity {
     }
 
     private Long getAdjacentArticle(boolean previous) {
-        QueryBuilder<Article> qb = articleDao.queryBuilder();
-
-        if(previous) qb.where(ArticleDao.Properties.ArticleId.gt(article.getArticleId()));
-        else qb.where(ArticleDao.Properties.ArticleId.lt(article.getArticleId()));
-
-        if(contextFavorites != null) qb.where(ArticleDao.Properties.Favorite.eq(contextFavorites));
-        if(contextArchived != null) qb.where(ArticleDao.Properties.Archive.eq(contextArchived));
-
-        if(previous) qb.orderAsc(ArticleDao.Properties.ArticleId);
-        else qb.orderDesc(ArticleDao.Properties.ArticleId);
-
-        List<Article> l = qb.limit(1).list();
-        if(!l.isEmpty()) {
-            return l.get(0).getId();
-        }
-
-        return null;
-    }
-
-    private String readRawString(int id) throws IOException {
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new InputStreamReader(getResources().openRawResource(id)));
-
-            StringBuilder sb = new StringBuilder();
-            String s;
-            while((s = reader.readLine()) != null) {
-                sb.append(s).append('\n');
-            }
-
-            return sb.toString();
-        } finally {
-            if(reader != null) {
-                try {
-                    reader.close();
-                } catch(IOException ignored) {}
-            }
-        }
+        return listContext.getAdjacentArticle(articleDao, article, previous);
     }
 
     private void onPageFinished() {
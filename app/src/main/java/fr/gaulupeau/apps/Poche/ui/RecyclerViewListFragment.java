@@ -1,6 +1,8 @@
 package fr.gaulupeau.apps.Poche.ui;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.IdRes;
 import androidx.annotation.LayoutRes;
 import androidx.fragment.app.Fragment;
@@ -16,14 +18,28 @@ import android.view.ViewGroup;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import fr.gaulupeau.apps.InThePoche.R;
 
+/**
+ * Base fragment for paged lists.
+ * <p>
+ * Pages are loaded and diffed on a background thread shared by all the lists;
+ * the results are applied to the adapter on the main thread.
+ * Loads that were started before the list was invalidated are discarded.
+ */
 public abstract class RecyclerViewListFragment<T> extends Fragment
         implements Sortable, Searchable {
 
     private static final String TAG = "RecyclerVLFragment";
 
+    // queries are serialized by the DB anyway
+    private static final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     protected static final String STATE_SORT_ORDER = "sort_order";
     protected static final String STATE_SEARCH_QUERY = "search_query";
 
@@ -41,6 +57,10 @@ public abstract class RecyclerViewListFragment<T> extends Fragment
     protected boolean active = false;
     protected boolean invalidList = true;
 
+    // incremented when the loaded items become stale; read by the loading thread
+    private volatile int loadGeneration;
+    private boolean resetPending;
+
     public RecyclerViewListFragment() {}
 
     @Override
@@ -147,6 +167,7 @@ public abstract class RecyclerViewListFragment<T> extends Fragment
 
     public void invalidateList() {
         invalidList = true;
+        loadGeneration++; // cancel loads for the old query
 
         if(active) checkList();
     }
@@ -174,15 +195,37 @@ public abstract class RecyclerViewListFragment<T> extends Fragment
     protected abstract RecyclerView.Adapter getListAdapter(List<T> list);
 
     protected void resetContent() {
-        List<T> items = getItems(0);
+        final int generation = ++loadGeneration;
+        resetPending = true;
+
+        final List<T> oldItems = new ArrayList<>(itemList);
+
+        loadExecutor.execute(() -> {
+            if(generation != loadGeneration) return;
+
+            List<T> items = getItems(0, null);
+            if(generation != loadGeneration) return;
+
+            DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
+                    getDiffUtilCallback(oldItems, items));
+
+            mainHandler.post(() -> applyReset(generation, items, diffResult));
+        });
+    }
+
+    private void applyReset(int generation, List<T> items, DiffUtil.DiffResult diffResult) {
+        if(generation != loadGeneration) {
+            Log.d(TAG, "applyReset() discarding stale items");
+            return;
+        }
+
+        resetPending = false;
 
         boolean scrollToTop = false;
         if(recyclerViewLayoutManager != null) {
             scrollToTop = recyclerViewLayoutManager.findFirstCompletelyVisibleItemPosition() == 0;
         }
 
-        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(getDiffUtilCallback(itemList, items));
-
         itemList.clear();
         itemList.addAll(items);
 
@@ -193,26 +236,58 @@ public abstract class RecyclerViewListFragment<T> extends Fragment
         if(scrollToTop && recyclerView != null) {
             recyclerView.scrollToPosition(0);
         }
+
+        onContentReset();
     }
 
+    /**
+     * Called on the main thread once the items of a reset are applied.
+     */
+    protected void onContentReset() {}
+
     protected void loadMore(int page, final int totalItemsCount) {
         Log.d(TAG, String.format("loadMore(page: %d, totalItemsCount: %d)", page, totalItemsCount));
 
-        List<T> items = getItems(page);
-        final int addedItemsCount = items.size();
+        if(resetPending) {
+            // the page would be relative to the old items
+            Log.d(TAG, "loadMore() reset is pending, ignoring");
+            return;
+        }
 
-        itemList.addAll(items);
+        final int generation = loadGeneration;
+        final T lastItem = itemList.isEmpty() ? null : itemList.get(itemList.size() - 1);
 
-        recyclerView.post(new Runnable() {
-            @Override
-            public void run() {
-                listAdapter.notifyItemRangeInserted(totalItemsCount, addedItemsCount);
-            }
+        loadExecutor.execute(() -> {
+            if(generation != loadGeneration) return;
+
+            List<T> items = getItems(page, lastItem);
+
+            mainHandler.post(() -> applyMore(generation, items));
         });
     }
 
-    protected abstract List<T> getItems(int page);
+    private void applyMore(int generation, List<T> items) {
+        if(generation != loadGeneration) {
+            Log.d(TAG, "applyMore() discarding stale items");
+            return;
+        }
+
+        int positionStart = itemList.size();
+        itemList.addAll(items);
+
+        listAdapter.notifyItemRangeInserted(positionStart, items.size());
+    }
+
+    /**
+     * Loads a page of items. Called on a background thread.
+     *
+     * @param lastItem the last item of the previous pages, {@code null} for the first page
+     */
+    protected abstract List<T> getItems(int page, T lastItem);
 
+    /**
+     * Called on a background thread.
+     */
     protected abstract DiffUtil.Callback getDiffUtilCallback(List<T> oldItems, List<T> newItems);
 
     protected void onSwipeRefresh() {
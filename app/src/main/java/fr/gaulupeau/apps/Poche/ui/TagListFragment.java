@@ -71,7 +71,7 @@ public class TagListFragment extends RecyclerViewListFragment<Tag> {
     }
 
     @Override
-    protected List<Tag> getItems(int page) {
+    protected List<Tag> getItems(int page, Tag lastItem) {
         QueryBuilder<Tag> qb = getQueryBuilder()
                 .limit(PER_PAGE_LIMIT);
 
@@ -0,0 +1,139 @@
+package fr.gaulupeau.apps.Poche.network;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class HtmlImageRewriterTest {
+
+    private static String replace(String html, boolean dropResponsiveAttributes) {
+        return HtmlImageRewriter.rewrite(html, src -> "a.jpg".equals(src)
+                ? new HtmlImageRewriter.Replacement("b.jpg", dropResponsiveAttributes) : null);
+    }
+
+    private static String replace(String html) {
+        return replace(html, false);
+    }
+
+    @Test
+    public void doubleQuotedSrc() {
+        assertEquals("<p><img src=\"b.jpg\" alt=\"x\"></p>",
+                replace("<p><img src=\"a.jpg\" alt=\"x\"></p>"));
+    }
+
+    @Test
+    public void singleQuotedSrc() {
+        assertEquals("<img src='b.jpg'>", replace("<img src='a.jpg'>"));
+    }
+
+    @Test
+    public void unquotedSrcIsQuoted() {
+        assertEquals("<img src=\"b.jpg\" alt=x>", replace("<img src=a.jpg alt=x>"));
+    }
+
+    @Test
+    public void whitespaceAroundEquals() {
+        assertEquals("<img src = \"b.jpg\">", replace("<img src = \"a.jpg\">"));
+    }
+
+    @Test
+    public void replacementIsEscaped() {
+        String result = HtmlImageRewriter.rewrite("<img src=\"a.jpg\">",
+                src -> new HtmlImageRewriter.Replacement("b\"'.jpg", false));
+
+        assertEquals("<img src=\"b&quot;&#39;.jpg\">", result);
+    }
+
+    @Test
+    public void uppercaseTag() {
+        assertEquals("<IMG SRC=\"b.jpg\">", replace("<IMG SRC=\"a.jpg\">"));
+        assertEquals(Collections.singletonList("a.jpg"),
+                HtmlImageRewriter.findImageUrls("<Img Src=\"a.jpg\">"));
+    }
+
+    @Test
+    public void srcsetIsDropped() {
+        assertEquals("<img src=\"b.jpg\" alt=\"x\">",
+                replace("<img srcset=\"a2.jpg 2x\" src=\"a.jpg\" sizes=\"100vw\" alt=\"x\">", true));
+        assertEquals("<img src=\"b.jpg\">",
+                replace("<img src=\"a.jpg\" SRCSET=\"a2.jpg 2x\" data-zoom-src=a3.jpg>", true));
+    }
+
+    @Test
+    public void srcsetIsKept() {
+        assertEquals("<img srcset=\"a2.jpg 2x\" src=\"b.jpg\" sizes=\"100vw\">",
+                replace("<img srcset=\"a2.jpg 2x\" src=\"a.jpg\" sizes=\"100vw\">", false));
+    }
+
+    @Test
+    public void selfClosingTag() {
+        assertEquals("<img src=\"b.jpg\"/>", replace("<img src=\"a.jpg\"/>"));
+        assertEquals("<img src=\"b.jpg\" />", replace("<img src=\"a.jpg\" />"));
+    }
+
+    @Test
+    public void unterminatedTag() {
+        assertEquals("<p>text<img src=\"b.jpg\"", replace("<p>text<img src=\"a.jpg\""));
+        assertEquals("<img src=\"b.jpg\" alt", replace("<img src=\"a.jpg\" alt"));
+    }
+
+    @Test
+    public void unterminatedQuote() {
+        assertEquals(Collections.singletonList("a.jpg"),
+                HtmlImageRewriter.findImageUrls("<img src=\"a.jpg"));
+        assertEquals("<img src=\"b.jpg", replace("<img src=\"a.jpg"));
+    }
+
+    @Test
+    public void truncatedTagName() {
+        String html = "text <img";
+        assertSame(html, replace(html));
+    }
+
+    @Test
+    public void otherTagsAreIgnored() {
+        String html = "<imgx src=\"a.jpg\"><image src=\"a.jpg\"><p src=\"a.jpg\">";
+        assertSame(html, replace(html));
+        assertEquals(Collections.emptyList(), HtmlImageRewriter.findImageUrls(html));
+    }
+
+    @Test
+    public void tagsWithoutSrc() {
+        String html = "<img><img/><img alt=\"x\" hidden>";
+        assertSame(html, replace(html));
+    }
+
+    @Test
+    public void onlyTheFirstSrcIsUsed() {
+        assertEquals(Collections.singletonList("a.jpg"),
+                HtmlImageRewriter.findImageUrls("<img src=\"a.jpg\" src=\"c.jpg\">"));
+    }
+
+    @Test
+    public void severalTags() {
+        String html = "<img src=\"a.jpg\"> and <img hidden src=c.jpg> and <img src='a.jpg'>";
+
+        assertEquals(Arrays.asList("a.jpg", "c.jpg", "a.jpg"), HtmlImageRewriter.findImageUrls(html));
+        assertEquals("<img src=\"b.jpg\"> and <img hidden src=c.jpg> and <img src='b.jpg'>",
+                replace(html));
+    }
+
+    @Test
+    public void attributeValueIsDecoded() {
+        assertEquals("a.jpg?w=1&h=2", HtmlImageRewriter.decodeAttributeValue("a.jpg?w=1&amp;h=2"));
+        assertEquals("<\"'>", HtmlImageRewriter.decodeAttributeValue("&lt;&quot;&apos;&gt;"));
+        assertEquals("a b/c", HtmlImageRewriter.decodeAttributeValue("a&#32;b&#x2F;c"));
+    }
+
+    @Test
+    public void unknownReferencesAreKept() {
+        String value = "a.jpg?a=1&b=2&copy=3&nbsp;&#xZZ;&#;&";
+        assertSame(value, HtmlImageRewriter.decodeAttributeValue(value));
+        assertEquals("a&nbsp;&", HtmlImageRewriter.decodeAttributeValue("a&nbsp;&amp;"));
+    }
+
+}